@@ -0,0 +1,366 @@
+package org.graylog2.log4j2;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * An in-process GELF server which decodes the received messages and records their end-to-end latency.
+ * <p>
+ * The latency is taken from the short message, which has to start with {@code lt:} followed by the value of
+ * {@link System#nanoTime()} when the event was logged. Messages without it are only counted.
+ */
+abstract class FakeGelfServer {
+    private static final byte[] LATENCY_MARKER = "\"short_message\":\"lt:".getBytes(StandardCharsets.US_ASCII);
+
+    private final Object lock = new Object();
+    private long[] latencies = new long[1024 * 1024];
+    private int received;
+    private long lastReceivedNanos;
+
+    /**
+     * @return the local port the server is listening on
+     */
+    abstract int getPort();
+
+    abstract void stop() throws InterruptedException;
+
+    int getReceived() {
+        synchronized (lock) {
+            return received;
+        }
+    }
+
+    long getLastReceivedNanos() {
+        synchronized (lock) {
+            return lastReceivedNanos;
+        }
+    }
+
+    /**
+     * @return the recorded latencies in nanoseconds in ascending order
+     */
+    long[] getSortedLatencies() {
+        final long[] result;
+        synchronized (lock) {
+            result = Arrays.copyOf(latencies, received);
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Decompresses the payload if necessary and records the contained message.
+     */
+    final void receivePayload(final byte[] data, final int offset, final int length) throws IOException {
+        if (length >= 2 && data[offset] == (byte) 0x1f && data[offset + 1] == (byte) 0x8b) {
+            receiveMessage(readFully(new GZIPInputStream(new ByteArrayInputStream(data, offset, length))));
+        } else if (length >= 1 && data[offset] == (byte) 0x78) {
+            receiveMessage(readFully(new InflaterInputStream(new ByteArrayInputStream(data, offset, length))));
+        } else {
+            receiveMessage(Arrays.copyOfRange(data, offset, offset + length));
+        }
+    }
+
+    final void receiveMessage(final byte[] json) {
+        final long now = System.nanoTime();
+        final long timestamp = parseTimestamp(json);
+        final long latency = timestamp < 0 ? -1L : now - timestamp;
+        synchronized (lock) {
+            if (received == latencies.length) {
+                latencies = Arrays.copyOf(latencies, latencies.length * 2);
+            }
+            latencies[received++] = latency;
+            lastReceivedNanos = now;
+        }
+    }
+
+    private static long parseTimestamp(final byte[] json) {
+        final int start = indexOf(json, LATENCY_MARKER);
+        if (start < 0) {
+            return -1L;
+        }
+        long value = 0L;
+        for (int i = start + LATENCY_MARKER.length; i < json.length && json[i] >= '0' && json[i] <= '9'; i++) {
+            value = value * 10 + (json[i] - '0');
+        }
+        return value;
+    }
+
+    private static int indexOf(final byte[] data, final byte[] pattern) {
+        outer:
+        for (int i = 0; i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static byte[] readFully(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Receives GELF UDP datagrams and reassembles chunked messages.
+     */
+    static final class Udp extends FakeGelfServer {
+        private static final int MAX_DATAGRAM_SIZE = 65536;
+
+        private final DatagramChannel channel;
+        private final Thread thread;
+        private final Map<Long, byte[][]> chunks = new HashMap<>();
+
+        Udp(final int receiveBufferSize) throws IOException {
+            channel = DatagramChannel.open();
+            channel.socket().setReceiveBufferSize(receiveBufferSize);
+            channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    receiveLoop();
+                }
+            }, "fake-gelf-udp-server");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        int getPort() {
+            return channel.socket().getLocalPort();
+        }
+
+        private void receiveLoop() {
+            final ByteBuffer buffer = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+            try {
+                while (channel.isOpen()) {
+                    buffer.clear();
+                    channel.receive(buffer);
+                    buffer.flip();
+                    final byte[] datagram = Arrays.copyOf(buffer.array(), buffer.limit());
+                    if (datagram.length >= 12 && datagram[0] == 0x1e && datagram[1] == 0x0f) {
+                        receiveChunk(datagram);
+                    } else {
+                        receivePayload(datagram, 0, datagram.length);
+                    }
+                }
+            } catch (IOException e) {
+                // Closed
+            }
+        }
+
+        private void receiveChunk(final byte[] datagram) throws IOException {
+            final long messageId = ByteBuffer.wrap(datagram, 2, 8).getLong();
+            final int sequenceNumber = datagram[10] & 0xff;
+            final int sequenceCount = datagram[11] & 0xff;
+            byte[][] parts = chunks.get(messageId);
+            if (parts == null) {
+                parts = new byte[sequenceCount][];
+                chunks.put(messageId, parts);
+            }
+            parts[sequenceNumber] = Arrays.copyOfRange(datagram, 12, datagram.length);
+            for (byte[] part : parts) {
+                if (part == null) {
+                    return;
+                }
+            }
+
+            chunks.remove(messageId);
+            final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            for (byte[] part : parts) {
+                payload.write(part);
+            }
+            final byte[] data = payload.toByteArray();
+            receivePayload(data, 0, data.length);
+        }
+
+        @Override
+        void stop() throws InterruptedException {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+            thread.join();
+        }
+    }
+
+    /**
+     * Accepts GELF TCP connections and splits the received data into null-delimited frames.
+     */
+    static final class Tcp extends FakeGelfServer {
+        private final ServerSocket serverSocket;
+        private final Thread acceptThread;
+        private final List<Socket> sockets = new ArrayList<>();
+        private final List<Thread> threads = new ArrayList<>();
+
+        Tcp() throws IOException {
+            serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            acceptThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    acceptLoop();
+                }
+            }, "fake-gelf-tcp-server");
+            acceptThread.setDaemon(true);
+            acceptThread.start();
+        }
+
+        @Override
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        private void acceptLoop() {
+            try {
+                while (true) {
+                    final Socket socket = serverSocket.accept();
+                    final Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            readLoop(socket);
+                        }
+                    }, "fake-gelf-tcp-connection");
+                    thread.setDaemon(true);
+                    synchronized (sockets) {
+                        sockets.add(socket);
+                        threads.add(thread);
+                    }
+                    thread.start();
+                }
+            } catch (IOException e) {
+                // Closed
+            }
+        }
+
+        private void readLoop(final Socket socket) {
+            final ByteArrayOutputStream frame = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[64 * 1024];
+            try (InputStream in = socket.getInputStream()) {
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    int start = 0;
+                    for (int i = 0; i < read; i++) {
+                        if (buffer[i] == 0) {
+                            frame.write(buffer, start, i - start);
+                            receiveMessage(frame.toByteArray());
+                            frame.reset();
+                            start = i + 1;
+                        }
+                    }
+                    frame.write(buffer, start, read - start);
+                }
+            } catch (SocketException e) {
+                // Closed
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        void stop() throws InterruptedException {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+            acceptThread.join();
+            synchronized (sockets) {
+                for (Socket socket : sockets) {
+                    try {
+                        socket.close();
+                    } catch (IOException e) {
+                        // Ignore
+                    }
+                }
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+    }
+
+    /**
+     * Accepts GELF HTTP requests with newline-delimited messages.
+     */
+    static final class Http extends FakeGelfServer {
+        private final HttpServer server;
+        private final ExecutorService executor = Executors.newCachedThreadPool();
+
+        Http() throws IOException {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 50);
+            server.createContext("/gelf", new HttpHandler() {
+                @Override
+                public void handle(final HttpExchange exchange) throws IOException {
+                    receiveRequest(exchange);
+                }
+            });
+            server.setExecutor(executor);
+            server.start();
+        }
+
+        @Override
+        int getPort() {
+            return server.getAddress().getPort();
+        }
+
+        private void receiveRequest(final HttpExchange exchange) throws IOException {
+            final String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+            InputStream in = exchange.getRequestBody();
+            if ("gzip".equals(encoding)) {
+                in = new GZIPInputStream(in);
+            } else if ("deflate".equals(encoding)) {
+                in = new InflaterInputStream(in);
+            }
+            final byte[] body = readFully(in);
+            int start = 0;
+            for (int i = 0; i <= body.length; i++) {
+                if (i == body.length || body[i] == '\n') {
+                    if (i > start) {
+                        receiveMessage(Arrays.copyOfRange(body, start, i));
+                    }
+                    start = i + 1;
+                }
+            }
+            exchange.sendResponseHeaders(202, -1);
+            exchange.close();
+        }
+
+        @Override
+        void stop() {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+}
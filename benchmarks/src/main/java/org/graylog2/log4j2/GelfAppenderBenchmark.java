@@ -0,0 +1,180 @@
+package org.graylog2.log4j2;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.MarkerManager;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.apache.logging.log4j.core.util.KeyValuePair;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.graylog2.gelfclient.GelfConfiguration;
+import org.graylog2.gelfclient.GelfMessage;
+import org.graylog2.gelfclient.transport.GelfTransport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of {@link GelfAppender#append(LogEvent)} without any I/O.
+ * <p>
+ * The appender sends to a no-op transport, so the results only contain formatting and encoding of the log event.
+ * The event is created once per trial and its source location is set explicitly, so the cost of capturing the
+ * location in the logger isn't included either.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GelfAppenderBenchmark {
+    /**
+     * {@code FRAME} uses the encoder of this library like the built-in transports, {@code DEFAULT} the
+     * {@code GelfMessageBuilder} of gelfclient like the default configuration ({@code transport="NETTY"}).
+     */
+    @Param({"FRAME", "DEFAULT"})
+    public String transport;
+
+    @Param({"false", "true"})
+    public boolean layout;
+
+    @Param({"false", "true"})
+    public boolean includeSource;
+
+    @Param({"0", "10", "50"})
+    public int threadContextSize;
+
+    /**
+     * {@code NONE} logs without exception, {@code SIMPLE} includes the stack trace without causes and {@code CAUSE}
+     * includes the stack trace with causes.
+     */
+    @Param({"NONE", "SIMPLE", "CAUSE"})
+    public String exception;
+
+    @Param({"0", "5"})
+    public int additionalFields;
+
+    private GelfAppender appender;
+    private LogEvent event;
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        final Layout<? extends Serializable> patternLayout = layout
+                ? PatternLayout.newBuilder().withPattern("%d %-5p [%t] %c{1.} - %m%n").build()
+                : null;
+
+        final KeyValuePair[] fields = new KeyValuePair[additionalFields];
+        for (int i = 0; i < additionalFields; i++) {
+            fields[i] = new KeyValuePair("field" + i, "value" + i);
+        }
+
+        final boolean includeStackTrace = !"NONE".equals(exception);
+        final boolean includeExceptionCause = "CAUSE".equals(exception);
+        appender = new GelfAppender("benchmark", patternLayout, null, false,
+                new GelfConfiguration(new InetSocketAddress("localhost", 12201)), "benchmark.example.com",
+                includeSource, true, includeStackTrace, fields, includeExceptionCause);
+        appender.setClient("FRAME".equals(transport)
+                ? new NoopFrameTransport(blackhole)
+                : new NoopTransport(blackhole));
+
+        final Map<String, String> contextMap = new HashMap<>();
+        for (int i = 0; i < threadContextSize; i++) {
+            contextMap.put("key" + i, "value" + i);
+        }
+
+        final Throwable thrown = includeStackTrace
+                ? new IllegalStateException("Benchmark", createThrowable(20))
+                : null;
+
+        event = Log4jLogEvent.newBuilder()
+                .setLoggerName("org.graylog2.log4j2.GelfAppenderBenchmark")
+                .setLoggerFqcn(GelfAppenderBenchmark.class.getName())
+                .setLevel(Level.INFO)
+                .setMarker(MarkerManager.getMarker("BENCHMARK"))
+                .setMessage(new ParameterizedMessage("Hello {}, this is message {}", "World", 42))
+                .setThrown(thrown)
+                .setContextMap(contextMap)
+                .setThreadName("main")
+                .setSource(new StackTraceElement(GelfAppenderBenchmark.class.getName(), "append",
+                        "GelfAppenderBenchmark.java", 42))
+                .setTimeMillis(System.currentTimeMillis())
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        appender.stop();
+    }
+
+    @Benchmark
+    public void append() {
+        appender.append(event);
+    }
+
+    private static Throwable createThrowable(final int depth) {
+        if (depth == 0) {
+            return new RuntimeException("Root cause");
+        }
+        return createThrowable(depth - 1);
+    }
+
+    private static class NoopTransport implements GelfTransport {
+        private final Blackhole blackhole;
+
+        NoopTransport(final Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void send(final GelfMessage message) {
+            blackhole.consume(message);
+        }
+
+        @Override
+        public boolean trySend(final GelfMessage message) {
+            blackhole.consume(message);
+            return true;
+        }
+
+        @Override
+        public void stop() {
+        }
+    }
+
+    private static class NoopFrameTransport extends NoopTransport implements GelfFrameTransport {
+        private final Blackhole blackhole;
+
+        NoopFrameTransport(final Blackhole blackhole) {
+            super(blackhole);
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public boolean trySend(final byte[] frame, final int offset, final int length, final int severity) {
+            blackhole.consume(frame);
+            blackhole.consume(length);
+            return true;
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+}
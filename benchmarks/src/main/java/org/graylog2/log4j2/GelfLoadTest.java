@@ -0,0 +1,265 @@
+package org.graylog2.log4j2;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AppenderLoggingException;
+import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginFactory;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends log events through {@link GelfAppender} and the network stack to an in-process {@link FakeGelfServer} and
+ * reports throughput, loss and end-to-end latency.
+ * <p>
+ * All arguments are {@code key=value} pairs. The following keys control the load test, all other keys are passed to
+ * the appender as attributes, e. g. {@code protocol=TCP queueSize=4096 tcpNoDelay=true}:
+ * <ul>
+ * <li>{@code threads}: the number of producer threads (default: 4)</li>
+ * <li>{@code messages}: the number of messages per producer thread (default: 100000)</li>
+ * <li>{@code rate}: the maximum number of messages per second per producer thread, 0 for no limit (default: 0)</li>
+ * <li>{@code messageSize}: the minimum length of the short message in characters (default: 100)</li>
+ * <li>{@code drainTimeout}: the time in milliseconds to wait for outstanding messages after sending (default: 5000)</li>
+ * <li>{@code receiveBufferSize}: the receive buffer size of the fake UDP server in bytes (default: 8 MiB)</li>
+ * </ul>
+ */
+public final class GelfLoadTest {
+    private final Map<String, String> settings;
+    private final int threads;
+    private final int messages;
+    private final long rate;
+    private final int messageSize;
+    private final long drainTimeout;
+    private final int receiveBufferSize;
+
+    private GelfLoadTest(final Map<String, String> settings) {
+        this.settings = settings;
+        this.threads = Integer.parseInt(remove(settings, "threads", "4"));
+        this.messages = Integer.parseInt(remove(settings, "messages", "100000"));
+        this.rate = Long.parseLong(remove(settings, "rate", "0"));
+        this.messageSize = Integer.parseInt(remove(settings, "messageSize", "100"));
+        this.drainTimeout = Long.parseLong(remove(settings, "drainTimeout", "5000"));
+        this.receiveBufferSize = Integer.parseInt(remove(settings, "receiveBufferSize", "8388608"));
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final Map<String, String> settings = new LinkedHashMap<>();
+        for (String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                System.err.println("Invalid argument " + arg + ", expected key=value");
+                System.exit(1);
+            }
+            settings.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        new GelfLoadTest(settings).run();
+    }
+
+    private static String remove(final Map<String, String> settings, final String key, final String defaultValue) {
+        final String value = settings.remove(key);
+        return value == null ? defaultValue : value;
+    }
+
+    private void run() throws Exception {
+        final String protocol = settings.containsKey("protocol") ? settings.get("protocol").toUpperCase() : "UDP";
+        final FakeGelfServer server;
+        if ("UDP".equals(protocol)) {
+            server = new FakeGelfServer.Udp(receiveBufferSize);
+        } else if ("HTTP".equals(protocol)) {
+            server = new FakeGelfServer.Http();
+        } else {
+            server = new FakeGelfServer.Tcp();
+        }
+
+        final Map<String, String> attributes = new LinkedHashMap<>();
+        attributes.put("name", "gelf-load-test");
+        attributes.put("jmxEnabled", "false");
+        attributes.put("includeSource", "false");
+        attributes.putAll(settings);
+        attributes.put("server", "127.0.0.1");
+        attributes.put("port", String.valueOf(server.getPort()));
+        final GelfAppender appender = createAppender(attributes);
+        appender.start();
+
+        final AtomicLong errors = new AtomicLong();
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        final Thread[] producers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            producers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startSignal.await();
+                        produce(appender, errors);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, "producer-" + i);
+            producers[i].start();
+        }
+
+        final long start = System.nanoTime();
+        startSignal.countDown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        final long sendEnd = System.nanoTime();
+
+        final long sent = (long) threads * messages;
+        final long expected = sent - appender.getMetrics().getEventsDropped() - errors.get();
+        final long drainDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainTimeout);
+        while (server.getReceived() < expected && System.nanoTime() < drainDeadline) {
+            TimeUnit.MILLISECONDS.sleep(10L);
+        }
+
+        final Map<String, Long> droppedByReason = appender.getMetrics().getEventsDroppedByReason();
+        appender.stop();
+        server.stop();
+        report(appender, sent, server, start, sendEnd, errors.get(), droppedByReason);
+    }
+
+    private void produce(final GelfAppender appender, final AtomicLong errors) throws InterruptedException {
+        final StringBuilder message = new StringBuilder(messageSize + 32);
+        final long intervalNanos = rate > 0 ? TimeUnit.SECONDS.toNanos(1L) / rate : 0L;
+        long next = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            if (intervalNanos > 0) {
+                final long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+                next += intervalNanos;
+            }
+
+            message.setLength(0);
+            message.append("lt:").append(System.nanoTime()).append(' ');
+            while (message.length() < messageSize) {
+                message.append('x');
+            }
+            final LogEvent event = Log4jLogEvent.newBuilder()
+                    .setLoggerName("org.graylog2.log4j2.GelfLoadTest")
+                    .setLevel(Level.INFO)
+                    .setMessage(new SimpleMessage(message.toString()))
+                    .setThreadName(Thread.currentThread().getName())
+                    .setTimeMillis(System.currentTimeMillis())
+                    .build();
+            try {
+                appender.append(event);
+            } catch (AppenderLoggingException e) {
+                errors.incrementAndGet();
+            }
+        }
+    }
+
+    private void report(final GelfAppender appender, final long sent, final FakeGelfServer server, final long start,
+                        final long sendEnd, final long errors, final Map<String, Long> droppedByReason) {
+        final long received = server.getReceived();
+        final long sendNanos = sendEnd - start;
+        final long deliveryNanos = Math.max(1L, server.getLastReceivedNanos() - start);
+        final long[] latencies = server.getSortedLatencies();
+        final int firstLatency = firstNonNegative(latencies);
+
+        System.out.println(appender);
+        System.out.printf("producers:  %d threads x %d messages of %d characters%n", threads, messages, messageSize);
+        System.out.printf("sent:       %d in %d ms (%.0f msgs/s)%n",
+                sent, TimeUnit.NANOSECONDS.toMillis(sendNanos), perSecond(sent, sendNanos));
+        System.out.printf("delivered:  %d (%.0f msgs/s)%n", received, perSecond(received, deliveryNanos));
+        System.out.printf("lost:       %d (%.3f %%), dropped by appender: %s, errors: %d%n",
+                sent - received, 100d * (sent - received) / sent, nonZero(droppedByReason), errors);
+        if (firstLatency < latencies.length) {
+            System.out.printf("latency:    p50=%d us, p99=%d us, p999=%d us, max=%d us%n",
+                    percentile(latencies, firstLatency, 0.5d), percentile(latencies, firstLatency, 0.99d),
+                    percentile(latencies, firstLatency, 0.999d), micros(latencies[latencies.length - 1]));
+        }
+    }
+
+    private static double perSecond(final long count, final long nanos) {
+        return count * (double) TimeUnit.SECONDS.toNanos(1L) / nanos;
+    }
+
+    private static int firstNonNegative(final long[] sorted) {
+        final int index = Arrays.binarySearch(sorted, 0L);
+        if (index < 0) {
+            return -index - 1;
+        }
+        int first = index;
+        while (first > 0 && sorted[first - 1] == 0L) {
+            first--;
+        }
+        return first;
+    }
+
+    private static long percentile(final long[] sorted, final int from, final double percentile) {
+        final int count = sorted.length - from;
+        final int index = from + Math.min(count - 1, (int) Math.ceil(percentile * count) - 1);
+        return micros(sorted[Math.max(from, index)]);
+    }
+
+    private static long micros(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private static Map<String, Long> nonZero(final Map<String, Long> counts) {
+        final Map<String, Long> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            if (entry.getValue() > 0) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Calls the plugin factory of the appender like Log4j does, so that the load test doesn't depend on the plugin
+     * discovery (which doesn't survive shading) and every attribute of the appender can be set.
+     */
+    private static GelfAppender createAppender(final Map<String, String> attributes) throws Exception {
+        final Map<String, String> unused = new LinkedHashMap<>(attributes);
+        for (Method method : GelfAppender.class.getMethods()) {
+            if (!method.isAnnotationPresent(PluginFactory.class)) {
+                continue;
+            }
+
+            final Class<?>[] types = method.getParameterTypes();
+            final Annotation[][] annotations = method.getParameterAnnotations();
+            final Object[] values = new Object[types.length];
+            for (int i = 0; i < types.length; i++) {
+                for (Annotation annotation : annotations[i]) {
+                    if (annotation instanceof PluginAttribute) {
+                        final PluginAttribute attribute = (PluginAttribute) annotation;
+                        final String value = unused.remove(attribute.value());
+                        values[i] = convert(types[i], value, attribute);
+                    }
+                }
+            }
+            if (!unused.isEmpty()) {
+                throw new IllegalArgumentException("Unknown appender attributes " + unused.keySet());
+            }
+            return (GelfAppender) method.invoke(null, values);
+        }
+        throw new IllegalStateException("No plugin factory found in " + GelfAppender.class);
+    }
+
+    private static Object convert(final Class<?> type, final String value, final PluginAttribute attribute) {
+        if (type == Boolean.class) {
+            return value == null ? attribute.defaultBoolean() : Boolean.valueOf(value);
+        } else if (type == Integer.class) {
+            return value == null ? attribute.defaultInt() : Integer.valueOf(value);
+        } else if (type == Long.class) {
+            return value == null ? attribute.defaultLong() : Long.valueOf(value);
+        } else if (type == Double.class) {
+            return value == null ? attribute.defaultDouble() : Double.valueOf(value);
+        }
+        return value == null && !attribute.defaultString().isEmpty() ? attribute.defaultString() : value;
+    }
+}
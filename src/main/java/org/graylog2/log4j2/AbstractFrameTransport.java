@@ -0,0 +1,315 @@
+package org.graylog2.log4j2;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.status.StatusLogger;
+import org.graylog2.gelfclient.GelfConfiguration;
+import org.graylog2.gelfclient.GelfMessage;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base class for the transports of this library.
+ * <p>
+ * Encoded GELF messages are collected in a {@link FrameBatchQueue} and handed to {@link #write(FrameBatchQueue.Batch)}
+ * by a single sender thread, which also takes care of reconnecting after I/O errors.
+ * <p>
+ * If a {@link DiskSpillBuffer} is configured, frames which can't be queued in memory or which arrive while the GELF
+ * server is unreachable are spilled to disk instead and replayed in order by a second thread once a batch could be
+ * written again.
+ */
+abstract class AbstractFrameTransport implements GelfFrameTransport, QueueingTransport {
+    private static final Logger LOG = StatusLogger.getLogger();
+    static final long STOP_TIMEOUT_MILLIS = 1000L;
+    // Keeps a reconnect delay of 0 from retrying an unreachable server in a busy loop
+    static final long MIN_RECONNECT_DELAY_MILLIS = 100L;
+
+    protected final GelfConfiguration config;
+    protected final GelfMetrics metrics;
+    private final FrameBatchQueue queue;
+    private final Thread senderThread;
+    private final DiskSpillBuffer spill;
+    private final Thread replayThread;
+    private final ThreadLocal<GelfOutputBuffer> outputBuffer = new ThreadLocal<GelfOutputBuffer>() {
+        @Override
+        protected GelfOutputBuffer initialValue() {
+            return new GelfOutputBuffer(1024);
+        }
+    };
+
+    private volatile boolean running = true;
+    private volatile boolean connected = true;
+    // Only written by the sender thread
+    private volatile int discardedFrames;
+
+    /**
+     * @param spill the buffer for frames which can't be queued in memory or {@code null} to discard them
+     */
+    AbstractFrameTransport(final GelfConfiguration config, final int batchSize, final long lingerMillis,
+                           final OverflowPolicy overflowPolicy, final DiskSpillBuffer spill, final String threadName) {
+        this.config = config;
+        this.metrics = overflowPolicy.getMetrics();
+        this.queue = new FrameBatchQueue(batchSize, lingerMillis, config.getQueueSize(), overflowPolicy);
+        this.spill = spill;
+        final String suffix = "-" + config.getHostname() + ":" + config.getPort();
+        this.senderThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sendLoop();
+            }
+        }, threadName + suffix);
+        this.senderThread.setDaemon(true);
+        if (spill == null) {
+            this.replayThread = null;
+        } else {
+            this.replayThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    replayLoop();
+                }
+            }, threadName + "-replay" + suffix);
+            this.replayThread.setDaemon(true);
+        }
+    }
+
+    /**
+     * Starts the sender thread. Has to be called once the transport has been fully constructed.
+     */
+    final void startSender() {
+        senderThread.start();
+        if (replayThread != null) {
+            replayThread.start();
+        }
+    }
+
+    /**
+     * Sends the null-delimited frames of the given batch, starting at {@link FrameBatchQueue.Batch#resumeOffset()}.
+     * Implementations which send frame by frame mark the written frames with
+     * {@link FrameBatchQueue.Batch#markSent(int)}, so that a retry doesn't send them twice. Frames which have been
+     * written to a connection before it broke are not sent again, even if the server didn't receive them.
+     *
+     * @throws IOException if sending failed, the batch will be retried after {@link #retryDelay(int)}
+     */
+    protected abstract void write(FrameBatchQueue.Batch batch) throws IOException;
+
+    /**
+     * @param attempt the number of failed attempts to write the current batch so far, starting with {@code 0}
+     * @return the time in milliseconds to wait before the next attempt
+     */
+    protected long retryDelay(final int attempt) {
+        return reconnectDelay();
+    }
+
+    /**
+     * @return the configured reconnect delay in milliseconds, but at least {@link #MIN_RECONNECT_DELAY_MILLIS}
+     */
+    protected final long reconnectDelay() {
+        return Math.max(config.getReconnectDelay(), MIN_RECONNECT_DELAY_MILLIS);
+    }
+
+    /**
+     * Closes the underlying connection after an error or when the transport is stopped.
+     */
+    protected abstract void closeConnection();
+
+    /**
+     * Releases the resources of the transport. Called by the sender thread when it exits, i. e. after the last write.
+     */
+    protected void onTerminated() {
+    }
+
+    @Override
+    public boolean trySend(final byte[] frame, final int offset, final int length, final int severity) {
+        if (spill == null) {
+            return queue.offer(frame, offset, length, severity);
+        }
+
+        // Keep the order of messages: as long as spilled frames are waiting to be replayed, new frames are spilled too
+        if (connected && spill.isEmpty() && queue.offerIfNotFull(frame, offset, length, severity)) {
+            return true;
+        }
+        return spill.append(frame, offset, length, severity) || queue.offer(frame, offset, length, severity);
+    }
+
+    @Override
+    public void flush() {
+        queue.flush();
+    }
+
+    @Override
+    public boolean trySend(final GelfMessage message) {
+        final GelfOutputBuffer buffer = encode(message);
+        try {
+            return trySend(buffer.array(), 0, buffer.size(), OverflowPolicy.severityOf(message));
+        } finally {
+            buffer.reset();
+        }
+    }
+
+    @Override
+    public void send(final GelfMessage message) throws InterruptedException {
+        final GelfOutputBuffer buffer = encode(message);
+        try {
+            queue.put(buffer.array(), 0, buffer.size(), OverflowPolicy.severityOf(message));
+        } finally {
+            buffer.reset();
+        }
+    }
+
+    private GelfOutputBuffer encode(final GelfMessage message) {
+        final GelfOutputBuffer buffer = outputBuffer.get();
+        buffer.reset();
+        GelfMessageEncoder.encode(message, buffer);
+        return buffer;
+    }
+
+    @Override
+    public void stop() {
+        drainAndStop(TimeUnit.MILLISECONDS.toNanos(STOP_TIMEOUT_MILLIS));
+    }
+
+    @Override
+    public int drainAndStop(final long timeoutNanos) {
+        close();
+        return awaitTermination(System.nanoTime() + timeoutNanos);
+    }
+
+    /**
+     * Stops accepting frames. The sender thread keeps sending the queued frames, including partially filled batches,
+     * and keeps reconnecting after errors until {@link #awaitTermination(long)} gives up.
+     */
+    void close() {
+        if (replayThread != null) {
+            // Spilled frames stay on disk and are replayed by the next transport using the spill directory
+            replayThread.interrupt();
+        }
+        queue.close();
+    }
+
+    /**
+     * Waits for the sender thread to send the queued frames and stops it once the deadline has passed.
+     *
+     * @param deadlineNanos the value of {@link System#nanoTime()} after which queued frames are abandoned
+     * @return the number of frames which couldn't be sent before the deadline, including the batch the sender thread
+     * was retrying
+     */
+    int awaitTermination(final long deadlineNanos) {
+        try {
+            final long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+            if (remainingMillis > 0L) {
+                senderThread.join(remainingMillis);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        running = false;
+        if (senderThread.isAlive()) {
+            senderThread.interrupt();
+            try {
+                // Give the sender thread the chance to release its resources before returning
+                senderThread.join(STOP_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // Batches are only released by the sender thread, so the queue still counts a batch it is stuck with
+        final int abandoned = queue.size() + discardedFrames;
+        if (replayThread != null) {
+            try {
+                replayThread.join(STOP_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (spill != null) {
+            spill.close();
+        }
+        return abandoned;
+    }
+
+    /**
+     * @return {@code false} if the last write failed and the transport is waiting to reconnect
+     */
+    boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public int queueSize() {
+        return queue.size();
+    }
+
+    private void sendLoop() {
+        try {
+            FrameBatchQueue.Batch batch;
+            while (running && (batch = queue.take()) != null) {
+                boolean written = false;
+                try {
+                    written = writeWithRetry(batch);
+                } finally {
+                    if (!written) {
+                        discardedFrames += batch.unsentCount();
+                    }
+                    queue.release(batch);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeConnection();
+            onTerminated();
+        }
+    }
+
+    /**
+     * @return {@code false} if the batch has been discarded because the transport has been stopped
+     */
+    private boolean writeWithRetry(final FrameBatchQueue.Batch batch) throws InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                write(batch);
+                connected = true;
+                return true;
+            } catch (IOException e) {
+                connected = false;
+                closeConnection();
+                metrics.reconnected();
+                if (!running) {
+                    LOG.debug("Discarding GELF messages after shutdown: {}", e.getMessage());
+                    return false;
+                }
+                final long delay = retryDelay(attempt);
+                LOG.debug("Couldn't send to GELF server {}:{}, retrying in {} ms: {}",
+                        config.getHostname(), config.getPort(), delay, e.getMessage());
+                TimeUnit.MILLISECONDS.sleep(delay);
+            }
+        }
+    }
+
+    /**
+     * Moves spilled frames back into the queue while the GELF server is reachable. A frame is only removed from the
+     * spill buffer once it has been queued, so that new frames can't overtake it.
+     */
+    private void replayLoop() {
+        final GelfOutputBuffer buffer = new GelfOutputBuffer(1024);
+        try {
+            while (running) {
+                if (!connected) {
+                    TimeUnit.MILLISECONDS.sleep(reconnectDelay());
+                    continue;
+                }
+                if (!spill.peek(buffer)) {
+                    spill.awaitFrames(reconnectDelay());
+                    continue;
+                }
+                if (!queue.put(buffer.array(), 0, buffer.size(), spill.peekedSeverity())) {
+                    return;
+                }
+                spill.commit();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
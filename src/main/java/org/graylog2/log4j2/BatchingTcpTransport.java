@@ -0,0 +1,89 @@
+package org.graylog2.log4j2;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.status.StatusLogger;
+import org.graylog2.gelfclient.GelfConfiguration;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A GELF TCP transport which coalesces many null-delimited GELF frames into a single write.
+ * <p>
+ * Messages are collected in a {@link FrameBatchQueue} and written by a single sender thread as soon as a batch is
+ * full, {@link #flush()} has been called (e. g. at the end of a batch of events of an asynchronous logger) or the
+ * linger time has expired. This cuts the number of system calls and TCP packets considerably under load.
+ */
+final class BatchingTcpTransport extends AbstractFrameTransport {
+    private static final Logger LOG = StatusLogger.getLogger();
+    private static final int DIRECT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Batches are copied into this buffer in slices. Writing heap buffers would make the JDK copy them into a
+     * temporary direct buffer which is cached per thread with the size of the largest write ever made.
+     */
+    private final ByteBuffer direct = ByteBuffer.allocateDirect(DIRECT_BUFFER_SIZE);
+    private SocketChannel channel;
+
+    BatchingTcpTransport(final GelfConfiguration config, final int batchSize, final long lingerMillis,
+                         final OverflowPolicy overflowPolicy, final DiskSpillBuffer spill) {
+        super(config, batchSize, lingerMillis, overflowPolicy, spill, "gelf-tcp-sender");
+        startSender();
+    }
+
+    @Override
+    protected void write(final FrameBatchQueue.Batch batch) throws IOException {
+        final SocketChannel channel = connect();
+        final byte[] data = batch.array();
+        final int size = batch.size();
+        for (int offset = batch.resumeOffset(); offset < size; ) {
+            final int length = Math.min(direct.capacity(), size - offset);
+            direct.clear();
+            direct.put(data, offset, length);
+            direct.flip();
+            while (direct.hasRemaining()) {
+                channel.write(direct);
+                // A frame which was cut off by an error is sent again completely on the new connection
+                batch.markSent(offset + direct.position());
+            }
+            offset += length;
+        }
+    }
+
+    private SocketChannel connect() throws IOException {
+        if (channel != null && channel.isConnected()) {
+            return channel;
+        }
+
+        final SocketChannel newChannel = SocketChannel.open();
+        try {
+            newChannel.socket().setTcpNoDelay(config.isTcpNoDelay());
+            newChannel.socket().setKeepAlive(config.isTcpKeepAlive());
+            if (config.getSendBufferSize() > 0) {
+                newChannel.socket().setSendBufferSize(config.getSendBufferSize());
+            }
+            newChannel.socket().connect(new InetSocketAddress(config.getHostname(), config.getPort()),
+                    config.getConnectTimeout());
+        } catch (IOException e) {
+            newChannel.close();
+            throw e;
+        }
+
+        channel = newChannel;
+        return channel;
+    }
+
+    @Override
+    protected void closeConnection() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.debug("Couldn't close connection to GELF server", e);
+            }
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package org.graylog2.log4j2;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.status.StatusLogger;
+import org.graylog2.gelfclient.GelfConfiguration;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Random;
+
+/**
+ * A GELF UDP transport with configurable compression.
+ * <p>
+ * Messages which don't fit into a single datagram are split into GELF chunks. Compression is applied before
+ * chunking, so that large payloads (e. g. stack traces) need fewer chunks while small messages can be sent raw.
+ */
+final class ChunkedUdpTransport extends AbstractFrameTransport {
+    private static final Logger LOG = StatusLogger.getLogger();
+
+    static final int MAX_DATAGRAM_SIZE = 1420;
+    static final int MAX_CHUNKS = 128;
+    private static final int CHUNK_HEADER_SIZE = 12;
+    private static final int CHUNK_DATA_SIZE = MAX_DATAGRAM_SIZE - CHUNK_HEADER_SIZE;
+    private static final byte[] CHUNK_MAGIC = new byte[]{0x1e, 0x0f};
+    private static final int QUEUE_BATCH_SIZE = 64 * 1024;
+
+    private final GelfCompressor compressor;
+    private final GelfOutputBuffer compressed = new GelfOutputBuffer(MAX_DATAGRAM_SIZE);
+    // A direct buffer is sent without copying it into a temporary direct buffer first
+    private final ByteBuffer datagram = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+    private final long messageIdSeed = new Random().nextLong();
+    private long messageCounter;
+
+    private DatagramChannel channel;
+    private InetSocketAddress remoteAddress;
+
+    ChunkedUdpTransport(final GelfConfiguration config, final GelfCompressor compressor,
+                        final OverflowPolicy overflowPolicy, final DiskSpillBuffer spill) {
+        super(config, QUEUE_BATCH_SIZE, 0L, overflowPolicy, spill, "gelf-udp-sender");
+        this.compressor = compressor;
+        startSender();
+    }
+
+    @Override
+    protected void write(final FrameBatchQueue.Batch batch) throws IOException {
+        final DatagramChannel channel = open();
+        final byte[] data = batch.array();
+        final int size = batch.size();
+
+        int start = batch.resumeOffset();
+        for (int i = start; i < size; i++) {
+            if (data[i] == 0) {
+                writeFrame(channel, remoteAddress, data, start, i - start);
+                batch.markSent(i + 1);
+                start = i + 1;
+            }
+        }
+    }
+
+    private void writeFrame(final DatagramChannel channel, final InetSocketAddress remoteAddress,
+                            final byte[] frame, final int offset, final int length) throws IOException {
+        byte[] payload = frame;
+        int payloadOffset = offset;
+        int payloadLength = length;
+        if (compressor.shouldCompress(length)) {
+            compressed.reset(64 * 1024);
+            compressor.compress(frame, offset, length, compressed);
+            payload = compressed.array();
+            payloadOffset = 0;
+            payloadLength = compressed.size();
+        }
+
+        if (payloadLength <= MAX_DATAGRAM_SIZE) {
+            datagram.clear();
+            datagram.put(payload, payloadOffset, payloadLength);
+            datagram.flip();
+            channel.send(datagram, remoteAddress);
+            return;
+        }
+
+        final int chunks = (payloadLength + CHUNK_DATA_SIZE - 1) / CHUNK_DATA_SIZE;
+        if (chunks > MAX_CHUNKS) {
+            LOG.debug("Discarding GELF message of {} bytes which would need {} chunks (maximum {})",
+                    payloadLength, chunks, MAX_CHUNKS);
+            metrics.dropped(GelfDropReason.OVERSIZED, 1L);
+            return;
+        }
+
+        final long messageId = messageIdSeed ^ messageCounter++;
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            final int chunkOffset = chunk * CHUNK_DATA_SIZE;
+            final int chunkLength = Math.min(CHUNK_DATA_SIZE, payloadLength - chunkOffset);
+            datagram.clear();
+            datagram.put(CHUNK_MAGIC);
+            datagram.putLong(messageId);
+            datagram.put((byte) chunk);
+            datagram.put((byte) chunks);
+            datagram.put(payload, payloadOffset + chunkOffset, chunkLength);
+            datagram.flip();
+            channel.send(datagram, remoteAddress);
+        }
+    }
+
+    private DatagramChannel open() throws IOException {
+        // Resolved on the sender thread and only once per connection, so that slow DNS never blocks the application
+        if (remoteAddress == null) {
+            final InetSocketAddress address = new InetSocketAddress(config.getHostname(), config.getPort());
+            if (address.isUnresolved()) {
+                throw new IOException("Couldn't resolve GELF server " + config.getHostname());
+            }
+            remoteAddress = address;
+        }
+        if (channel == null || !channel.isOpen()) {
+            channel = DatagramChannel.open();
+            if (config.getSendBufferSize() > 0) {
+                channel.socket().setSendBufferSize(config.getSendBufferSize());
+            }
+        }
+        return channel;
+    }
+
+    @Override
+    protected void closeConnection() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.debug("Couldn't close UDP channel", e);
+            }
+            channel = null;
+        }
+        remoteAddress = null;
+    }
+
+    @Override
+    protected void onTerminated() {
+        compressor.close();
+    }
+}
@@ -0,0 +1,165 @@
+package org.graylog2.log4j2;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.status.StatusLogger;
+import org.graylog2.gelfclient.GelfMessage;
+import org.graylog2.gelfclient.transport.GelfTransport;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A transport which creates its delegate in the background.
+ * <p>
+ * The transports of gelfclient resolve the address of the GELF server and start connecting in their constructor,
+ * which blocks the thread configuring Log4j if DNS is slow or the server is unreachable. This transport returns
+ * immediately, buffers the messages logged in the meantime in a bounded queue according to the {@link OverflowPolicy}
+ * and hands them over to the delegate as soon as it is available. If creating the delegate fails, it is retried after
+ * the reconnect delay.
+ */
+final class DeferredTransport implements GelfTransport, QueueingTransport {
+    private static final Logger LOG = StatusLogger.getLogger();
+
+    private final Callable<GelfTransport> factory;
+    private final BlockingQueue<GelfMessage> pending;
+    private final OverflowPolicy overflowPolicy;
+    private final long retryDelay;
+    private final Thread thread;
+    private volatile GelfTransport delegate;
+    private volatile boolean stopped;
+
+    /**
+     * @param factory        creates the delegate, may block and throw to signal that it should be retried
+     * @param queueSize      the maximum number of messages buffered until the delegate is available
+     * @param retryDelay     the time in milliseconds to wait before retrying to create the delegate
+     * @param overflowPolicy the policy applied when the buffer is full
+     */
+    DeferredTransport(final Callable<GelfTransport> factory, final int queueSize, final long retryDelay,
+                      final OverflowPolicy overflowPolicy) {
+        this.factory = factory;
+        this.pending = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        this.overflowPolicy = overflowPolicy;
+        this.retryDelay = Math.max(0L, retryDelay);
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                createDelegate();
+            }
+        }, "gelf-transport-starter");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void createDelegate() {
+        while (!stopped) {
+            try {
+                final GelfTransport transport = factory.call();
+                synchronized (this) {
+                    if (stopped) {
+                        transport.stop();
+                        return;
+                    }
+                    delegate = transport;
+                }
+                drainTo(transport);
+                return;
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                LOG.warn("Couldn't create GELF transport, retrying in {} ms", retryDelay, e);
+                try {
+                    Thread.sleep(retryDelay);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void drainTo(final GelfTransport transport) {
+        GelfMessage message;
+        while ((message = pending.poll()) != null) {
+            // The delegate applies the overflow policy and reports discarded messages itself
+            transport.trySend(message);
+        }
+    }
+
+    @Override
+    public void send(final GelfMessage message) throws InterruptedException {
+        final GelfTransport transport = delegate;
+        if (transport != null) {
+            transport.send(message);
+            return;
+        }
+        pending.put(message);
+        handOver();
+    }
+
+    @Override
+    public boolean trySend(final GelfMessage message) {
+        final GelfTransport transport = delegate;
+        if (transport != null) {
+            return transport.trySend(message);
+        }
+        if (!overflowPolicy.offer(pending, message, OverflowPolicy.severityOf(message))) {
+            return false;
+        }
+        handOver();
+        return true;
+    }
+
+    /**
+     * Hands over a message which has been buffered while the delegate was being published.
+     */
+    private void handOver() {
+        final GelfTransport transport = delegate;
+        if (transport != null) {
+            drainTo(transport);
+        }
+    }
+
+    boolean isStarted() {
+        return delegate != null;
+    }
+
+    @Override
+    public int queueSize() {
+        final GelfTransport transport = delegate;
+        final int delegateSize = transport instanceof QueueingTransport
+                ? ((QueueingTransport) transport).queueSize() : 0;
+        return pending.size() + delegateSize;
+    }
+
+    @Override
+    public void stop() {
+        drainAndStop(TimeUnit.MILLISECONDS.toNanos(AbstractFrameTransport.STOP_TIMEOUT_MILLIS));
+    }
+
+    /**
+     * Hands the buffered messages over to the delegate and drains it. If the delegate hasn't been created yet, the
+     * buffered messages are abandoned.
+     */
+    @Override
+    public int drainAndStop(final long timeoutNanos) {
+        final GelfTransport transport;
+        synchronized (this) {
+            stopped = true;
+            transport = delegate;
+        }
+        thread.interrupt();
+        if (transport == null) {
+            final int abandoned = pending.size();
+            pending.clear();
+            return abandoned;
+        }
+
+        drainTo(transport);
+        if (transport instanceof QueueingTransport) {
+            return ((QueueingTransport) transport).drainAndStop(timeoutNanos);
+        }
+        transport.stop();
+        return 0;
+    }
+}
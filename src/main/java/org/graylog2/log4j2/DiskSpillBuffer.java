@@ -0,0 +1,452 @@
+package org.graylog2.log4j2;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded FIFO of encoded GELF frames in memory-mapped segment files.
+ * <p>
+ * Frames which can't be queued in memory (e. g. while the GELF server is unreachable) are appended to the newest
+ * segment and replayed in order once the transport is healthy again. The oldest segment is discarded if the maximum
+ * number of segments has been reached, and frames older than the maximum age are skipped instead of being replayed.
+ * <p>
+ * Each segment starts with a header containing a magic number and the read position, followed by records consisting
+ * of the frame length, a timestamp, the GELF severity code and the frame itself. The severity is kept, so that
+ * replayed frames are queued in their priority lane again. A record with length {@code 0} marks the end of a segment.
+ * The read position is updated in the mapped file after every replayed frame, so that spilled frames survive a
+ * restart of the application. The contents are left to the operating system to write back, so frames may be lost if
+ * the machine crashes.
+ * <p>
+ * All methods are thread-safe. A directory can only be used by a single instance at a time.
+ */
+final class DiskSpillBuffer {
+    private static final Logger LOG = StatusLogger.getLogger();
+
+    // "GEL2", segments without the severity in the record header aren't read
+    private static final int MAGIC = 0x47454c32;
+    private static final int HEADER_SIZE = 8;
+    private static final int READ_POSITION_OFFSET = 4;
+    private static final int RECORD_HEADER_SIZE = 16;
+    private static final String SEGMENT_SUFFIX = ".spill";
+    private static final String LOCK_FILE = "spill.lock";
+    static final int MIN_SEGMENT_SIZE = 4096;
+
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final long maxAgeMillis;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private final RandomAccessFile lockFile;
+    private final FileLock lock;
+    private final GelfMetrics metrics;
+
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    private volatile long pendingFrames;
+    private long nextSequence;
+    private Segment peekedSegment;
+    private int peekedPosition;
+    private int peekedSeverity;
+    private boolean closed;
+
+    /**
+     * @param directory    the directory for the segment files, created if it doesn't exist
+     * @param segmentSize  the size of a single segment file in bytes
+     * @param maxSegments  the maximum number of segment files
+     * @param maxAgeMillis the maximum age of a spilled frame in milliseconds, {@code 0} or less to keep frames forever
+     * @param metrics      the metrics to report discarded frames to
+     * @throws IOException if the directory couldn't be created, locked or the existing segments couldn't be read
+     */
+    DiskSpillBuffer(final File directory, final int segmentSize, final int maxSegments, final long maxAgeMillis,
+                    final GelfMetrics metrics) throws IOException {
+        this.directory = directory;
+        this.metrics = metrics;
+        this.segmentSize = Math.max(MIN_SEGMENT_SIZE, segmentSize);
+        this.maxSegments = Math.max(1, maxSegments);
+        this.maxAgeMillis = maxAgeMillis;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Couldn't create spill directory " + directory);
+        }
+
+        this.lockFile = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+        try {
+            this.lock = tryLock(lockFile);
+            if (lock == null) {
+                throw new IOException("Spill directory " + directory + " is already in use");
+            }
+            recover();
+        } catch (IOException e) {
+            lockFile.close();
+            throw e;
+        }
+    }
+
+    private static FileLock tryLock(final RandomAccessFile file) throws IOException {
+        try {
+            return file.getChannel().tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Locked by another instance in this JVM
+            return null;
+        }
+    }
+
+    /**
+     * Loads the segments left over by a previous instance.
+     */
+    private void recover() throws IOException {
+        final File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(final File file) {
+                return file.isFile() && file.getName().endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(final File a, final File b) {
+                return a.getName().compareTo(b.getName());
+            }
+        });
+
+        for (File file : files) {
+            final long sequence;
+            try {
+                final String name = file.getName();
+                sequence = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+
+            final Segment segment = Segment.open(file, segmentSize);
+            if (segment == null || segment.frames == 0) {
+                LOG.debug("Deleting empty or invalid spill segment {}", file);
+                delete(file);
+                continue;
+            }
+
+            segments.add(segment);
+            pendingFrames += segment.frames;
+            nextSequence = sequence + 1;
+        }
+
+        if (pendingFrames > 0) {
+            LOG.info("Found {} spilled GELF messages in {}", pendingFrames, directory);
+        }
+    }
+
+    /**
+     * Appends a frame to the newest segment, discarding the oldest segment if necessary.
+     *
+     * @param severity the GELF severity code of the message
+     * @return {@code false} if the frame is larger than a segment, the buffer is closed or writing failed
+     */
+    synchronized boolean append(final byte[] frame, final int offset, final int length, final int severity) {
+        if (closed || length <= 0 || HEADER_SIZE + RECORD_HEADER_SIZE + length > segmentSize) {
+            return false;
+        }
+
+        try {
+            Segment segment = segments.peekLast();
+            if (segment == null || !segment.hasRoom(length)) {
+                segment = roll();
+            }
+            segment.append(frame, offset, length, System.currentTimeMillis(), severity);
+        } catch (IOException e) {
+            LOG.debug("Couldn't spill GELF message to {}: {}", directory, e.getMessage());
+            return false;
+        }
+
+        pendingFrames++;
+        spilled.incrementAndGet();
+        notifyAll();
+        return true;
+    }
+
+    private Segment roll() throws IOException {
+        final long now = System.currentTimeMillis();
+        while (!segments.isEmpty()
+                && (segments.size() >= maxSegments || isExpired(segments.peekFirst().lastWriteMillis, now))) {
+            final Segment oldest = segments.pollFirst();
+            if (isExpired(oldest.lastWriteMillis, now)) {
+                expired.addAndGet(oldest.frames);
+                metrics.dropped(GelfDropReason.SPILL_EXPIRED, oldest.frames);
+            } else {
+                dropped.addAndGet(oldest.frames);
+                metrics.dropped(GelfDropReason.SPILL_OVERFLOW, oldest.frames);
+            }
+            pendingFrames -= oldest.frames;
+            delete(oldest.file);
+        }
+
+        final File file = new File(directory, String.format("%020d%s", nextSequence, SEGMENT_SUFFIX));
+        final Segment segment = Segment.create(file, segmentSize);
+        nextSequence++;
+        segments.add(segment);
+        return segment;
+    }
+
+    /**
+     * Copies the oldest frame which hasn't expired into {@code out} without removing it. Expired frames are skipped.
+     *
+     * @return {@code true} if a frame has been copied, {@code false} if the buffer is empty
+     */
+    synchronized boolean peek(final GelfOutputBuffer out) {
+        final long now = System.currentTimeMillis();
+        while (!segments.isEmpty()) {
+            final Segment segment = segments.peekFirst();
+            if (segment.frames == 0) {
+                if (segment == segments.peekLast()) {
+                    if (segment.readPosition != HEADER_SIZE) {
+                        segment.clear();
+                    }
+                    return false;
+                }
+                segments.pollFirst();
+                delete(segment.file);
+                continue;
+            }
+
+            if (isExpired(segment.peekTimestamp(), now)) {
+                segment.skip();
+                pendingFrames--;
+                expired.incrementAndGet();
+                metrics.dropped(GelfDropReason.SPILL_EXPIRED, 1L);
+                continue;
+            }
+
+            out.reset();
+            segment.peek(out);
+            peekedSegment = segment;
+            peekedPosition = segment.readPosition;
+            peekedSeverity = segment.peekSeverity();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the GELF severity code of the frame returned by the last call of {@link #peek(GelfOutputBuffer)}
+     */
+    synchronized int peekedSeverity() {
+        return peekedSeverity;
+    }
+
+    /**
+     * Removes the frame returned by the last call of {@link #peek(GelfOutputBuffer)} unless it has been discarded
+     * in the meantime.
+     */
+    synchronized void commit() {
+        final Segment segment = segments.peekFirst();
+        if (segment != null && segment == peekedSegment && segment.readPosition == peekedPosition
+                && segment.frames > 0) {
+            peekedSegment = null;
+            segment.skip();
+            pendingFrames--;
+            replayed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Waits until frames have been spilled or the timeout expired.
+     */
+    synchronized void awaitFrames(final long timeoutMillis) throws InterruptedException {
+        if (pendingFrames == 0 && !closed) {
+            wait(timeoutMillis);
+        }
+    }
+
+    boolean isEmpty() {
+        return pendingFrames == 0;
+    }
+
+    long size() {
+        return pendingFrames;
+    }
+
+    private boolean isExpired(final long timestamp, final long now) {
+        return maxAgeMillis > 0 && now - timestamp > maxAgeMillis;
+    }
+
+    /**
+     * Flushes the segments to disk and releases the directory. Remaining frames are replayed by the next instance.
+     */
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        notifyAll();
+
+        for (Segment segment : segments) {
+            segment.force();
+        }
+        segments.clear();
+        try {
+            lock.release();
+            lockFile.close();
+        } catch (IOException e) {
+            LOG.debug("Couldn't release spill directory {}", directory, e);
+        }
+    }
+
+    long getSpilled() {
+        return spilled.get();
+    }
+
+    long getReplayed() {
+        return replayed.get();
+    }
+
+    long getDropped() {
+        return dropped.get();
+    }
+
+    long getExpired() {
+        return expired.get();
+    }
+
+    private static void delete(final File file) {
+        // Mapped files can't be deleted on some platforms until the mapping has been garbage collected
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    private static final class Segment {
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private int readPosition;
+        private int writePosition;
+        private long frames;
+        private long lastWriteMillis;
+
+        private Segment(final File file, final MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        static Segment create(final File file, final int size) throws IOException {
+            final Segment segment = new Segment(file, map(file, size));
+            segment.buffer.putInt(0, MAGIC);
+            segment.clear();
+            return segment;
+        }
+
+        /**
+         * @return the segment or {@code null} if the file isn't a valid segment
+         */
+        static Segment open(final File file, final int size) throws IOException {
+            if (file.length() < HEADER_SIZE + RECORD_HEADER_SIZE) {
+                return null;
+            }
+
+            final Segment segment = new Segment(file, map(file, (int) Math.min(file.length(), size)));
+            final MappedByteBuffer buffer = segment.buffer;
+            final int readPosition = buffer.getInt(READ_POSITION_OFFSET);
+            if (buffer.getInt(0) != MAGIC || readPosition < HEADER_SIZE || readPosition > buffer.capacity()) {
+                return null;
+            }
+
+            segment.readPosition = readPosition;
+            int position = readPosition;
+            while (position + RECORD_HEADER_SIZE <= buffer.capacity()) {
+                final int length = buffer.getInt(position);
+                if (length <= 0 || position + RECORD_HEADER_SIZE + length > buffer.capacity()) {
+                    break;
+                }
+                segment.lastWriteMillis = buffer.getLong(position + 4);
+                segment.frames++;
+                position += RECORD_HEADER_SIZE + length;
+            }
+            segment.writePosition = position;
+            return segment;
+        }
+
+        private static MappedByteBuffer map(final File file, final int size) throws IOException {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                if (raf.length() < size) {
+                    raf.setLength(size);
+                }
+                // The mapping stays valid after the file has been closed
+                return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+
+        boolean hasRoom(final int length) {
+            return writePosition + RECORD_HEADER_SIZE + length <= buffer.capacity();
+        }
+
+        void append(final byte[] frame, final int offset, final int length, final long timestamp,
+                    final int severity) {
+            final int position = writePosition;
+            buffer.putLong(position + 4, timestamp);
+            buffer.putInt(position + 12, severity);
+            buffer.position(position + RECORD_HEADER_SIZE);
+            buffer.put(frame, offset, length);
+            writePosition = position + RECORD_HEADER_SIZE + length;
+            // Terminate the records, a reused segment may contain stale data after the new record
+            if (writePosition + 4 <= buffer.capacity()) {
+                buffer.putInt(writePosition, 0);
+            }
+            // Publish the record by writing its length last
+            buffer.putInt(position, length);
+            frames++;
+            lastWriteMillis = timestamp;
+        }
+
+        long peekTimestamp() {
+            return buffer.getLong(readPosition + 4);
+        }
+
+        int peekSeverity() {
+            return buffer.getInt(readPosition + 12);
+        }
+
+        void peek(final GelfOutputBuffer out) {
+            final int length = buffer.getInt(readPosition);
+            buffer.position(readPosition + RECORD_HEADER_SIZE);
+            out.append(buffer, length);
+        }
+
+        void skip() {
+            readPosition += RECORD_HEADER_SIZE + buffer.getInt(readPosition);
+            buffer.putInt(READ_POSITION_OFFSET, readPosition);
+            frames--;
+        }
+
+        /**
+         * Resets an empty segment, so that it can be reused for new frames.
+         */
+        void clear() {
+            readPosition = HEADER_SIZE;
+            writePosition = HEADER_SIZE;
+            frames = 0;
+            buffer.putInt(HEADER_SIZE, 0);
+            buffer.putInt(READ_POSITION_OFFSET, HEADER_SIZE);
+        }
+
+        void force() {
+            buffer.force();
+        }
+    }
+}
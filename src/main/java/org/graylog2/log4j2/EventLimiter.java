@@ -0,0 +1,228 @@
+package org.graylog2.log4j2;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.net.Severity;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether a log event should be sent, so that a single misbehaving code path can't flood the queue.
+ * <p>
+ * The following stages are applied in order, each of them can be deactivated:
+ * <ol>
+ * <li>Sampling: events at or below the sampling level are only sent with the configured probability.</li>
+ * <li>Duplicate suppression: identical events (same logger, level, message and exception class) within a window are
+ * collapsed. The first event is sent, the following ones are only counted and the count is reported as
+ * {@code repeatCount} with the next identical event after the window.</li>
+ * <li>Rate limiting: a token bucket per logger and level limits the number of events per second.</li>
+ * </ol>
+ * All state is kept in concurrent maps and atomic variables, so concurrent callers never block each other.
+ */
+final class EventLimiter {
+    /**
+     * Returned by {@link #acquire(LogEvent, long)} if the event should be discarded.
+     */
+    static final long DISCARD = -1L;
+
+    private static final int MAX_LOGGERS = 4096;
+    private static final int MAX_DUPLICATE_KEYS = 4096;
+    private static final int SEVERITIES = 8;
+
+    private final long intervalNanos;
+    private final long burstToleranceNanos;
+    private final double samplingRate;
+    private final Level samplingLevel;
+    private final long duplicateWindowNanos;
+    private final GelfMetrics metrics;
+    private final ConcurrentMap<String, TokenBucket[]> buckets = new ConcurrentHashMap<>();
+    private final ConcurrentMap<DuplicateKey, DuplicateWindow> duplicates = new ConcurrentHashMap<>();
+
+    /**
+     * @param rateLimit       the maximum number of events per second per logger and level, {@code 0} to deactivate
+     * @param rateLimitBurst  the number of events which may exceed the rate in a short burst, at least {@code 1}
+     * @param samplingRate    the probability from {@code 0} to {@code 1} that an event at or below the sampling level
+     *                        is sent, {@code 1} to deactivate
+     * @param samplingLevel   the most severe level which is sampled
+     * @param duplicateWindow the time in milliseconds in which identical events are collapsed, {@code 0} to
+     *                        deactivate
+     * @param metrics         the metrics to report discarded events to
+     */
+    EventLimiter(final double rateLimit, final int rateLimitBurst, final double samplingRate,
+                 final Level samplingLevel, final long duplicateWindow, final GelfMetrics metrics) {
+        this.intervalNanos = rateLimit > 0 ? Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1L) / rateLimit)) : 0L;
+        this.burstToleranceNanos = intervalNanos * (Math.max(1, rateLimitBurst) - 1);
+        this.samplingRate = Math.max(0d, Math.min(1d, samplingRate));
+        this.samplingLevel = samplingLevel;
+        this.duplicateWindowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, duplicateWindow));
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return {@code true} if at least one stage is active
+     */
+    boolean isEnabled() {
+        return intervalNanos > 0 || samplingRate < 1d || duplicateWindowNanos > 0;
+    }
+
+    /**
+     * Decides whether the given event should be sent.
+     *
+     * @param event the log event
+     * @param now   the current value of {@link System#nanoTime()}
+     * @return {@link #DISCARD} if the event should be discarded, otherwise the number of identical events which have
+     * been collapsed into this one
+     */
+    long acquire(final LogEvent event, final long now) {
+        if (samplingRate < 1d && event.getLevel().isLessSpecificThan(samplingLevel)
+                && ThreadLocalRandom.current().nextDouble() >= samplingRate) {
+            metrics.dropped(GelfDropReason.SAMPLED, 1L);
+            return DISCARD;
+        }
+
+        long repeatCount = 0L;
+        if (duplicateWindowNanos > 0) {
+            repeatCount = checkDuplicate(event, now);
+            if (repeatCount == DISCARD) {
+                metrics.dropped(GelfDropReason.DUPLICATE, 1L);
+                return DISCARD;
+            }
+        }
+
+        if (intervalNanos > 0 && !bucket(event, now).tryAcquire(now)) {
+            metrics.dropped(GelfDropReason.RATE_LIMITED, 1L);
+            return DISCARD;
+        }
+        return repeatCount;
+    }
+
+    private long checkDuplicate(final LogEvent event, final long now) {
+        final DuplicateKey key = new DuplicateKey(event);
+        final DuplicateWindow window = duplicates.get(key);
+        if (window == null) {
+            if (duplicates.size() >= MAX_DUPLICATE_KEYS) {
+                duplicates.clear();
+            }
+            final DuplicateWindow existing = duplicates.putIfAbsent(key, new DuplicateWindow(now));
+            return existing == null ? 0L : existing.next(now, duplicateWindowNanos);
+        }
+        return window.next(now, duplicateWindowNanos);
+    }
+
+    private TokenBucket bucket(final LogEvent event, final long now) {
+        final String loggerName = event.getLoggerName() == null ? "" : event.getLoggerName();
+        TokenBucket[] loggerBuckets = buckets.get(loggerName);
+        if (loggerBuckets == null) {
+            if (buckets.size() >= MAX_LOGGERS) {
+                buckets.clear();
+            }
+            final TokenBucket[] newBuckets = new TokenBucket[SEVERITIES];
+            for (int i = 0; i < SEVERITIES; i++) {
+                newBuckets[i] = new TokenBucket(now);
+            }
+            final TokenBucket[] existing = buckets.putIfAbsent(loggerName, newBuckets);
+            loggerBuckets = existing == null ? newBuckets : existing;
+        }
+        return loggerBuckets[Severity.getSeverity(event.getLevel()).getCode()];
+    }
+
+    /**
+     * A token bucket implemented as generic cell rate algorithm: the only state is the theoretical arrival time of the
+     * next event, which is updated with a single compare-and-set.
+     */
+    private final class TokenBucket {
+        private final AtomicLong theoreticalArrival;
+
+        TokenBucket(final long now) {
+            this.theoreticalArrival = new AtomicLong(now);
+        }
+
+        boolean tryAcquire(final long now) {
+            while (true) {
+                final long arrival = theoreticalArrival.get();
+                final long base = arrival - now > 0 ? arrival : now;
+                if (base - now > burstToleranceNanos) {
+                    return false;
+                }
+                if (theoreticalArrival.compareAndSet(arrival, base + intervalNanos)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    private static final class DuplicateWindow {
+        private final AtomicLong start;
+        private final AtomicLong suppressed = new AtomicLong();
+
+        DuplicateWindow(final long now) {
+            this.start = new AtomicLong(now);
+        }
+
+        /**
+         * @return {@link #DISCARD} if the window is still open, otherwise the number of events suppressed in the
+         * previous window after starting a new one
+         */
+        long next(final long now, final long windowNanos) {
+            final long windowStart = start.get();
+            if (now - windowStart < windowNanos || !start.compareAndSet(windowStart, now)) {
+                suppressed.incrementAndGet();
+                return DISCARD;
+            }
+            return suppressed.getAndSet(0L);
+        }
+    }
+
+    private static final class DuplicateKey {
+        private final String loggerName;
+        private final Level level;
+        private final String message;
+        private final Class<?> thrownClass;
+        private final int hashCode;
+
+        DuplicateKey(final LogEvent event) {
+            this.loggerName = event.getLoggerName();
+            this.level = event.getLevel();
+            this.message = event.getMessage().getFormattedMessage();
+            @SuppressWarnings("all")
+            final Throwable thrown = event.getThrown();
+            this.thrownClass = thrown == null ? null : thrown.getClass();
+            this.hashCode = Objects.hash(loggerName, level, message, thrownClass);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof DuplicateKey)) {
+                return false;
+            }
+            final DuplicateKey that = (DuplicateKey) o;
+            return hashCode == that.hashCode
+                    && Objects.equals(loggerName, that.loggerName)
+                    && Objects.equals(level, that.level)
+                    && Objects.equals(message, that.message)
+                    && thrownClass == that.thrownClass;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "intervalNanos=" + intervalNanos
+                + ",burstToleranceNanos=" + burstToleranceNanos
+                + ",samplingRate=" + samplingRate
+                + ",samplingLevel=" + samplingLevel
+                + ",duplicateWindowNanos=" + duplicateWindowNanos;
+    }
+}
@@ -0,0 +1,259 @@
+package org.graylog2.log4j2;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.status.StatusLogger;
+import org.graylog2.gelfclient.GelfMessage;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, lock-free multi-producer/single-consumer ring buffer which hands log events from the logging threads to
+ * a dedicated thread, which sends them to the transport.
+ * <p>
+ * The slots are allocated once and reused. A producer claims the next free slot with a single CAS on the claim
+ * sequence, fills it and publishes it by advancing the sequence of the slot, like the bounded queue of Dmitry Vyukov.
+ * The consumer processes the published slots in order and parks if there are none. Producers only unpark it if it
+ * announced that it is about to park, so a busy consumer doesn't cost the producers a system call.
+ * <p>
+ * If the ring buffer is full or has been closed, {@link #claim()} returns {@code null} and the caller has to handle the
+ * event itself.
+ */
+final class EventRingBuffer {
+    private static final Logger LOG = StatusLogger.getLogger();
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100L);
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    // The claim and consume sequences on cache lines of their own, so that producers and consumer don't contend
+    private static final int CLAIMED = StripedCounter.PADDING;
+    private static final int CONSUMED = 3 * StripedCounter.PADDING;
+
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final AtomicLongArray positions = new AtomicLongArray(4 * StripedCounter.PADDING);
+    private final Handler handler;
+    private final Thread thread;
+
+    private volatile boolean waiting;
+    private volatile boolean closed;
+
+    /**
+     * Handles the events on the thread of the ring buffer.
+     */
+    interface Handler {
+        /**
+         * Sends the contents of a published slot. The slot is cleared afterwards.
+         */
+        void onEvent(Slot slot);
+
+        /**
+         * Called after a number of events once no published slots are left.
+         */
+        void onEndOfBatch();
+    }
+
+    /**
+     * @param size       the number of slots, rounded up to the next power of two
+     * @param bufferSize the initial size of the buffer of every slot for encoded messages, {@code 0} for none
+     * @param handler    the handler of the events
+     * @param threadName the name of the consumer thread
+     */
+    EventRingBuffer(final int size, final int bufferSize, final Handler handler, final String threadName) {
+        int capacity = 1;
+        while (capacity < size) {
+            capacity <<= 1;
+        }
+        this.slots = new Slot[capacity];
+        this.mask = capacity - 1;
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot(bufferSize);
+            sequences.set(i, i);
+        }
+        this.handler = handler;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                consumeLoop();
+            }
+        }, threadName);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * Claims the next free slot. The caller has to {@link #publish(Slot)} it, even if it couldn't be filled.
+     *
+     * @return the claimed slot or {@code null} if the ring buffer is full or closed
+     */
+    Slot claim() {
+        long position = positions.get(CLAIMED);
+        while (!closed) {
+            final long difference = sequences.get((int) position & mask) - position;
+            if (difference == 0L) {
+                if (positions.compareAndSet(CLAIMED, position, position + 1L)) {
+                    final Slot slot = slots[(int) position & mask];
+                    slot.position = position;
+                    return slot;
+                }
+            } else if (difference < 0L) {
+                // The consumer hasn't processed the slot of the previous round yet
+                return null;
+            }
+            position = positions.get(CLAIMED);
+        }
+        return null;
+    }
+
+    /**
+     * Hands a claimed slot to the consumer. Slots without an event, message or encoded message are skipped.
+     */
+    void publish(final Slot slot) {
+        sequences.set((int) slot.position & mask, slot.position + 1L);
+        if (waiting) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * @return the number of claimed slots which haven't been processed yet
+     */
+    int size() {
+        return (int) Math.max(0L, positions.get(CLAIMED) - positions.get(CONSUMED));
+    }
+
+    /**
+     * Stops accepting new events and waits for the consumer to process the published ones.
+     * <p>
+     * Log4j waits for running calls of the appender before stopping it, so all claimed slots are published eventually.
+     *
+     * @param timeout the maximum time to wait
+     * @return the number of events which couldn't be processed in time
+     */
+    int stop(final long timeout, final TimeUnit timeUnit) {
+        closed = true;
+        LockSupport.unpark(thread);
+        try {
+            if (timeout > 0L) {
+                thread.join(Math.max(1L, timeUnit.toMillis(timeout)));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            final int abandoned = size();
+            thread.interrupt();
+            return abandoned;
+        }
+        return 0;
+    }
+
+    private void consumeLoop() {
+        long next = positions.get(CONSUMED);
+        while (true) {
+            final long processed = consumeAvailable(next);
+            if (processed > next) {
+                next = processed;
+                continue;
+            }
+            if (closed && positions.get(CLAIMED) == next) {
+                return;
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+
+            // Announce parking before checking again, so that a producer publishing in between unparks us
+            waiting = true;
+            if (sequences.get((int) next & mask) != next + 1L) {
+                if (closed) {
+                    // A producer has claimed a slot, but not published it yet
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+            }
+            waiting = false;
+        }
+    }
+
+    /**
+     * @return the position after the last processed slot
+     */
+    private long consumeAvailable(final long first) {
+        long next = first;
+        while (true) {
+            final int index = (int) next & mask;
+            if (sequences.get(index) != next + 1L) {
+                break;
+            }
+
+            final Slot slot = slots[index];
+            try {
+                handler.onEvent(slot);
+            } catch (RuntimeException e) {
+                LOG.error("Couldn't send GELF message", e);
+            } finally {
+                slot.clear();
+                sequences.set(index, next + slots.length);
+                next++;
+                positions.lazySet(CONSUMED, next);
+            }
+        }
+
+        if (next > first) {
+            try {
+                handler.onEndOfBatch();
+            } catch (RuntimeException e) {
+                LOG.error("Couldn't flush GELF messages", e);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * A reusable entry of the ring buffer. Depending on where events are encoded, a slot carries an immutable snapshot
+     * of the log event, a {@link GelfMessage} or the encoded GELF message.
+     */
+    static final class Slot {
+        private long position;
+        private final GelfOutputBuffer buffer;
+        LogEvent event;
+        GelfMessage message;
+        ExceptionFingerprints.Occurrence occurrence;
+        long repeatCount;
+        long encodeNanos;
+        int severity;
+        boolean endOfBatch;
+
+        private Slot(final int bufferSize) {
+            this.buffer = bufferSize > 0 ? new GelfOutputBuffer(bufferSize) : null;
+        }
+
+        /**
+         * @return the buffer for the encoded GELF message or {@code null} if events are encoded by the consumer
+         */
+        GelfOutputBuffer buffer() {
+            return buffer;
+        }
+
+        private void clear() {
+            event = null;
+            message = null;
+            occurrence = null;
+            if (buffer != null) {
+                buffer.reset(MAX_RETAINED_BUFFER_SIZE);
+            }
+        }
+    }
+}
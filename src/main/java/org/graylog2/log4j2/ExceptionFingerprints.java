@@ -0,0 +1,169 @@
+package org.graylog2.log4j2;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Identifies repeatedly logged exceptions, so that their stack trace only has to be sent once per window.
+ * <p>
+ * The fingerprint of an exception is a 64-bit FNV-1a hash of its class name and stack frames (and those of its causes,
+ * if requested), rendered as 16 hex digits. Messages are left out because they tend to contain IDs and timestamps.
+ * The fingerprint only depends on names and line numbers, so it is the same in every JVM running the same code.
+ * <p>
+ * The first occurrence of a fingerprint opens a window. All occurrences within the window are counted, the first
+ * occurrence after the window opens a new one. Counting is approximate if the same exception is logged concurrently
+ * at the moment a new window opens. If the message of the first occurrence couldn't be sent, the window has to be
+ * {@link #reopen(Occurrence) reopened}, so that the stack trace is sent with the next occurrence.
+ */
+final class ExceptionFingerprints {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final int MAX_CAUSES = 32;
+    private static final int MAX_FINGERPRINTS = 4096;
+
+    private final long windowNanos;
+    private final boolean includeCause;
+    private final ConcurrentMap<String, Window> windows = new ConcurrentHashMap<>();
+
+    /**
+     * @param window       the time in milliseconds after which the stack trace of an exception is sent again
+     * @param includeCause whether the causes of an exception are part of its fingerprint
+     */
+    ExceptionFingerprints(final long window, final boolean includeCause) {
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, window));
+        this.includeCause = includeCause;
+    }
+
+    /**
+     * Counts an occurrence of the given exception.
+     *
+     * @param thrown the logged exception
+     * @param now    the current value of {@link System#nanoTime()}
+     * @return the fingerprint of the exception and the number of its occurrences in the current window
+     */
+    Occurrence record(final Throwable thrown, final long now) {
+        final String fingerprint = fingerprint(thrown, includeCause);
+        Window current = windows.get(fingerprint);
+        if (current == null) {
+            if (windows.size() >= MAX_FINGERPRINTS) {
+                windows.clear();
+            }
+            final Window window = new Window(now);
+            final Window existing = windows.putIfAbsent(fingerprint, window);
+            if (existing == null) {
+                return new Occurrence(fingerprint, 1L, window);
+            }
+            current = existing;
+        }
+        return new Occurrence(fingerprint, current.next(now, windowNanos), current);
+    }
+
+    /**
+     * Closes the window opened by the given occurrence, because its message (and stack trace) couldn't be sent. The
+     * next occurrence of the exception opens a new window. Repeated occurrences are ignored.
+     *
+     * @param occurrence the occurrence whose message has been discarded or {@code null}
+     */
+    void reopen(final Occurrence occurrence) {
+        if (occurrence != null && occurrence.isFirst() && occurrence.window != null) {
+            windows.remove(occurrence.fingerprint, occurrence.window);
+        }
+    }
+
+    int size() {
+        return windows.size();
+    }
+
+    static String fingerprint(final Throwable thrown, final boolean includeCause) {
+        long hash = FNV_OFFSET_BASIS;
+        Throwable current = thrown;
+        for (int depth = 0; current != null && depth < MAX_CAUSES; depth++) {
+            hash = hash(hash, current.getClass().getName());
+            for (StackTraceElement frame : current.getStackTrace()) {
+                hash = hash(hash, frame.getClassName());
+                hash = hash(hash, frame.getMethodName());
+                hash = hash(hash, frame.getFileName());
+                hash = hash(hash, frame.getLineNumber());
+            }
+            current = includeCause ? current.getCause() : null;
+        }
+
+        final String hex = Long.toHexString(hash);
+        return hex.length() == 16 ? hex : "0000000000000000".substring(hex.length()) + hex;
+    }
+
+    private static long hash(long hash, final String s) {
+        if (s != null) {
+            for (int i = 0; i < s.length(); i++) {
+                hash = hash(hash, s.charAt(i));
+            }
+        }
+        // Separate the strings, so that "ab" + "c" and "a" + "bc" differ
+        return hash(hash, 0);
+    }
+
+    private static long hash(final long hash, final int value) {
+        return (hash ^ value) * FNV_PRIME;
+    }
+
+    /**
+     * An occurrence of an exception.
+     */
+    static final class Occurrence {
+        private final String fingerprint;
+        private final long count;
+        private final Window window;
+
+        private Occurrence(final String fingerprint, final long count, final Window window) {
+            this.fingerprint = fingerprint;
+            this.count = count;
+            this.window = window;
+        }
+
+        String getFingerprint() {
+            return fingerprint;
+        }
+
+        /**
+         * @return the number of occurrences in the current window including this one
+         */
+        long getCount() {
+            return count;
+        }
+
+        /**
+         * @return {@code true} if this is the first occurrence in the current window, which carries the stack trace
+         */
+        boolean isFirst() {
+            return count == 1L;
+        }
+    }
+
+    private static final class Window {
+        private final AtomicLong start;
+        private final AtomicLong count = new AtomicLong(1L);
+
+        Window(final long now) {
+            this.start = new AtomicLong(now);
+        }
+
+        /**
+         * @return the number of occurrences in the current window, {@code 1} after opening a new window
+         */
+        long next(final long now, final long windowNanos) {
+            final long windowStart = start.get();
+            if (now - windowStart >= windowNanos && start.compareAndSet(windowStart, now)) {
+                count.set(1L);
+                return 1L;
+            }
+            return count.incrementAndGet();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "windowNanos=" + windowNanos + ",includeCause=" + includeCause;
+    }
+}
@@ -0,0 +1,471 @@
+package org.graylog2.log4j2;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded queue which collects encoded GELF messages into batches of null-delimited frames.
+ * <p>
+ * Producers append frames to the current batch, which is sealed and handed to the consumer once it reaches the
+ * configured batch size, once {@link #flush()} is called or once its oldest frame is older than the linger time.
+ * Batches are pooled and reused, so that a steady stream of messages doesn't create any garbage.
+ * <p>
+ * If {@link OverflowPolicy#isPriorityLanes() priority lanes} are enabled, frames are collected in separate lanes for
+ * errors (and more severe), warnings, notices and informational messages, and debug messages. The consumer takes the
+ * sealed batches of the lanes in a weighted round robin (8:4:2:1), so a flood of debug messages only delays errors by a
+ * fraction of a batch. If the queue is full, a frame replaces the oldest batch of the least severe lane below its own
+ * before the {@link OverflowPolicy} is applied. Frames of different lanes may be sent in a different order than they
+ * were queued.
+ */
+final class FrameBatchQueue {
+    private static final byte DELIMITER = 0;
+    private static final int[] LANE_WEIGHTS = {8, 4, 2, 1};
+
+    private final int batchSize;
+    private final long lingerNanos;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Lane[] lanes;
+    private final ArrayDeque<Batch> pool = new ArrayDeque<>();
+
+    // Only modified while holding the lock, but volatile so that size() doesn't need the lock
+    private volatile int pending;
+    private boolean closed;
+
+    /**
+     * @param batchSize      the number of bytes after which a batch is sealed
+     * @param lingerMillis   the maximum time in milliseconds a frame waits for more frames before its batch is sealed
+     * @param capacity       the maximum number of frames which may be queued
+     * @param overflowPolicy what to do with frames if the queue is full
+     */
+    FrameBatchQueue(final int batchSize, final long lingerMillis, final int capacity,
+                    final OverflowPolicy overflowPolicy) {
+        this.batchSize = Math.max(1, batchSize);
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, lingerMillis));
+        this.capacity = Math.max(1, capacity);
+        this.overflowPolicy = overflowPolicy;
+        this.lanes = new Lane[overflowPolicy.isPriorityLanes() ? LANE_WEIGHTS.length : 1];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane(LANE_WEIGHTS[i], new Batch(this.batchSize));
+        }
+    }
+
+    /**
+     * @return the index of the lane for messages of the given GELF severity code, {@code 0} being the most severe
+     */
+    private int laneOf(final int severity) {
+        if (lanes.length == 1 || severity <= 3) {
+            return 0;
+        } else if (severity == 4) {
+            return 1;
+        } else if (severity <= 6) {
+            return 2;
+        }
+        return 3;
+    }
+
+    /**
+     * Appends a frame to the current batch. If the queue is full, the {@link OverflowPolicy} decides whether the
+     * frame is discarded, older frames are discarded or the caller waits for free space.
+     *
+     * @param severity the GELF severity code of the message
+     * @return {@code true} if the frame has been queued, {@code false} if it has been discarded or the queue is closed
+     */
+    boolean offer(final byte[] frame, final int offset, final int length, final int severity) {
+        final boolean block = overflowPolicy.shouldBlock(severity);
+        try {
+            if (block) {
+                lock.lockInterruptibly();
+            } else {
+                lock.lock();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        try {
+            if (closed) {
+                return false;
+            }
+            final int lane = laneOf(severity);
+            if (pending >= capacity && !makeRoom(lane, block)) {
+                return false;
+            }
+            enqueue(lanes[lane], frame, offset, length);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean makeRoom(final int lane, final boolean block) {
+        if (discardLessSevere(lane)) {
+            return true;
+        }
+
+        switch (overflowPolicy.getType()) {
+            case DROP_OLDEST:
+                final int discarded = discardOldest(lanes[lane]);
+                if (discarded > 0) {
+                    overflowPolicy.countDroppedOldest(discarded);
+                    return true;
+                }
+                overflowPolicy.countDroppedNewest();
+                return false;
+            case BLOCK:
+            case DISCARD_BELOW_LEVEL:
+                if (!block) {
+                    overflowPolicy.countDiscardedBelowLevel();
+                    return false;
+                }
+                long remainingNanos = overflowPolicy.getTimeoutNanos();
+                try {
+                    while (!closed && pending >= capacity && remainingNanos > 0L) {
+                        remainingNanos = notFull.awaitNanos(remainingNanos);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (closed || pending >= capacity) {
+                    overflowPolicy.countTimedOut();
+                    return false;
+                }
+                return true;
+            default:
+                overflowPolicy.countDroppedNewest();
+                return false;
+        }
+    }
+
+    /**
+     * Discards the oldest batch of the least severe lane which is less severe than the given lane.
+     */
+    private boolean discardLessSevere(final int lane) {
+        for (int i = lanes.length - 1; i > lane; i--) {
+            final int discarded = discardOldest(lanes[i]);
+            if (discarded > 0) {
+                overflowPolicy.countPreempted(discarded);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Discards the oldest batch of the given lane which hasn't been taken by the consumer yet.
+     *
+     * @return the number of discarded frames
+     */
+    private int discardOldest(final Lane lane) {
+        Batch oldest = lane.ready.poll();
+        if (oldest == null) {
+            if (lane.current.size == 0) {
+                return 0;
+            }
+            oldest = lane.current;
+            lane.current = nextBatch();
+        }
+
+        final int count = oldest.count;
+        pending -= count;
+        oldest.clear(batchSize);
+        pool.add(oldest);
+        return count;
+    }
+
+    /**
+     * Appends a frame to the current batch if the queue isn't full, ignoring the {@link OverflowPolicy}.
+     *
+     * @param severity the GELF severity code of the message
+     * @return {@code true} if the frame has been queued, {@code false} if the queue is full or closed
+     */
+    boolean offerIfNotFull(final byte[] frame, final int offset, final int length, final int severity) {
+        lock.lock();
+        try {
+            if (closed || pending >= capacity) {
+                return false;
+            }
+            enqueue(lanes[laneOf(severity)], frame, offset, length);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends a frame to the current batch, waiting for free space if necessary.
+     *
+     * @param severity the GELF severity code of the message
+     * @return {@code true} if the frame has been queued, {@code false} if the queue has been closed
+     */
+    boolean put(final byte[] frame, final int offset, final int length, final int severity)
+            throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (!closed && pending >= capacity) {
+                notFull.await();
+            }
+            if (closed) {
+                return false;
+            }
+            enqueue(lanes[laneOf(severity)], frame, offset, length);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(final Lane lane, final byte[] frame, final int offset, final int length) {
+        if (lane.current.size > 0 && lane.current.size + length + 1 > batchSize) {
+            seal(lane);
+        }
+
+        final Batch batch = lane.current;
+        final boolean wasEmpty = batch.size == 0;
+        batch.append(frame, offset, length);
+        pending++;
+
+        if (batch.size >= batchSize) {
+            seal(lane);
+        } else if (wasEmpty) {
+            // Wake up the consumer so that it starts waiting for the linger time
+            batch.firstFrameNanos = System.nanoTime();
+            notEmpty.signal();
+        }
+    }
+
+    /**
+     * Seals the current batch, so that it will be sent as soon as possible.
+     */
+    void flush() {
+        lock.lock();
+        try {
+            for (Lane lane : lanes) {
+                if (lane.current.size > 0) {
+                    seal(lane);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void seal(final Lane lane) {
+        lane.ready.add(lane.current);
+        lane.current = nextBatch();
+        notEmpty.signal();
+    }
+
+    private Batch nextBatch() {
+        final Batch next = pool.poll();
+        return next == null ? new Batch(batchSize) : next;
+    }
+
+    /**
+     * Waits for the next sealed batch. Partially filled batches are sealed once their linger time expired.
+     *
+     * @return the next batch or {@code null} if the queue has been closed and all batches have been taken
+     */
+    Batch take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                final Batch batch = pollReady();
+                if (batch != null) {
+                    return batch;
+                }
+
+                final Lane lingering = oldestPartialLane();
+                if (lingering != null) {
+                    final long firstFrameNanos = lingering.current.firstFrameNanos;
+                    final long waitNanos = closed ? 0L : firstFrameNanos + lingerNanos - System.nanoTime();
+                    if (waitNanos <= 0L) {
+                        seal(lingering);
+                    } else {
+                        notEmpty.awaitNanos(waitNanos);
+                    }
+                } else if (closed) {
+                    return null;
+                } else {
+                    notEmpty.await();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the next sealed batch, preferring the more severe lanes according to their weights.
+     */
+    private Batch pollReady() {
+        for (int round = 0; round < 2; round++) {
+            for (Lane lane : lanes) {
+                if (lane.credits > 0 && !lane.ready.isEmpty()) {
+                    lane.credits--;
+                    return lane.ready.poll();
+                }
+            }
+            // All lanes with sealed batches have used up their share, start the next round
+            for (Lane lane : lanes) {
+                lane.credits = lane.weight;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the lane whose partially filled batch has been waiting the longest or {@code null} if there is none
+     */
+    private Lane oldestPartialLane() {
+        Lane oldest = null;
+        for (Lane lane : lanes) {
+            if (lane.current.size > 0
+                    && (oldest == null || lane.current.firstFrameNanos - oldest.current.firstFrameNanos < 0L)) {
+                oldest = lane;
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * Returns a batch which has been processed by the consumer to the pool.
+     */
+    void release(final Batch batch) {
+        lock.lock();
+        try {
+            pending -= batch.count;
+            batch.clear(batchSize);
+            pool.add(batch);
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the queue. Queued frames can still be taken, but no new frames are accepted.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        return pending;
+    }
+
+    /**
+     * The current and the sealed batches of the messages of a range of severities.
+     */
+    private static final class Lane {
+        private final ArrayDeque<Batch> ready = new ArrayDeque<>();
+        private final int weight;
+        private Batch current;
+        private int credits;
+
+        private Lane(final int weight, final Batch current) {
+            this.weight = weight;
+            this.current = current;
+            this.credits = weight;
+        }
+    }
+
+    /**
+     * A number of null-delimited frames in a reusable byte array.
+     * <p>
+     * Transports mark the frames which have been written completely, so that a batch which is retried after an error
+     * resumes with the first frame which hasn't been written completely instead of sending all frames again.
+     */
+    static final class Batch {
+        private byte[] data;
+        private int size;
+        private int count;
+        private int resumeOffset;
+        private int sentCount;
+        private long firstFrameNanos;
+
+        Batch(final int capacity) {
+            this.data = new byte[capacity];
+        }
+
+        private void append(final byte[] frame, final int offset, final int length) {
+            if (size + length + 1 > data.length) {
+                data = Arrays.copyOf(data, size + length + 1);
+            }
+            System.arraycopy(frame, offset, data, size, length);
+            size += length;
+            data[size++] = DELIMITER;
+            count++;
+        }
+
+        private void clear(final int capacity) {
+            // Don't keep oversized arrays created for single huge messages around
+            if (data.length > 4 * capacity) {
+                data = new byte[capacity];
+            }
+            size = 0;
+            count = 0;
+            resumeOffset = 0;
+            sentCount = 0;
+        }
+
+        /**
+         * Marks all frames which end in front of {@code offset} as sent.
+         *
+         * @param offset the number of bytes of the batch which have been written
+         */
+        void markSent(final int offset) {
+            int end = Math.min(offset, size) - 1;
+            while (end >= resumeOffset && data[end] != DELIMITER) {
+                end--;
+            }
+            for (int i = resumeOffset; i <= end; i++) {
+                if (data[i] == DELIMITER) {
+                    sentCount++;
+                }
+            }
+            resumeOffset = Math.max(resumeOffset, end + 1);
+        }
+
+        /**
+         * @return the offset of the first frame which hasn't been written completely
+         */
+        int resumeOffset() {
+            return resumeOffset;
+        }
+
+        /**
+         * @return the number of frames which haven't been written completely
+         */
+        int unsentCount() {
+            return count - sentCount;
+        }
+
+        byte[] array() {
+            return data;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int count() {
+            return count;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package org.graylog2.log4j2;
 
+import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.Marker;
 import org.apache.logging.log4j.ThreadContext;
@@ -12,9 +13,12 @@ import org.apache.logging.log4j.core.config.plugins.Plugin;
 import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
 import org.apache.logging.log4j.core.config.plugins.PluginElement;
 import org.apache.logging.log4j.core.config.plugins.PluginFactory;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
 import org.apache.logging.log4j.core.net.Severity;
 import org.apache.logging.log4j.core.util.KeyValuePair;
+import org.apache.logging.log4j.core.util.Loader;
 import org.apache.logging.log4j.status.StatusLogger;
+import org.apache.logging.log4j.util.TriConsumer;
 import org.graylog2.gelfclient.GelfConfiguration;
 import org.graylog2.gelfclient.GelfMessage;
 import org.graylog2.gelfclient.GelfMessageBuilder;
@@ -23,18 +27,15 @@ import org.graylog2.gelfclient.GelfTransports;
 import org.graylog2.gelfclient.transport.GelfTransport;
 
 import java.io.File;
-import java.io.PrintWriter;
 import java.io.Serializable;
-import java.io.StringWriter;
-import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.UnknownHostException;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Formatter;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 import static java.util.Objects.requireNonNull;
@@ -48,15 +49,52 @@ public class GelfAppender extends AbstractAppender {
 
     private static final Logger LOG = StatusLogger.getLogger();
 
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_STACK_TRACE_CACHE_SIZE = 256;
+    private static final long DEFAULT_DRAIN_TIMEOUT = 1000L;
+
+    private final GelfTransportFactory transportFactory;
+    private final GelfTransportManager manager;
     private final GelfConfiguration gelfConfiguration;
-    private final String hostName;
+    private volatile String hostName;
+    private volatile boolean hostNamePending;
     private final boolean includeSource;
     private final boolean includeThreadContext;
     private final boolean includeStackTrace;
     private final boolean includeExceptionCause;
     private final Map<String, Object> additionalFields;
+    private final StackTraceRenderer stackTraceRenderer;
+    private final ExceptionFingerprints exceptionFingerprints;
+    private final GelfMessageEncoder encoder;
+    private final MessageFormatter messageFormatter;
+    private final GelfMetrics metrics;
+    private final boolean jmxEnabled;
+    private final ThreadContextFields threadContextFields;
+    private final EventLimiter limiter;
+    private final List<GelfAppenderListener> listeners = new CopyOnWriteArrayList<>();
+    private final TriConsumer<String, Object, GelfMessageBuilder> contextDataWriter =
+            new TriConsumer<String, Object, GelfMessageBuilder>() {
+                @Override
+                public void accept(final String key, final Object value, final GelfMessageBuilder builder) {
+                    final String fieldName = threadContextFields.fieldName(key);
+                    if (fieldName != null) {
+                        builder.additionalField(fieldName, value == null ? null : String.valueOf(value));
+                    }
+                }
+            };
+    private final ThreadLocal<GelfOutputBuffer> outputBuffer = new ThreadLocal<GelfOutputBuffer>() {
+        @Override
+        protected GelfOutputBuffer initialValue() {
+            return new GelfOutputBuffer(INITIAL_BUFFER_SIZE);
+        }
+    };
 
     private GelfTransport client;
+    private int ringBufferSize;
+    private boolean encodeOnCaller = true;
+    private volatile EventRingBuffer ringBuffer;
+    private long drainTimeout = DEFAULT_DRAIN_TIMEOUT;
 
     protected GelfAppender(final String name,
                            final Layout<? extends Serializable> layout,
@@ -69,13 +107,42 @@ public class GelfAppender extends AbstractAppender {
                            final boolean includeStackTrace,
                            final KeyValuePair[] additionalFields,
                            final boolean includeExceptionCause) {
+        this(name, layout, filter, ignoreExceptions, new GelfTransportFactory(gelfConfiguration), hostName,
+                includeSource, includeThreadContext, includeStackTrace, additionalFields, includeExceptionCause,
+                DEFAULT_STACK_TRACE_CACHE_SIZE, false, ThreadContextFields.ALL, null, null, null);
+    }
+
+    GelfAppender(final String name,
+                 final Layout<? extends Serializable> layout,
+                 final Filter filter,
+                 final boolean ignoreExceptions,
+                 final GelfTransportFactory transportFactory,
+                 final String hostName,
+                 final boolean includeSource,
+                 final boolean includeThreadContext,
+                 final boolean includeStackTrace,
+                 final KeyValuePair[] additionalFields,
+                 final boolean includeExceptionCause,
+                 final int stackTraceCacheSize,
+                 final boolean jmxEnabled,
+                 final ThreadContextFields threadContextFields,
+                 final EventLimiter limiter,
+                 final ExceptionFingerprints exceptionFingerprints,
+                 final GelfTransportManager manager) {
         super(name, filter, layout, ignoreExceptions);
-        this.gelfConfiguration = gelfConfiguration;
+        this.transportFactory = transportFactory;
+        this.manager = manager;
+        this.gelfConfiguration = transportFactory.getConfiguration();
         this.hostName = hostName;
         this.includeSource = includeSource;
         this.includeThreadContext = includeThreadContext;
         this.includeStackTrace = includeStackTrace;
         this.includeExceptionCause = includeExceptionCause;
+        this.metrics = transportFactory.getMetrics();
+        this.jmxEnabled = jmxEnabled;
+        this.threadContextFields = threadContextFields;
+        this.limiter = limiter;
+        this.exceptionFingerprints = exceptionFingerprints;
 
         if (null != additionalFields) {
             this.additionalFields = new HashMap<>();
@@ -85,18 +152,186 @@ public class GelfAppender extends AbstractAppender {
         } else {
             this.additionalFields = Collections.emptyMap();
         }
+
+        this.stackTraceRenderer = new StackTraceRenderer(stackTraceCacheSize);
+        this.encoder = new GelfMessageEncoder(hostName, includeSource, includeThreadContext, includeStackTrace,
+                includeExceptionCause, this.additionalFields, stackTraceRenderer, threadContextFields,
+                transportFactory.isSizeLimitEnabled() ? transportFactory.getMaxMessageBytes() : 0,
+                exceptionFingerprints);
+        this.messageFormatter = new MessageFormatter(layout);
     }
 
     @Override
     public void append(LogEvent event) {
-        final Layout<? extends Serializable> layout = getLayout();
-        final String formattedMessage;
-        if (layout == null) {
-            formattedMessage = event.getMessage().getFormattedMessage();
+        final long start = System.nanoTime();
+        if (hostNamePending) {
+            refreshHostName();
+        }
+        final long repeatCount = limiter == null ? 0L : limiter.acquire(event, start);
+        if (repeatCount == EventLimiter.DISCARD) {
+            return;
+        }
+
+        final GelfTransport client = this.client;
+        final EventRingBuffer ringBuffer = this.ringBuffer;
+        if (ringBuffer != null) {
+            final EventRingBuffer.Slot slot = ringBuffer.claim();
+            if (slot != null) {
+                handOff(ringBuffer, slot, client, event, repeatCount, start);
+                return;
+            }
+            // The ring buffer is full, so the OverflowPolicy of the transport decides on the caller thread
+        }
+        send(client, event, repeatCount, start);
+    }
+
+    private void send(final GelfTransport client, final LogEvent event, final long repeatCount, final long start) {
+        if (client instanceof GelfFrameTransport) {
+            appendEncoded((GelfFrameTransport) client, event, repeatCount, start);
+        } else {
+            appendMessage(client, event, messageFormatter.format(event), repeatCount, start);
+        }
+    }
+
+    /**
+     * Fills a slot of the ring buffer with the encoded message or, if encoding happens on the sender thread, with an
+     * immutable snapshot of the log event.
+     */
+    private void handOff(final EventRingBuffer ringBuffer, final EventRingBuffer.Slot slot,
+                         final GelfTransport client, final LogEvent event, final long repeatCount, final long start) {
+        try {
+            slot.repeatCount = repeatCount;
+            slot.endOfBatch = event.isEndOfBatch();
+            if (!encodeOnCaller) {
+                slot.event = snapshot(event);
+            } else if (client instanceof GelfFrameTransport) {
+                slot.occurrence = encoder.encode(event, messageFormatter, repeatCount, slot.buffer());
+                if (encoder.isOversized(slot.buffer().size())) {
+                    discardOversized(slot.buffer(), slot.occurrence);
+                    return;
+                }
+                slot.severity = Severity.getSeverity(event.getLevel()).getCode();
+                slot.encodeNanos = System.nanoTime() - start;
+            } else {
+                slot.occurrence = recordException(event);
+                slot.message = buildMessage(event, messageFormatter.format(event), repeatCount, slot.occurrence);
+                slot.encodeNanos = System.nanoTime() - start;
+            }
+        } catch (Exception e) {
+            reopen(slot.occurrence);
+            slot.event = null;
+            slot.message = null;
+            slot.occurrence = null;
+            if (slot.buffer() != null) {
+                slot.buffer().reset();
+            }
+            metrics.dropped(GelfDropReason.ERROR, 1L);
+            throw new AppenderLoggingException("failed to write log event to GELF server: " + e.getMessage(), e);
+        } finally {
+            ringBuffer.publish(slot);
+        }
+    }
+
+    /**
+     * @return a copy of the log event which can be encoded on another thread
+     */
+    private LogEvent snapshot(final LogEvent event) {
+        // The thread name and the location can only be determined on the calling thread
+        event.getThreadName();
+        if (includeSource) {
+            event.getSource();
+        }
+        final LogEvent snapshot = Log4jLogEvent.createMemento(event, includeSource);
+        // The parameters of the message may be changed by the application once append() returns
+        if (snapshot.getMessage() != null) {
+            snapshot.getMessage().getFormattedMessage();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Encodes the log event directly into a reusable buffer and hands the bytes to the transport.
+     */
+    private void appendEncoded(final GelfFrameTransport client, final LogEvent event, final long repeatCount,
+                               final long start) {
+        final GelfOutputBuffer buffer = outputBuffer.get();
+        ExceptionFingerprints.Occurrence occurrence = null;
+        try {
+            occurrence = encoder.encode(event, messageFormatter, repeatCount, buffer);
+            if (encoder.isOversized(buffer.size())) {
+                discardOversized(buffer, occurrence);
+                return;
+            }
+            final long encodeNanos = System.nanoTime() - start;
+            final int severity = Severity.getSeverity(event.getLevel()).getCode();
+            sendFrame(client, buffer, severity, encodeNanos, event.isEndOfBatch(), occurrence);
+        } catch (Exception e) {
+            reopen(occurrence);
+            metrics.dropped(GelfDropReason.ERROR, 1L);
+            throw new AppenderLoggingException("failed to write log event to GELF server: " + e.getMessage(), e);
+        } finally {
+            buffer.reset(MAX_RETAINED_BUFFER_SIZE);
+        }
+    }
+
+    /**
+     * Discards a message whose core fields alone exceed the maximum message size.
+     */
+    private void discardOversized(final GelfOutputBuffer buffer, final ExceptionFingerprints.Occurrence occurrence) {
+        LOG.debug("Discarding GELF message of {} bytes which exceeds the maximum message size", buffer.size());
+        buffer.reset();
+        reopen(occurrence);
+        metrics.dropped(GelfDropReason.OVERSIZED, 1L);
+    }
+
+    private void sendFrame(final GelfFrameTransport client, final GelfOutputBuffer buffer, final int severity,
+                           final long encodeNanos, final boolean endOfBatch,
+                           final ExceptionFingerprints.Occurrence occurrence) {
+        final boolean sent = client.trySend(buffer.array(), 0, buffer.size(), severity);
+        if (sent) {
+            metrics.appended(buffer.size(), encodeNanos);
         } else {
-            formattedMessage = new String(layout.toByteArray(event), StandardCharsets.UTF_8);
+            reopen(occurrence);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Couldn't send message: {}", buffer);
+            }
+        }
+        if (endOfBatch) {
+            client.flush();
+        }
+    }
+
+    private void appendMessage(final GelfTransport client, final LogEvent event, final String formattedMessage,
+                               final long repeatCount, final long start) {
+        final ExceptionFingerprints.Occurrence occurrence = recordException(event);
+        final GelfMessage gelfMessage = buildMessage(event, formattedMessage, repeatCount, occurrence);
+        sendMessage(client, gelfMessage, System.nanoTime() - start, occurrence);
+    }
+
+    /**
+     * @return the occurrence of the exception of the event if exceptions are fingerprinted, otherwise {@code null}
+     */
+    private ExceptionFingerprints.Occurrence recordException(final LogEvent event) {
+        @SuppressWarnings("all")
+        final Throwable thrown = event.getThrown();
+        if (exceptionFingerprints == null || !includeStackTrace || thrown == null) {
+            return null;
+        }
+        return exceptionFingerprints.record(thrown, System.nanoTime());
+    }
+
+    /**
+     * Reopens the window of an exception whose first occurrence couldn't be sent, so that its stack trace is sent
+     * with the next occurrence.
+     */
+    private void reopen(final ExceptionFingerprints.Occurrence occurrence) {
+        if (occurrence != null) {
+            exceptionFingerprints.reopen(occurrence);
         }
+    }
 
+    private GelfMessage buildMessage(final LogEvent event, final String formattedMessage, final long repeatCount,
+                                     final ExceptionFingerprints.Occurrence occurrence) {
         final GelfMessageBuilder builder = new GelfMessageBuilder(formattedMessage, hostName)
                 .timestamp(event.getTimeMillis() / 1000d)
                 .level(GelfMessageLevel.fromNumericLevel(Severity.getSeverity(event.getLevel()).getCode()))
@@ -109,9 +344,7 @@ public class GelfAppender extends AbstractAppender {
         }
 
         if (includeThreadContext) {
-            for (Map.Entry<String, String> entry : event.getContextMap().entrySet()) {
-                builder.additionalField(entry.getKey(), entry.getValue());
-            }
+            event.getContextData().forEach(contextDataWriter, builder);
 
             // Guard against https://issues.apache.org/jira/browse/LOG4J2-1530
             final ThreadContext.ContextStack contextStack = event.getContextStack();
@@ -136,82 +369,215 @@ public class GelfAppender extends AbstractAppender {
         @SuppressWarnings("all")
         final Throwable thrown = event.getThrown();
         if (includeStackTrace && thrown != null) {
-            String stackTrace;
-            if (includeExceptionCause) {
-                final StringWriter stringWriter = new StringWriter();
-                final PrintWriter printWriter = new PrintWriter(stringWriter);
-                thrown.printStackTrace(printWriter);
-                stackTrace = stringWriter.toString();
-            } else {
-                stackTrace = getSimpleStacktraceAsString(thrown);
-            }
-
             builder.additionalField("exceptionClass", thrown.getClass().getCanonicalName());
             builder.additionalField("exceptionMessage", thrown.getMessage());
-            builder.additionalField("exceptionStackTrace", stackTrace);
 
-            builder.fullMessage(formattedMessage);
+            if (occurrence != null) {
+                builder.additionalField("exceptionFingerprint", occurrence.getFingerprint());
+                builder.additionalField("exceptionOccurrence", occurrence.getCount());
+            }
+            // Repeated exceptions only refer to the stack trace sent with their first occurrence
+            if (occurrence == null || occurrence.isFirst()) {
+                final String stackTrace = stackTraceRenderer.render(thrown, includeExceptionCause);
+                builder.additionalField("exceptionStackTrace", stackTrace);
+                builder.fullMessage(formattedMessage);
+            }
+        }
+
+        if (repeatCount > 0) {
+            builder.additionalField("repeatCount", repeatCount);
         }
 
         if (!additionalFields.isEmpty()) {
             builder.additionalFields(additionalFields);
         }
 
-        final GelfMessage gelfMessage = builder.build();
+        return builder.build();
+    }
+
+    private void sendMessage(final GelfTransport client, final GelfMessage gelfMessage, final long encodeNanos,
+                             final ExceptionFingerprints.Occurrence occurrence) {
         try {
             final boolean sent = client.trySend(gelfMessage);
-            if (!sent) {
+            if (sent) {
+                metrics.appended(-1, encodeNanos);
+            } else {
+                reopen(occurrence);
                 LOG.debug("Couldn't send message: {}", gelfMessage);
             }
         } catch (Exception e) {
+            reopen(occurrence);
+            metrics.dropped(GelfDropReason.ERROR, 1L);
             throw new AppenderLoggingException("failed to write log event to GELF server: " + e.getMessage(), e);
         }
     }
 
-    protected String getSimpleStacktraceAsString(final Throwable thrown) {
-        final StringBuilder stackTraceBuilder = new StringBuilder();
-        for (StackTraceElement stackTraceElement : thrown.getStackTrace()) {
-            new Formatter(stackTraceBuilder).format("%s.%s(%s:%d)%n",
-                    stackTraceElement.getClassName(),
-                    stackTraceElement.getMethodName(),
-                    stackTraceElement.getFileName(),
-                    stackTraceElement.getLineNumber());
+    /**
+     * Replaces the fallback host name with the detected local host name once its resolution has finished.
+     */
+    void useDetectedHostName() {
+        hostNamePending = true;
+        refreshHostName();
+    }
+
+    private void refreshHostName() {
+        final String resolved = HostNameResolver.INSTANCE.getIfResolved();
+        if (resolved != null) {
+            if (!resolved.equals(hostName)) {
+                encoder.hostName(resolved);
+                hostName = resolved;
+            }
+            hostNamePending = false;
         }
-        return stackTraceBuilder.toString();
+    }
+
+    protected String getSimpleStacktraceAsString(final Throwable thrown) {
+        return stackTraceRenderer.render(thrown, false);
     }
 
     protected void setClient(GelfTransport client) {
         this.client = requireNonNull(client);
+        metrics.transport(client instanceof QueueingTransport ? (QueueingTransport) client : null);
+    }
+
+    /**
+     * Registers a listener which is notified about appended and discarded log events until the appender is stopped.
+     */
+    public void addListener(final GelfAppenderListener listener) {
+        metrics.addListener(requireNonNull(listener));
+        listeners.add(listener);
+    }
+
+    public void removeListener(final GelfAppenderListener listener) {
+        metrics.removeListener(listener);
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return the metrics of this appender, also available via JMX unless disabled
+     */
+    public GelfAppenderMXBean getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Hands log events to a dedicated thread via a ring buffer instead of sending them on the calling thread. Has to
+     * be called before the appender is started.
+     *
+     * @param size           the number of slots of the ring buffer, {@code 0} disables the ring buffer
+     * @param encodeOnCaller whether events are encoded on the calling thread, otherwise an immutable snapshot of
+     *                       every event is encoded on the thread of the ring buffer
+     */
+    void useRingBuffer(final int size, final boolean encodeOnCaller) {
+        this.ringBufferSize = size;
+        this.encodeOnCaller = encodeOnCaller;
+    }
+
+    /**
+     * @param drainTimeout the maximum time in milliseconds to wait for queued messages to be sent when the appender
+     *                     is stopped
+     */
+    void setDrainTimeout(final long drainTimeout) {
+        this.drainTimeout = Math.max(0L, drainTimeout);
     }
 
     @Override
     public void start() {
         super.start();
-        client = GelfTransports.create(gelfConfiguration);
+        setClient(manager == null ? transportFactory.create() : manager.getTransport());
+        if (ringBufferSize > 0) {
+            final EventRingBuffer ringBuffer = new EventRingBuffer(ringBufferSize,
+                    encodeOnCaller ? INITIAL_BUFFER_SIZE : 0, new RingBufferHandler(), "gelf-appender-" + getName());
+            ringBuffer.start();
+            this.ringBuffer = ringBuffer;
+        }
+        if (jmxEnabled) {
+            metrics.register(getName());
+        }
     }
 
+    /**
+     * Stops the appender after sending the queued messages as fast as possible. Messages which couldn't be sent
+     * within the drain timeout are abandoned and counted as {@link GelfDropReason#ABANDONED}. A shared transport is
+     * only drained and stopped if no appender of another configuration uses it.
+     *
+     * @param timeout the maximum time to wait for queued messages, {@code 0} for the drain timeout of the appender,
+     *                otherwise the shorter of both is used
+     * @return {@code false} if queued messages had to be abandoned
+     */
     @Override
-    public void stop() {
-        super.stop();
-        if (client != null) {
-            client.stop();
+    public boolean stop(final long timeout, final TimeUnit timeUnit) {
+        setStopping();
+        boolean stopped = super.stop(timeout, timeUnit, false);
+        final long drainNanos = TimeUnit.MILLISECONDS.toNanos(drainTimeout);
+        final long timeoutNanos = timeout > 0L ? Math.min(timeUnit.toNanos(timeout), drainNanos) : drainNanos;
+        final long deadlineNanos = System.nanoTime() + timeoutNanos;
+
+        final EventRingBuffer ringBuffer = this.ringBuffer;
+        if (ringBuffer != null) {
+            this.ringBuffer = null;
+            final int abandoned = ringBuffer.stop(timeoutNanos, TimeUnit.NANOSECONDS);
+            if (abandoned > 0) {
+                metrics.dropped(GelfDropReason.ABANDONED, abandoned);
+                LOG.warn("Abandoned {} log events in the ring buffer of GELF appender {}", abandoned, getName());
+                stopped = false;
+            }
+        }
+
+        // The transport gets the time left after draining the ring buffer into it
+        final long remainingNanos = Math.max(0L, deadlineNanos - System.nanoTime());
+        if (manager != null) {
+            stopped &= manager.stop(remainingNanos, TimeUnit.NANOSECONDS);
+            // The metrics are shared with the appender of the next configuration, which registers its own listeners
+            for (GelfAppenderListener listener : listeners) {
+                metrics.removeListener(listener);
+            }
+        } else {
+            if (client != null) {
+                stopped &= GelfTransportManager.drainAndStop(client, remainingNanos, metrics) == 0;
+            }
+            metrics.unregister();
+            metrics.transport(null);
         }
+        setStopped();
+        return stopped;
     }
 
     @Override
     public String toString() {
         return GelfAppender.class.getSimpleName() + "{"
                 + "name=" + getName()
-                + ",server=" + gelfConfiguration.getRemoteAddress().getHostName()
-                + ",port=" + gelfConfiguration.getRemoteAddress().getPort()
-                + ",protocol=" + gelfConfiguration.getTransport().toString()
+                + ",server=" + gelfConfiguration.getHostname()
+                + ",port=" + gelfConfiguration.getPort()
+                + ",endpoints=" + transportFactory.getEndpoints()
+                + ",loadBalancing=" + transportFactory.getLoadBalancing()
+                + ",transport=" + (transportFactory.isNio() ? "NIO" : "NETTY")
+                + ",protocol=" + transportFactory.getProtocol()
                 + ",hostName=" + hostName
                 + ",queueSize=" + gelfConfiguration.getQueueSize()
+                + ",ringBufferSize=" + ringBufferSize
+                + ",encodeOnCaller=" + encodeOnCaller
+                + ",drainTimeout=" + drainTimeout
                 + ",connectTimeout=" + gelfConfiguration.getConnectTimeout()
                 + ",reconnectDelay=" + gelfConfiguration.getReconnectDelay()
                 + ",sendBufferSize=" + gelfConfiguration.getSendBufferSize()
                 + ",tcpNoDelay=" + gelfConfiguration.isTcpNoDelay()
                 + ",tcpKeepAlive=" + gelfConfiguration.isTcpKeepAlive()
+                + ",batchSize=" + transportFactory.getBatchSize()
+                + ",batchLinger=" + transportFactory.getBatchLinger()
+                + ",compression=" + transportFactory.getCompression()
+                + ",compressionLevel=" + transportFactory.getCompressionLevel()
+                + ",compressionThreshold=" + transportFactory.getCompressionThreshold()
+                + ",overflowPolicy=" + transportFactory.getOverflowPolicy()
+                + ",priorityLanes=" + transportFactory.getOverflowPolicy().isPriorityLanes()
+                + ",spillDirectory=" + transportFactory.getSpillDirectory()
+                + ",spillSegmentSize=" + transportFactory.getSpillSegmentSize()
+                + ",spillMaxSegments=" + transportFactory.getSpillMaxSegments()
+                + ",spillMaxAge=" + transportFactory.getSpillMaxAge()
+                + ",maxMessageBytes=" + transportFactory.getMaxMessageBytes()
+                + ",jmxEnabled=" + jmxEnabled
+                + ",limiter=" + limiter
+                + ",exceptionFingerprints=" + exceptionFingerprints
                 + ",tlsEnabled=" + gelfConfiguration.isTlsEnabled()
                 + ",tlsCertVerificationEnabled=" + gelfConfiguration.isTlsCertVerificationEnabled()
                 + ",tlsTrustCertChainFilename=" + (gelfConfiguration.getTlsTrustCertChainFile() != null ?
@@ -221,6 +587,12 @@ public class GelfAppender extends AbstractAppender {
 
     /**
      * Factory method for creating a {@link GelfTransport} provider within the plugin manager.
+     * <p>
+     * Log events are only encoded straight into reused buffers, without creating garbage per event, if one of the
+     * built-in transports is used, i. e. with {@code transport="NIO"}, {@code protocol="HTTP"}, several servers,
+     * {@code batchSize} (TCP), {@code compression} (UDP), {@code maxMessageBytes}, {@code priorityLanes} or
+     * {@code spillDirectory}. Except for HTTP, the built-in transports don't support TLS. With the default
+     * configuration, every log event is converted into a {@link GelfMessage} of gelfclient.
      *
      * @param name                             The name of the Appender.
      * @param filter                           A Filter to determine if the event should be handled by this Appender.
@@ -229,24 +601,57 @@ public class GelfAppender extends AbstractAppender {
      *                                         to be internally logged and then ignored. When set to {@code false} exceptions will
      *                                         be propagated to the caller, instead. Must be set to {@code false} when wrapping this
      *                                         Appender in a {@link org.apache.logging.log4j.core.appender.FailoverAppender}.
-     * @param server                           The server name of the GELF server, defaults to {@code localhost}.
+     * @param server                           The server name of the GELF server or a comma-separated list of {@code host[:port]} entries, defaults to {@code localhost}.
      * @param port                             The port the GELF server is listening on, defaults to {@code 12201}.
+     * @param loadBalancing                    How to distribute messages over several servers ({@code ROUND_ROBIN} or {@code LEAST_QUEUED}), defaults to {@code ROUND_ROBIN}.
      * @param hostName                         The host name of the machine generating the logs, defaults to local host name
      *                                         or {@code localhost} if it couldn't be detected.
-     * @param protocol                         The transport protocol to use, defaults to {@code UDP}.
+     * @param hostNameResolutionTimeout        The maximum time in milliseconds to wait for the detection of the local host name, defaults to {@code 100}.
+     *                                         A fallback is used until the detection has finished.
+     * @param protocol                         The transport protocol to use ({@code UDP}, {@code TCP} or {@code HTTP}), defaults to {@code UDP}.
+     * @param transport                        The implementation of the transport, {@code NETTY} (gelfclient) or {@code NIO} (built-in, without Netty), defaults to {@code NETTY}.
      * @param tlsEnabled                       Whether TLS should be enabled, defaults to {@code false}.
      * @param tlsEnableCertificateVerification Whether TLS certificate chain should be checked, defaults to {@code true}.
      * @param tlsTrustCertChainFilename        A X.509 certificate chain file in PEM format for certificate verification, defaults to {@code null}
      * @param queueSize                        The size of the internally used queue, defaults to {@code 512}.
+     * @param ringBufferSize                   The number of slots of a lock-free ring buffer which hands log events to a dedicated sender thread, defaults to {@code 0} (deactivate).
+     * @param encodeOnCaller                   Whether log events are encoded on the calling thread before they are put into the ring buffer, otherwise on the sender thread, defaults to {@code true}.
+     * @param drainTimeout                     The maximum time in milliseconds to wait for queued messages to be sent when the appender is stopped, defaults to {@code 1000}.
      * @param connectTimeout                   The connection timeout for TCP connections in milliseconds, defaults to {@code 1000}.
      * @param reconnectDelay                   The time to wait between reconnects in milliseconds, defaults to {@code 500}.
      * @param sendBufferSize                   The size of the socket send buffer in bytes, defaults to {@code -1} (deactivate).
      * @param tcpNoDelay                       Whether Nagle's algorithm should be used for TCP connections, defaults to {@code false}.
      * @param tcpKeepAlive                     Whether to try keeping alive TCP connections, defaults to {@code false}.
+     * @param batchSize                        The maximum number of bytes coalesced into a single TCP write or HTTP request, defaults to {@code 0} (deactivate for TCP, 64 KiB for HTTP).
+     * @param batchLinger                      The maximum time in milliseconds to wait for more messages before writing a batch, defaults to {@code 5}.
+     * @param compression                      The compression of UDP payloads and HTTP requests ({@code NONE}, {@code GZIP} or {@code ZLIB}), defaults to {@code null} (always GZIP).
+     * @param compressionLevel                 The compression level from {@code 0} to {@code 9}, defaults to {@code -1} (default level).
+     * @param compressionThreshold             The minimum size of a message in bytes to be compressed, defaults to {@code 0}.
+     * @param overflowPolicy                   What to do if the queue is full ({@code DROP_NEWEST}, {@code DROP_OLDEST}, {@code BLOCK} or {@code DISCARD_BELOW_LEVEL}), defaults to {@code DROP_NEWEST}.
+     * @param overflowTimeout                  The maximum time in milliseconds to wait for free space in the queue, defaults to {@code 100}.
+     * @param overflowLevel                    The least severe level which isn't discarded by {@code DISCARD_BELOW_LEVEL}, defaults to {@code WARN}.
+     * @param priorityLanes                    Whether to queue messages in separate lanes per severity, which are sent with weighted priority and discard less severe messages first if the queue is full, defaults to {@code false}.
+     * @param spillDirectory                   The directory for spilling messages to disk if the queue is full, defaults to {@code null} (deactivate).
+     * @param spillSegmentSize                 The size of a single spill file in bytes, defaults to {@code 8388608} (8 MiB).
+     * @param spillMaxSegments                 The maximum number of spill files, defaults to {@code 16}.
+     * @param spillMaxAge                      The maximum age of a spilled message in milliseconds, defaults to {@code 3600000} (1 hour).
+     * @param jmxEnabled                       Whether the metrics of the appender should be registered as MBean, defaults to {@code true}.
+     * @param listener                         The class name of a {@link GelfAppenderListener} to notify about appended and discarded log events, defaults to {@code null}.
+     * @param rateLimit                        The maximum number of log events per second per logger and level, defaults to {@code 0} (deactivate).
+     * @param rateLimitBurst                   The number of log events which may exceed the rate limit in a short burst, defaults to {@code 0} (same as the rate limit).
+     * @param samplingRate                     The probability from {@code 0} to {@code 1} that a log event at or below the sampling level is sent, defaults to {@code 1}.
+     * @param samplingLevel                    The most severe level which is sampled, defaults to {@code INFO}.
+     * @param duplicateWindow                  The time in milliseconds in which identical log events are collapsed into one, defaults to {@code 0} (deactivate).
+     * @param maxMessageBytes                  The maximum size of an encoded GELF message in bytes, less important fields are cut off to stay below it, defaults to {@code 0} (no limit).
      * @param includeSource                    Whether the source of the log message should be included, defaults to {@code true}.
      * @param includeThreadContext             Whether the contents of the {@link org.apache.logging.log4j.ThreadContext} should be included, defaults to {@code true}.
+     * @param threadContextIncludes            A comma-separated list of {@link org.apache.logging.log4j.ThreadContext} keys (or prefixes ending with {@code *}) to include, defaults to {@code null} (all keys).
+     * @param threadContextExcludes            A comma-separated list of {@link org.apache.logging.log4j.ThreadContext} keys (or prefixes ending with {@code *}) to exclude, defaults to {@code null}.
+     * @param threadContextRenames             A comma-separated list of {@code key=field} pairs to rename {@link org.apache.logging.log4j.ThreadContext} keys, defaults to {@code null}.
      * @param includeStackTrace                Whether a full stack trace should be included, defaults to {@code true}.
      * @param includeExceptionCause            Whether the included stack trace should contain causing exceptions, defaults to {@code false}.
+     * @param stackTraceCacheSize              The number of rendered stack traces to cache, defaults to {@code 256}. {@code 0} disables the cache.
+     * @param exceptionFingerprintWindow       The time in milliseconds in which the stack trace of a repeated exception is only sent once, later occurrences only carry its fingerprint and count, defaults to {@code 0} (deactivate).
      * @param additionalFields                 Additional static key=value pairs that will be added to every log message.
      * @return a new GELF provider
      */
@@ -259,18 +664,50 @@ public class GelfAppender extends AbstractAppender {
                                                   @PluginAttribute(value = "ignoreExceptions", defaultBoolean = true) Boolean ignoreExceptions,
                                                   @PluginAttribute(value = "server", defaultString = "localhost") String server,
                                                   @PluginAttribute(value = "port", defaultInt = 12201) Integer port,
+                                                  @PluginAttribute(value = "loadBalancing", defaultString = "ROUND_ROBIN") String loadBalancing,
                                                   @PluginAttribute(value = "protocol", defaultString = "UDP") String protocol,
+                                                  @PluginAttribute(value = "transport", defaultString = "NETTY") String transport,
                                                   @PluginAttribute(value = "hostName") String hostName,
+                                                  @PluginAttribute(value = "hostNameResolutionTimeout", defaultLong = 100L) Long hostNameResolutionTimeout,
                                                   @PluginAttribute(value = "queueSize", defaultInt = 512) Integer queueSize,
+                                                  @PluginAttribute(value = "ringBufferSize", defaultInt = 0) Integer ringBufferSize,
+                                                  @PluginAttribute(value = "encodeOnCaller", defaultBoolean = true) Boolean encodeOnCaller,
+                                                  @PluginAttribute(value = "drainTimeout", defaultLong = DEFAULT_DRAIN_TIMEOUT) Long drainTimeout,
                                                   @PluginAttribute(value = "connectTimeout", defaultInt = 1000) Integer connectTimeout,
                                                   @PluginAttribute(value = "reconnectDelay", defaultInt = 500) Integer reconnectDelay,
                                                   @PluginAttribute(value = "sendBufferSize", defaultInt = -1) Integer sendBufferSize,
                                                   @PluginAttribute(value = "tcpNoDelay", defaultBoolean = false) Boolean tcpNoDelay,
                                                   @PluginAttribute(value = "tcpKeepAlive", defaultBoolean = false) Boolean tcpKeepAlive,
+                                                  @PluginAttribute(value = "batchSize", defaultInt = 0) Integer batchSize,
+                                                  @PluginAttribute(value = "batchLinger", defaultInt = 5) Integer batchLinger,
+                                                  @PluginAttribute(value = "compression") String compression,
+                                                  @PluginAttribute(value = "compressionLevel", defaultInt = -1) Integer compressionLevel,
+                                                  @PluginAttribute(value = "compressionThreshold", defaultInt = 0) Integer compressionThreshold,
+                                                  @PluginAttribute(value = "overflowPolicy", defaultString = "DROP_NEWEST") String overflowPolicy,
+                                                  @PluginAttribute(value = "overflowTimeout", defaultLong = 100L) Long overflowTimeout,
+                                                  @PluginAttribute(value = "overflowLevel", defaultString = "WARN") String overflowLevel,
+                                                  @PluginAttribute(value = "priorityLanes", defaultBoolean = false) Boolean priorityLanes,
+                                                  @PluginAttribute(value = "spillDirectory") String spillDirectory,
+                                                  @PluginAttribute(value = "spillSegmentSize", defaultInt = 8 * 1024 * 1024) Integer spillSegmentSize,
+                                                  @PluginAttribute(value = "spillMaxSegments", defaultInt = 16) Integer spillMaxSegments,
+                                                  @PluginAttribute(value = "spillMaxAge", defaultLong = 3600000L) Long spillMaxAge,
+                                                  @PluginAttribute(value = "jmxEnabled", defaultBoolean = true) Boolean jmxEnabled,
+                                                  @PluginAttribute(value = "listener") String listener,
+                                                  @PluginAttribute(value = "rateLimit", defaultDouble = 0d) Double rateLimit,
+                                                  @PluginAttribute(value = "rateLimitBurst", defaultInt = 0) Integer rateLimitBurst,
+                                                  @PluginAttribute(value = "samplingRate", defaultDouble = 1d) Double samplingRate,
+                                                  @PluginAttribute(value = "samplingLevel", defaultString = "INFO") String samplingLevel,
+                                                  @PluginAttribute(value = "duplicateWindow", defaultLong = 0L) Long duplicateWindow,
+                                                  @PluginAttribute(value = "maxMessageBytes", defaultInt = 0) Integer maxMessageBytes,
                                                   @PluginAttribute(value = "includeSource", defaultBoolean = true) Boolean includeSource,
                                                   @PluginAttribute(value = "includeThreadContext", defaultBoolean = true) Boolean includeThreadContext,
+                                                  @PluginAttribute(value = "threadContextIncludes") String threadContextIncludes,
+                                                  @PluginAttribute(value = "threadContextExcludes") String threadContextExcludes,
+                                                  @PluginAttribute(value = "threadContextRenames") String threadContextRenames,
                                                   @PluginAttribute(value = "includeStackTrace", defaultBoolean = true) Boolean includeStackTrace,
                                                   @PluginAttribute(value = "includeExceptionCause", defaultBoolean = false) Boolean includeExceptionCause,
+                                                  @PluginAttribute(value = "stackTraceCacheSize", defaultInt = DEFAULT_STACK_TRACE_CACHE_SIZE) Integer stackTraceCacheSize,
+                                                  @PluginAttribute(value = "exceptionFingerprintWindow", defaultLong = 0L) Long exceptionFingerprintWindow,
                                                   @PluginAttribute(value = "tlsEnabled", defaultBoolean = false) Boolean tlsEnabled,
                                                   @PluginAttribute(value = "tlsEnableCertificateVerification", defaultBoolean = true) Boolean tlsEnableCertificateVerification,
                                                   @PluginAttribute(value = "tlsTrustCertChainFilename") String tlsTrustCertChainFilename) {
@@ -279,27 +716,21 @@ public class GelfAppender extends AbstractAppender {
             return null;
         }
 
-        if (!"UDP".equalsIgnoreCase(protocol) && !"TCP".equalsIgnoreCase(protocol)) {
+        if (!"UDP".equalsIgnoreCase(protocol) && !"TCP".equalsIgnoreCase(protocol)
+                && !"HTTP".equalsIgnoreCase(protocol)) {
             LOG.warn("Invalid protocol {}, falling back to UDP", protocol);
             protocol = "UDP";
         }
-        if (hostName == null || hostName.trim().isEmpty()) {
-            try {
-                final String canonicalHostName = InetAddress.getLocalHost().getCanonicalHostName();
-                if (isFQDN(canonicalHostName)) {
-                    hostName = canonicalHostName;
-                } else {
-                    hostName = InetAddress.getLocalHost().getHostName();
-                }
-            } catch (UnknownHostException e) {
-                LOG.warn("Couldn't detect local host name, falling back to \"localhost\"");
-                hostName = "localhost";
-            }
+        final boolean detectHostName = hostName == null || hostName.trim().isEmpty();
+        if (detectHostName) {
+            hostName = HostNameResolver.INSTANCE.resolve(hostNameResolutionTimeout);
         }
 
-        final InetSocketAddress serverAddress = new InetSocketAddress(server, port);
-        final GelfTransports gelfProtocol = GelfTransports.valueOf(protocol.toUpperCase());
-        final GelfConfiguration gelfConfiguration = new GelfConfiguration(serverAddress)
+        final List<InetSocketAddress> endpoints = parseEndpoints(server, port);
+        // HTTP is connection-oriented like TCP and shares its settings
+        final boolean http = "HTTP".equalsIgnoreCase(protocol);
+        final GelfTransports gelfProtocol = http ? GelfTransports.TCP : GelfTransports.valueOf(protocol.toUpperCase());
+        final GelfConfiguration gelfConfiguration = new GelfConfiguration(endpoints.get(0))
                 .transport(gelfProtocol)
                 .queueSize(queueSize)
                 .connectTimeout(connectTimeout)
@@ -309,7 +740,12 @@ public class GelfAppender extends AbstractAppender {
                 .tcpKeepAlive(tcpKeepAlive);
 
         if (tlsEnabled) {
-            if (gelfProtocol.equals(GelfTransports.TCP)) {
+            if (http) {
+                gelfConfiguration.enableTls();
+                if (!tlsEnableCertificateVerification || tlsTrustCertChainFilename != null) {
+                    LOG.warn("HTTPS always uses the trust store of the JVM, ignoring TLS certificate settings");
+                }
+            } else if (gelfProtocol.equals(GelfTransports.TCP)) {
                 gelfConfiguration.enableTls();
                 if (!tlsEnableCertificateVerification) {
                     LOG.warn("TLS certificate validation is disabled. This is unsecure!");
@@ -323,8 +759,193 @@ public class GelfAppender extends AbstractAppender {
             }
         }
 
-        return new GelfAppender(name, layout, filter, ignoreExceptions, gelfConfiguration, hostName, includeSource,
-                includeThreadContext, includeStackTrace, additionalFields, includeExceptionCause);
+        final GelfTransportFactory transportFactory = new GelfTransportFactory(gelfConfiguration)
+                .batchSize(batchSize)
+                .batchLinger(batchLinger)
+                .compression(parseCompression(compression))
+                .compressionLevel(compressionLevel)
+                .compressionThreshold(compressionThreshold)
+                .overflowPolicy(createOverflowPolicy(overflowPolicy, overflowTimeout, overflowLevel, priorityLanes,
+                        new GelfMetrics()))
+                .spillSegmentSize(spillSegmentSize)
+                .spillMaxSegments(spillMaxSegments)
+                .spillMaxAge(spillMaxAge)
+                .maxMessageBytes(maxMessageBytes)
+                .http(http)
+                .nio(parseNio(transport))
+                .endpoints(endpoints)
+                .loadBalancing(parseLoadBalancing(loadBalancing));
+        if (endpoints.size() > 1 && !transportFactory.isLoadBalancingEnabled()) {
+            LOG.warn("Multiple servers aren't supported for TLS, only using {}", endpoints.get(0));
+        }
+        if (spillDirectory != null && !spillDirectory.trim().isEmpty()) {
+            if (gelfConfiguration.isTlsEnabled() && !http) {
+                LOG.warn("Spilling to disk isn't supported for TLS, ignoring spillDirectory");
+            } else {
+                transportFactory.spillDirectory(new File(spillDirectory.trim()));
+            }
+        }
+        if (batchSize > 0 && !transportFactory.isBatchingEnabled()) {
+            LOG.warn("Batching is only supported for TCP without TLS, ignoring batchSize");
+        }
+        if (transportFactory.getCompression() != null && !transportFactory.isCompressionEnabled()) {
+            LOG.warn("Compression is only supported for UDP and HTTP, ignoring compression");
+        }
+        if (transportFactory.isNio() && !transportFactory.isNioEnabled()) {
+            LOG.warn("The NIO transport doesn't support TLS, using the Netty transport");
+        }
+        if (priorityLanes && !transportFactory.isPriorityLanesEnabled()) {
+            LOG.warn("Priority lanes aren't supported for TLS, ignoring priorityLanes");
+        }
+        if (maxMessageBytes > 0 && !transportFactory.isSizeLimitEnabled()) {
+            LOG.warn("Limiting the message size isn't supported for TLS, ignoring maxMessageBytes");
+        }
+        if (compressionLevel < -1 || compressionLevel > 9) {
+            LOG.warn("Invalid compression level {}, falling back to default level", compressionLevel);
+            transportFactory.compressionLevel(-1);
+        }
+
+        // Reuse the transport and metrics of the previous configuration if the transport settings haven't changed
+        final GelfTransportManager manager = GelfTransportManager.getManager(name, transportFactory);
+        final GelfTransportFactory sharedTransportFactory = manager.getTransportFactory();
+        final GelfAppender appender = new GelfAppender(name, layout, filter, ignoreExceptions, sharedTransportFactory,
+                hostName, includeSource, includeThreadContext, includeStackTrace, additionalFields,
+                includeExceptionCause, stackTraceCacheSize, jmxEnabled,
+                ThreadContextFields.parse(threadContextIncludes, threadContextExcludes, threadContextRenames),
+                createLimiter(rateLimit, rateLimitBurst, samplingRate, samplingLevel, duplicateWindow,
+                        sharedTransportFactory.getMetrics()),
+                exceptionFingerprintWindow > 0
+                        ? new ExceptionFingerprints(exceptionFingerprintWindow, includeExceptionCause) : null,
+                manager);
+        if (detectHostName) {
+            appender.useDetectedHostName();
+        }
+        if (ringBufferSize > 0) {
+            appender.useRingBuffer(ringBufferSize, encodeOnCaller);
+        }
+        appender.setDrainTimeout(drainTimeout);
+        if (listener != null && !listener.trim().isEmpty()) {
+            try {
+                appender.addListener(Loader.newCheckedInstanceOf(listener.trim(), GelfAppenderListener.class));
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                LOG.error("Couldn't create GELF appender listener {}", listener, e);
+            }
+        }
+        return appender;
+    }
+
+    /**
+     * Parses a comma-separated list of {@code host[:port]} entries. IPv6 addresses with port have to be enclosed in
+     * square brackets, e. g. {@code [::1]:12201}.
+     */
+    static List<InetSocketAddress> parseEndpoints(final String servers, final int defaultPort) {
+        final List<InetSocketAddress> endpoints = new ArrayList<>();
+        for (String entry : servers.split(",")) {
+            final String server = entry.trim();
+            if (server.isEmpty()) {
+                continue;
+            }
+
+            String host = server;
+            int port = defaultPort;
+            final int colon = server.lastIndexOf(':');
+            if (server.startsWith("[")) {
+                final int bracket = server.indexOf(']');
+                host = server.substring(1, bracket < 0 ? server.length() : bracket);
+                if (bracket >= 0 && colon > bracket) {
+                    port = parsePort(server.substring(colon + 1), defaultPort);
+                }
+            } else if (colon > 0 && colon == server.indexOf(':')) {
+                host = server.substring(0, colon);
+                port = parsePort(server.substring(colon + 1), defaultPort);
+            }
+            endpoints.add(InetSocketAddress.createUnresolved(host, port));
+        }
+
+        if (endpoints.isEmpty()) {
+            LOG.warn("No server configured, falling back to localhost");
+            endpoints.add(InetSocketAddress.createUnresolved("localhost", defaultPort));
+        }
+        return endpoints;
+    }
+
+    private static int parsePort(final String port, final int defaultPort) {
+        try {
+            return Integer.parseInt(port.trim());
+        } catch (NumberFormatException e) {
+            LOG.warn("Invalid port {}, falling back to {}", port, defaultPort);
+            return defaultPort;
+        }
+    }
+
+    private static EventLimiter createLimiter(final double rateLimit, final int rateLimitBurst,
+                                              final double samplingRate, final String samplingLevel,
+                                              final long duplicateWindow, final GelfMetrics metrics) {
+        Level level = Level.toLevel(samplingLevel, null);
+        if (level == null) {
+            LOG.warn("Invalid sampling level {}, falling back to INFO", samplingLevel);
+            level = Level.INFO;
+        }
+        if (samplingRate < 0d || samplingRate > 1d) {
+            LOG.warn("Invalid sampling rate {}, must be between 0 and 1", samplingRate);
+        }
+        final int burst = rateLimitBurst > 0 ? rateLimitBurst : (int) Math.max(1d, Math.ceil(rateLimit));
+        final EventLimiter limiter = new EventLimiter(rateLimit, burst, samplingRate, level, duplicateWindow,
+                metrics);
+        return limiter.isEnabled() ? limiter : null;
+    }
+
+    private static LoadBalancingTransport.Strategy parseLoadBalancing(final String loadBalancing) {
+        try {
+            return LoadBalancingTransport.Strategy.parse(loadBalancing);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            LOG.warn("Invalid load balancing {}, falling back to ROUND_ROBIN", loadBalancing);
+            return LoadBalancingTransport.Strategy.ROUND_ROBIN;
+        }
+    }
+
+    /**
+     * @return {@code true} if the built-in NIO transport has been requested instead of the Netty transport
+     */
+    private static boolean parseNio(final String transport) {
+        if (transport == null || "NETTY".equalsIgnoreCase(transport.trim())) {
+            return false;
+        }
+        if ("NIO".equalsIgnoreCase(transport.trim())) {
+            return true;
+        }
+        LOG.warn("Invalid transport {}, falling back to NETTY", transport);
+        return false;
+    }
+
+    private static GelfCompression parseCompression(final String compression) {
+        if (compression == null || compression.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return GelfCompression.valueOf(compression.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Invalid compression {}, falling back to GZIP", compression);
+            return GelfCompression.GZIP;
+        }
+    }
+
+    private static OverflowPolicy createOverflowPolicy(final String policy, final long timeout, final String level,
+                                                       final boolean priorityLanes, final GelfMetrics metrics) {
+        OverflowPolicy.Type type;
+        try {
+            type = OverflowPolicy.Type.parse(policy);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            LOG.warn("Invalid overflow policy {}, falling back to DROP_NEWEST", policy);
+            type = OverflowPolicy.Type.DROP_NEWEST;
+        }
+
+        final Level discardLevel = Level.toLevel(level, null);
+        if (discardLevel == null) {
+            LOG.warn("Invalid overflow level {}, falling back to WARN", level);
+        }
+        final int discardSeverity = Severity.getSeverity(discardLevel == null ? Level.WARN : discardLevel).getCode();
+        return new OverflowPolicy(type, timeout, discardSeverity, priorityLanes, metrics);
     }
 
     static boolean isFQDN(String canonicalHostName) {
@@ -332,4 +953,39 @@ public class GelfAppender extends AbstractAppender {
                 !IPV4_PATTERN.matcher(canonicalHostName).matches() &&
                 !IPV6_PATTERN.matcher(canonicalHostName).matches();
     }
+
+    /**
+     * Sends the contents of a slot of the ring buffer on its thread.
+     */
+    private final class RingBufferHandler implements EventRingBuffer.Handler {
+        @Override
+        public void onEvent(final EventRingBuffer.Slot slot) {
+            final GelfTransport client = GelfAppender.this.client;
+            try {
+                if (slot.event != null) {
+                    send(client, slot.event, slot.repeatCount, System.nanoTime());
+                } else if (slot.message != null) {
+                    sendMessage(client, slot.message, slot.encodeNanos, slot.occurrence);
+                } else if (slot.buffer() != null && slot.buffer().size() > 0) {
+                    // Flush at the batch boundaries of the caller as well, not only when the ring buffer is drained
+                    sendFrame((GelfFrameTransport) client, slot.buffer(), slot.severity, slot.encodeNanos,
+                            slot.endOfBatch, slot.occurrence);
+                }
+            } catch (Exception e) {
+                reopen(slot.occurrence);
+                if (!(e instanceof AppenderLoggingException)) {
+                    metrics.dropped(GelfDropReason.ERROR, 1L);
+                }
+                error("Couldn't send log event to GELF server: " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void onEndOfBatch() {
+            final GelfTransport client = GelfAppender.this.client;
+            if (client instanceof GelfFrameTransport) {
+                ((GelfFrameTransport) client).flush();
+            }
+        }
+    }
 }
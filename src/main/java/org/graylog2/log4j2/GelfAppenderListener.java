@@ -0,0 +1,31 @@
+package org.graylog2.log4j2;
+
+/**
+ * Receives notifications about the events handled by a {@link GelfAppender}, e. g. to report them to a metrics
+ * library.
+ * <p>
+ * Listeners are called synchronously from the logging threads and the I/O threads of the appender, so they have to
+ * be thread-safe and must return quickly. Implementations configured by class name need a public no-arg constructor.
+ */
+public interface GelfAppenderListener {
+    /**
+     * Called after a log event has been handed to the transport.
+     *
+     * @param encodedBytes the size of the encoded GELF message in bytes, {@code -1} if unknown
+     * @param encodeNanos  the time it took to format and encode the event in nanoseconds
+     */
+    void onAppended(int encodedBytes, long encodeNanos);
+
+    /**
+     * Called after log events have been discarded.
+     *
+     * @param reason the reason why the events have been discarded
+     * @param count  the number of discarded events
+     */
+    void onDropped(GelfDropReason reason, long count);
+
+    /**
+     * Called when the transport reconnects to the GELF server after an error.
+     */
+    void onReconnect();
+}
@@ -0,0 +1,60 @@
+package org.graylog2.log4j2;
+
+import java.util.Map;
+
+/**
+ * The metrics of a {@link GelfAppender}, registered as {@code org.graylog2.log4j2:type=GelfAppender,name=<name>}.
+ */
+public interface GelfAppenderMXBean {
+    /**
+     * @return the number of log events handed to the transport
+     */
+    long getEventsAppended();
+
+    /**
+     * @return the total number of discarded log events
+     */
+    long getEventsDropped();
+
+    /**
+     * @return the number of discarded log events by {@link GelfDropReason}
+     */
+    Map<String, Long> getEventsDroppedByReason();
+
+    /**
+     * @return the total size of all encoded GELF messages in bytes or {@code -1} if it is unavailable, because the
+     * messages are encoded by the transports of gelfclient
+     */
+    long getBytesEncoded();
+
+    /**
+     * @return the number of encoded log events by encode time, bucket {@code i} counts the events which took less
+     * than 2<sup>i</sup> nanoseconds (and at least 2<sup>i-1</sup> nanoseconds)
+     */
+    long[] getEncodeTimeHistogram();
+
+    /**
+     * @return the upper bound of the median encode time in nanoseconds
+     */
+    long getEncodeTimeP50Nanos();
+
+    /**
+     * @return the upper bound of the 99th percentile of the encode time in nanoseconds
+     */
+    long getEncodeTimeP99Nanos();
+
+    /**
+     * @return the upper bound of the 99.9th percentile of the encode time in nanoseconds
+     */
+    long getEncodeTimeP999Nanos();
+
+    /**
+     * @return the number of messages currently waiting in the queue of the transport
+     */
+    int getQueueSize();
+
+    /**
+     * @return the number of reconnects to the GELF server after errors
+     */
+    long getReconnects();
+}
@@ -0,0 +1,102 @@
+package org.graylog2.log4j2;
+
+import io.netty.channel.EventLoopGroup;
+import org.graylog2.gelfclient.GelfConfiguration;
+import org.graylog2.gelfclient.GelfMessage;
+import org.graylog2.gelfclient.transport.GelfTcpTransport;
+import org.graylog2.gelfclient.transport.GelfUdpTransport;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The transports of gelfclient with an {@link OverflowPolicy} applied to their message queue and reporting their
+ * queue occupancy and reconnects to {@link GelfMetrics}.
+ */
+final class GelfClientTransports {
+    private static final long DRAIN_POLL_MILLIS = 1L;
+
+    private GelfClientTransports() {
+    }
+
+    /**
+     * Waits for the sender thread of gelfclient to take the queued messages, which doesn't offer any other way to wait
+     * for them.
+     *
+     * @return the number of messages still queued after the timeout
+     */
+    static int awaitEmpty(final QueueingTransport transport, final long timeoutNanos) {
+        final long deadlineNanos = System.nanoTime() + timeoutNanos;
+        try {
+            while (transport.queueSize() > 0 && deadlineNanos - System.nanoTime() > 0L) {
+                TimeUnit.MILLISECONDS.sleep(DRAIN_POLL_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return transport.queueSize();
+    }
+
+    static final class Tcp extends GelfTcpTransport implements QueueingTransport {
+        private final OverflowPolicy overflowPolicy;
+
+        Tcp(final GelfConfiguration config, final OverflowPolicy overflowPolicy) {
+            super(config);
+            this.overflowPolicy = overflowPolicy;
+        }
+
+        @Override
+        public boolean trySend(final GelfMessage message) {
+            return overflowPolicy.offer(queue, message, OverflowPolicy.severityOf(message));
+        }
+
+        @Override
+        protected void scheduleReconnect(final EventLoopGroup workerGroup) {
+            overflowPolicy.getMetrics().reconnected();
+            super.scheduleReconnect(workerGroup);
+        }
+
+        @Override
+        public int queueSize() {
+            return queue.size();
+        }
+
+        @Override
+        public int drainAndStop(final long timeoutNanos) {
+            final int abandoned = awaitEmpty(this, timeoutNanos);
+            stop();
+            return abandoned;
+        }
+    }
+
+    static final class Udp extends GelfUdpTransport implements QueueingTransport {
+        private final OverflowPolicy overflowPolicy;
+
+        Udp(final GelfConfiguration config, final OverflowPolicy overflowPolicy) {
+            super(config);
+            this.overflowPolicy = overflowPolicy;
+        }
+
+        @Override
+        public boolean trySend(final GelfMessage message) {
+            return overflowPolicy.offer(queue, message, OverflowPolicy.severityOf(message));
+        }
+
+        @Override
+        protected void scheduleReconnect(final EventLoopGroup workerGroup) {
+            overflowPolicy.getMetrics().reconnected();
+            super.scheduleReconnect(workerGroup);
+        }
+
+        @Override
+        public int queueSize() {
+            return queue.size();
+        }
+
+        @Override
+        public int drainAndStop(final long timeoutNanos) {
+            final int abandoned = awaitEmpty(this, timeoutNanos);
+            stop();
+            return abandoned;
+        }
+    }
+}
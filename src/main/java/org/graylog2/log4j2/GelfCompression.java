@@ -0,0 +1,19 @@
+package org.graylog2.log4j2;
+
+/**
+ * The compression methods supported by GELF.
+ */
+enum GelfCompression {
+    /**
+     * Messages are sent uncompressed.
+     */
+    NONE,
+    /**
+     * Messages are compressed with GZIP (RFC 1952).
+     */
+    GZIP,
+    /**
+     * Messages are compressed with ZLIB (RFC 1950).
+     */
+    ZLIB
+}
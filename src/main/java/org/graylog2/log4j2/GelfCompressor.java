@@ -0,0 +1,123 @@
+package org.graylog2.log4j2;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses encoded GELF messages with pooled {@link Deflater} instances.
+ * <p>
+ * Creating a {@link Deflater} allocates native memory and is comparatively expensive, so instances are reused.
+ * Messages smaller than the configured threshold are not compressed at all, because they wouldn't gain from it.
+ */
+final class GelfCompressor {
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final byte[] GZIP_HEADER = new byte[]{
+            (byte) GZIP_MAGIC, (byte) (GZIP_MAGIC >> 8), Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff
+    };
+
+    private final GelfCompression compression;
+    private final int level;
+    private final int threshold;
+    private final BlockingQueue<PooledDeflater> pool;
+    private volatile boolean closed;
+
+    /**
+     * @param compression the compression method
+     * @param level       the compression level from {@code 0} to {@code 9} or {@link Deflater#DEFAULT_COMPRESSION}
+     * @param threshold   the minimum size in bytes of a message to be compressed
+     * @param poolSize    the maximum number of idle {@link Deflater} instances to keep
+     */
+    GelfCompressor(final GelfCompression compression, final int level, final int threshold, final int poolSize) {
+        this.compression = compression;
+        this.level = level;
+        this.threshold = Math.max(0, threshold);
+        this.pool = new ArrayBlockingQueue<>(Math.max(1, poolSize));
+    }
+
+    GelfCompression getCompression() {
+        return compression;
+    }
+
+    /**
+     * @return {@code true} if a message of the given length should be compressed
+     */
+    boolean shouldCompress(final int length) {
+        return compression != GelfCompression.NONE && length >= threshold;
+    }
+
+    /**
+     * Compresses the given bytes and appends the result to {@code out}.
+     */
+    void compress(final byte[] input, final int offset, final int length, final GelfOutputBuffer out) {
+        PooledDeflater pooled = pool.poll();
+        if (pooled == null) {
+            pooled = new PooledDeflater(level, compression == GelfCompression.GZIP);
+        }
+
+        try {
+            final Deflater deflater = pooled.deflater;
+            deflater.setInput(input, offset, length);
+            deflater.finish();
+            if (compression == GelfCompression.GZIP) {
+                pooled.crc.update(input, offset, length);
+                out.append(GZIP_HEADER);
+                out.appendDeflated(deflater);
+                appendIntLE((int) pooled.crc.getValue(), out);
+                appendIntLE(length, out);
+            } else {
+                out.appendDeflated(deflater);
+            }
+        } finally {
+            pooled.reset();
+            if (closed || !pool.offer(pooled)) {
+                pooled.deflater.end();
+            }
+        }
+    }
+
+    private static void appendIntLE(final int value, final GelfOutputBuffer out) {
+        out.append((byte) value)
+                .append((byte) (value >> 8))
+                .append((byte) (value >> 16))
+                .append((byte) (value >> 24));
+    }
+
+    /**
+     * Releases the native resources of all pooled {@link Deflater} instances. Instances which are still in use are
+     * released once they are returned.
+     */
+    void close() {
+        closed = true;
+        PooledDeflater pooled;
+        while ((pooled = pool.poll()) != null) {
+            pooled.deflater.end();
+        }
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return the number of idle {@link Deflater} instances
+     */
+    int pooled() {
+        return pool.size();
+    }
+
+    private static final class PooledDeflater {
+        private final Deflater deflater;
+        private final CRC32 crc = new CRC32();
+
+        PooledDeflater(final int level, final boolean nowrap) {
+            this.deflater = new Deflater(level, nowrap);
+        }
+
+        void reset() {
+            deflater.reset();
+            crc.reset();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.graylog2.log4j2;
+
+/**
+ * The reasons why {@link GelfAppender} discards a log event.
+ */
+public enum GelfDropReason {
+    /**
+     * The queue of the transport was full and the event has been discarded.
+     */
+    QUEUE_FULL,
+    /**
+     * The event has been queued, but was discarded later to make room for newer events.
+     */
+    DROPPED_OLDEST,
+    /**
+     * The event has been queued, but was discarded later to make room for a more severe event (see priority lanes).
+     */
+    PREEMPTED,
+    /**
+     * The queue of the transport was full and didn't have room for the event within the configured timeout.
+     */
+    TIMEOUT,
+    /**
+     * The queue of the transport was full and the event was less severe than the configured overflow level.
+     */
+    BELOW_LEVEL,
+    /**
+     * The event has been spilled to disk, but was discarded because the spill files were full.
+     */
+    SPILL_OVERFLOW,
+    /**
+     * The event has been spilled to disk, but couldn't be sent within the maximum age.
+     */
+    SPILL_EXPIRED,
+    /**
+     * The event was still queued when the appender stopped and couldn't be sent within the drain timeout.
+     */
+    ABANDONED,
+    /**
+     * The event was too large to be sent.
+     */
+    OVERSIZED,
+    /**
+     * The logger exceeded the configured rate limit for the level of the event.
+     */
+    RATE_LIMITED,
+    /**
+     * The event wasn't selected by the configured sampling rate.
+     */
+    SAMPLED,
+    /**
+     * The event repeated an identical event within the duplicate window and has been collapsed into it.
+     */
+    DUPLICATE,
+    /**
+     * Encoding or sending the event failed with an exception.
+     */
+    ERROR
+}
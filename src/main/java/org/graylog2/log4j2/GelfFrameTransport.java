@@ -0,0 +1,33 @@
+package org.graylog2.log4j2;
+
+import org.graylog2.gelfclient.transport.GelfTransport;
+
+/**
+ * A {@link GelfTransport} which is also able to send messages which have already been encoded into GELF JSON,
+ * e. g. by {@link GelfMessageEncoder}.
+ * <p>
+ * {@link GelfAppender} prefers this interface over {@link GelfTransport#trySend(org.graylog2.gelfclient.GelfMessage)}
+ * because it saves building an intermediate {@link org.graylog2.gelfclient.GelfMessage} for every log event.
+ */
+interface GelfFrameTransport extends GelfTransport {
+    /**
+     * Tries to send the given GELF JSON document. Depending on the {@link OverflowPolicy} of the transport this
+     * may block for a bounded time if the transport is congested.
+     * <p>
+     * The caller is free to reuse {@code frame} as soon as this method returns, so implementations have to copy
+     * the bytes if they can't send them immediately.
+     *
+     * @param frame    the buffer containing the UTF-8 encoded GELF JSON document
+     * @param offset   the offset of the document in {@code frame}
+     * @param length   the length of the document in bytes
+     * @param severity the GELF severity code of the message, used to decide which messages to discard under load
+     * @return {@code true} if the message has been accepted, {@code false} otherwise
+     */
+    boolean trySend(byte[] frame, int offset, int length, int severity);
+
+    /**
+     * Hints that no further messages are expected for now, e. g. because the end of a batch of events of an
+     * asynchronous logger has been reached. Implementations which buffer messages should send them as soon as possible.
+     */
+    void flush();
+}
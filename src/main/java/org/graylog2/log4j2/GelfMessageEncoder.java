@@ -0,0 +1,448 @@
+package org.graylog2.log4j2;
+
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.net.Severity;
+import org.apache.logging.log4j.util.ReadOnlyStringMap;
+import org.apache.logging.log4j.util.TriConsumer;
+import org.graylog2.gelfclient.GelfMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes GELF 1.1 JSON directly into a {@link GelfOutputBuffer}.
+ * <p>
+ * In contrast to {@link org.graylog2.gelfclient.GelfMessageBuilder} no intermediate map of additional fields and no
+ * {@link GelfMessage} has to be created, so encoding a {@link LogEvent} produces (almost) no garbage as long as the
+ * output buffer is reused.
+ * <p>
+ * The produced fields are the same as the ones produced by {@link GelfAppender} via gelfclient. The encoder is only
+ * used with a {@link GelfFrameTransport}, i. e. the transports of this library. The transports of gelfclient only
+ * accept {@link GelfMessage} instances, which are built per event.
+ * <p>
+ * If a maximum message size is configured, it is enforced while encoding: the core fields are written first, then the
+ * fields which may be dropped or cut off in reverse order of their priority (thread context, {@code full_message},
+ * {@code _exceptionStackTrace}), each of them only taking the space which is left. If the core fields alone don't fit,
+ * the exception message and then the short message are cut off. Messages which had to be shortened are marked with
+ * {@code _truncated}. Messages which are still too large (e. g. because of a huge logger or thread name) are
+ * {@link #isOversized(int) oversized} and have to be discarded by the caller.
+ */
+final class GelfMessageEncoder {
+    private static final byte[] VERSION_AND_HOST = ascii("{\"version\":\"1.1\",\"host\":");
+    private static final byte[] SHORT_MESSAGE = ascii(",\"short_message\":");
+    private static final byte[] FULL_MESSAGE = ascii(",\"full_message\":");
+    private static final byte[] TIMESTAMP = ascii(",\"timestamp\":");
+    private static final byte[] LEVEL = ascii(",\"level\":");
+    private static final byte[] LOGGER_NAME = ascii(",\"_loggerName\":");
+    private static final byte[] THREAD_NAME = ascii(",\"_threadName\":");
+    private static final byte[] MARKER = ascii(",\"_marker\":");
+    private static final byte[] CONTEXT_STACK = ascii(",\"_contextStack\":");
+    private static final byte[] EXCEPTION_CLASS = ascii(",\"_exceptionClass\":");
+    private static final byte[] EXCEPTION_MESSAGE = ascii(",\"_exceptionMessage\":");
+    private static final byte[] EXCEPTION_STACK_TRACE = ascii(",\"_exceptionStackTrace\":");
+    private static final byte[] EXCEPTION_FINGERPRINT = ascii(",\"_exceptionFingerprint\":");
+    private static final byte[] EXCEPTION_OCCURRENCE = ascii(",\"_exceptionOccurrence\":");
+    private static final byte[] REPEAT_COUNT = ascii(",\"_repeatCount\":");
+    private static final byte[] TRUNCATED = ascii(",\"_truncated\":true");
+    private static final int MAX_CACHED_LOGGER_NAMES = 4096;
+    private static final int MAX_CACHED_THREAD_NAMES = 1024;
+    private static final int MAX_CACHED_SOURCE_LOCATIONS = 4096;
+
+    private final boolean includeSource;
+    private final boolean includeThreadContext;
+    private final boolean includeStackTrace;
+    private final boolean includeExceptionCause;
+    private final StackTraceRenderer stackTraceRenderer;
+    private final ThreadContextFields threadContextFields;
+    private final int maxMessageBytes;
+    private final ExceptionFingerprints exceptionFingerprints;
+    private volatile byte[] versionAndHost;
+    private final byte[] encodedAdditionalFields;
+    private final JsonStringCache loggerNames = new JsonStringCache(MAX_CACHED_LOGGER_NAMES);
+    private final JsonStringCache threadNames = new JsonStringCache(MAX_CACHED_THREAD_NAMES);
+    private final SourceLocationCache sourceLocations = new SourceLocationCache(MAX_CACHED_SOURCE_LOCATIONS);
+    private final TriConsumer<String, Object, GelfOutputBuffer> contextDataWriter =
+            new TriConsumer<String, Object, GelfOutputBuffer>() {
+                @Override
+                public void accept(final String key, final Object value, final GelfOutputBuffer out) {
+                    final byte[] fieldName = threadContextFields.encodedFieldName(key);
+                    if (fieldName != null) {
+                        out.append(fieldName);
+                        appendValue(value, out);
+                    }
+                }
+            };
+    private final ThreadLocal<LimitedContextDataWriter> limitedContextDataWriter =
+            new ThreadLocal<LimitedContextDataWriter>() {
+                @Override
+                protected LimitedContextDataWriter initialValue() {
+                    return new LimitedContextDataWriter();
+                }
+            };
+
+    GelfMessageEncoder(final String hostName,
+                       final boolean includeSource,
+                       final boolean includeThreadContext,
+                       final boolean includeStackTrace,
+                       final boolean includeExceptionCause,
+                       final Map<String, Object> additionalFields,
+                       final StackTraceRenderer stackTraceRenderer,
+                       final ThreadContextFields threadContextFields,
+                       final int maxMessageBytes,
+                       final ExceptionFingerprints exceptionFingerprints) {
+        this.includeSource = includeSource;
+        this.includeThreadContext = includeThreadContext;
+        this.includeStackTrace = includeStackTrace;
+        this.includeExceptionCause = includeExceptionCause;
+        this.stackTraceRenderer = stackTraceRenderer;
+        this.threadContextFields = threadContextFields;
+        this.maxMessageBytes = Math.max(0, maxMessageBytes);
+        this.exceptionFingerprints = exceptionFingerprints;
+
+        // The host name and the additional fields are the same for every message, so encode them only once
+        hostName(hostName);
+        final GelfOutputBuffer fields = new GelfOutputBuffer(64);
+        appendFields(additionalFields, fields);
+        this.encodedAdditionalFields = fields.toByteArray();
+    }
+
+    /**
+     * Changes the host name of all following messages.
+     */
+    void hostName(final String hostName) {
+        this.versionAndHost = new GelfOutputBuffer(64).append(VERSION_AND_HOST).appendJsonString(hostName)
+                .toByteArray();
+    }
+
+    /**
+     * Encodes the given {@link LogEvent} as GELF JSON and appends it to {@code out}.
+     *
+     * @param event            the log event to encode
+     * @param formattedMessage the already formatted message of the event
+     * @param out              the buffer to append the JSON document to
+     * @return the recorded occurrence of the exception of the event or {@code null}, see {@link #encodeFields}
+     */
+    ExceptionFingerprints.Occurrence encode(final LogEvent event, final CharSequence formattedMessage,
+                                            final GelfOutputBuffer out) {
+        final int start = out.size();
+        out.append(versionAndHost);
+        out.append(SHORT_MESSAGE);
+        final int messageStart = out.size();
+        out.appendJsonString(formattedMessage == null ? "" : formattedMessage);
+        return encodeFields(event, start, messageStart, 0L, out);
+    }
+
+    /**
+     * Encodes the given {@link LogEvent} as GELF JSON and appends it to {@code out}. The message is formatted by
+     * {@code formatter} straight into {@code out}.
+     *
+     * @param repeatCount the number of identical events which have been collapsed into this one, only added if
+     *                    positive
+     * @return the recorded occurrence of the exception of the event or {@code null}, see {@link #encodeFields}
+     */
+    ExceptionFingerprints.Occurrence encode(final LogEvent event, final MessageFormatter formatter,
+                                            final long repeatCount, final GelfOutputBuffer out) {
+        final int start = out.size();
+        out.append(versionAndHost);
+        out.append(SHORT_MESSAGE);
+        final int messageStart = out.size();
+        formatter.appendJsonString(event, out);
+        return encodeFields(event, start, messageStart, repeatCount, out);
+    }
+
+    /**
+     * Appends everything after the short message, which starts at {@code messageStart} and ends at the current size
+     * of {@code out}. The message itself starts at {@code start}.
+     *
+     * @return the occurrence of the exception of the event if exceptions are fingerprinted, which has to be
+     * {@link ExceptionFingerprints#reopen(ExceptionFingerprints.Occurrence) reopened} if the message isn't sent
+     */
+    private ExceptionFingerprints.Occurrence encodeFields(final LogEvent event, final int start, final int messageStart,
+                                                          final long repeatCount, final GelfOutputBuffer out) {
+        @SuppressWarnings("all")
+        final Throwable thrown = event.getThrown();
+        final boolean withException = includeStackTrace && thrown != null;
+        final ExceptionFingerprints.Occurrence occurrence = withException && exceptionFingerprints != null
+                ? exceptionFingerprints.record(thrown, System.nanoTime()) : null;
+        // Repeated exceptions only refer to the stack trace sent with their first occurrence
+        final boolean withStackTrace = withException && (occurrence == null || occurrence.isFirst());
+        int messageEnd = out.size();
+
+        out.append(TIMESTAMP).appendTimestamp(event.getTimeMillis());
+        out.append(LEVEL).appendLong(Severity.getSeverity(event.getLevel()).getCode());
+        loggerNames.append(event.getLoggerName(), out.append(LOGGER_NAME));
+        threadNames.append(event.getThreadName(), out.append(THREAD_NAME));
+
+        final Marker marker = event.getMarker();
+        if (marker != null) {
+            out.append(MARKER).appendJsonString(marker.getName());
+        }
+
+        // Log4j walks the stack to find the location of the logging call on first access, so only ask if needed
+        if (includeSource) {
+            final StackTraceElement source = event.getSource();
+            if (source != null) {
+                sourceLocations.append(source, out);
+            }
+        }
+
+        int exceptionMessageStart = -1;
+        if (withException) {
+            out.append(EXCEPTION_CLASS).appendJsonString(thrown.getClass().getCanonicalName());
+            out.append(EXCEPTION_MESSAGE);
+            exceptionMessageStart = out.size();
+            out.appendJsonString(thrown.getMessage());
+        }
+        final int exceptionMessageEnd = out.size();
+
+        if (occurrence != null) {
+            out.append(EXCEPTION_FINGERPRINT).appendJsonString(occurrence.getFingerprint());
+            out.append(EXCEPTION_OCCURRENCE).appendLong(occurrence.getCount());
+        }
+
+        if (repeatCount > 0) {
+            out.append(REPEAT_COUNT).appendLong(repeatCount);
+        }
+
+        if (maxMessageBytes == 0) {
+            if (includeThreadContext) {
+                final ReadOnlyStringMap contextData = event.getContextData();
+                if (contextData != null && !contextData.isEmpty()) {
+                    contextData.forEach(contextDataWriter, out);
+                }
+
+                // Guard against https://issues.apache.org/jira/browse/LOG4J2-1530
+                final ThreadContext.ContextStack contextStack = event.getContextStack();
+                if (contextStack != null && contextStack.getDepth() > 0) {
+                    appendContextStack(contextStack, out);
+                }
+            }
+
+            if (withStackTrace) {
+                // The full message is the same as the short message, so copy the already escaped JSON string
+                out.append(FULL_MESSAGE).append(out.array(), messageStart, messageEnd - messageStart);
+                final String stackTrace = stackTraceRenderer.render(thrown, includeExceptionCause);
+                out.append(EXCEPTION_STACK_TRACE).appendJsonString(stackTrace);
+            }
+        } else {
+            // Keep room for the additional fields, the marker and the closing brace
+            final int limit = start + maxMessageBytes - encodedAdditionalFields.length - TRUNCATED.length - 1;
+            boolean truncated = false;
+
+            if (out.size() > limit) {
+                // The core fields alone don't fit, so the exception message and then the short message have to give way
+                if (exceptionMessageStart >= 0 && out.array()[exceptionMessageStart] == '"') {
+                    cutOff(out, exceptionMessageStart, exceptionMessageEnd, out.size() - limit);
+                }
+                if (out.size() > limit) {
+                    messageEnd -= cutOff(out, messageStart, messageEnd, out.size() - limit);
+                }
+                truncated = true;
+            }
+
+            if (includeThreadContext) {
+                truncated |= appendContext(event, limit, out);
+            }
+
+            if (withStackTrace) {
+                truncated |= appendFullMessage(out, messageStart, messageEnd, limit);
+
+                final int available = limit - out.size() - EXCEPTION_STACK_TRACE.length;
+                if (available > 2) {
+                    final String stackTrace = stackTraceRenderer.render(thrown, includeExceptionCause);
+                    truncated |= out.append(EXCEPTION_STACK_TRACE).appendTruncatedJsonString(stackTrace, available);
+                } else {
+                    truncated = true;
+                }
+            }
+
+            if (truncated) {
+                out.append(TRUNCATED);
+            }
+        }
+
+        out.append(encodedAdditionalFields);
+        out.append((byte) '}');
+        return occurrence;
+    }
+
+    /**
+     * @param size the size of an encoded message in bytes
+     * @return {@code true} if the message is larger than the maximum message size, even though all fields which may
+     * be cut off have been cut off
+     */
+    boolean isOversized(final int size) {
+        return maxMessageBytes > 0 && size > maxMessageBytes;
+    }
+
+    /**
+     * Removes up to {@code excess} bytes from the end of the content of the JSON string from {@code stringStart} to
+     * {@code stringEnd} (including the quotes) without splitting characters or escape sequences.
+     *
+     * @return the number of removed bytes
+     */
+    private static int cutOff(final GelfOutputBuffer out, final int stringStart, final int stringEnd,
+                              final int excess) {
+        final int contentStart = stringStart + 1;
+        final int contentEnd = stringEnd - 1;
+        final int newContentEnd = GelfOutputBuffer.jsonBoundary(out.array(), contentStart,
+                Math.max(contentStart, contentEnd - excess));
+        out.delete(newContentEnd, contentEnd);
+        return contentEnd - newContentEnd;
+    }
+
+    /**
+     * Appends the fields of the thread context which fit in front of {@code limit}.
+     *
+     * @return {@code true} if fields have been left out
+     */
+    private boolean appendContext(final LogEvent event, final int limit, final GelfOutputBuffer out) {
+        boolean truncated = false;
+        final ReadOnlyStringMap contextData = event.getContextData();
+        if (contextData != null && !contextData.isEmpty()) {
+            final LimitedContextDataWriter writer = limitedContextDataWriter.get();
+            writer.limit = limit;
+            writer.truncated = false;
+            contextData.forEach(writer, out);
+            truncated = writer.truncated;
+        }
+
+        // Guard against https://issues.apache.org/jira/browse/LOG4J2-1530
+        final ThreadContext.ContextStack contextStack = event.getContextStack();
+        if (contextStack != null && contextStack.getDepth() > 0) {
+            final int fieldStart = out.size();
+            appendContextStack(contextStack, out);
+            if (out.size() > limit) {
+                out.truncate(fieldStart);
+                truncated = true;
+            }
+        }
+        return truncated;
+    }
+
+    /**
+     * Appends a copy of the already escaped short message as full message, cut off at {@code limit}.
+     *
+     * @return {@code true} if the full message has been cut off or left out
+     */
+    private static boolean appendFullMessage(final GelfOutputBuffer out, final int messageStart, final int messageEnd,
+                                             final int limit) {
+        final int available = limit - out.size() - FULL_MESSAGE.length - 2;
+        if (available < 0) {
+            return true;
+        }
+
+        final int contentStart = messageStart + 1;
+        final int contentEnd = messageEnd - 1;
+        final int end = GelfOutputBuffer.jsonBoundary(out.array(), contentStart,
+                Math.min(contentEnd, contentStart + available));
+        out.append(FULL_MESSAGE).append((byte) '"')
+                .append(out.array(), contentStart, end - contentStart)
+                .append((byte) '"');
+        return end < contentEnd;
+    }
+
+    /**
+     * Encodes the given {@link GelfMessage} as GELF JSON and appends it to {@code out}.
+     * <p>
+     * This is used by transports which have to accept messages created by
+     * {@link org.graylog2.gelfclient.GelfMessageBuilder}.
+     */
+    static void encode(final GelfMessage message, final GelfOutputBuffer out) {
+        out.appendAscii("{\"version\":").appendJsonString(message.getVersion().toString());
+        out.append((byte) ',').appendAscii("\"host\":").appendJsonString(message.getHost());
+        out.append(SHORT_MESSAGE).appendJsonString(message.getMessage());
+        if (message.getFullMessage() != null) {
+            out.append(FULL_MESSAGE).appendJsonString(message.getFullMessage());
+        }
+        out.append(TIMESTAMP).appendAscii(Double.toString(message.getTimestamp()));
+        if (message.getLevel() != null) {
+            out.append(LEVEL).appendLong(message.getLevel().getNumericLevel());
+        }
+        appendFields(message.getAdditionalFields(), out);
+        out.append((byte) '}');
+    }
+
+    /**
+     * Appends the items of the context stack in the format of {@link List#toString()} without copying them.
+     */
+    private static void appendContextStack(final ThreadContext.ContextStack contextStack, final GelfOutputBuffer out) {
+        out.append(CONTEXT_STACK).append((byte) '"').append((byte) '[');
+        boolean first = true;
+        for (String item : contextStack) {
+            if (!first) {
+                out.append((byte) ',').append((byte) ' ');
+            }
+            final String s = String.valueOf(item);
+            out.appendJsonStringContent(s, 0, s.length());
+            first = false;
+        }
+        out.append((byte) ']').append((byte) '"');
+    }
+
+    private static void appendFields(final Map<String, Object> fields, final GelfOutputBuffer out) {
+        for (Map.Entry<String, Object> entry : fields.entrySet()) {
+            appendFieldName(entry.getKey(), out);
+            appendValue(entry.getValue(), out);
+        }
+    }
+
+    /**
+     * Appends {@code ,"_key":} while making sure that the key is prefixed with exactly one underscore.
+     */
+    private static void appendFieldName(final String key, final GelfOutputBuffer out) {
+        out.append((byte) ',').append((byte) '"');
+        if (!key.startsWith("_")) {
+            out.append((byte) '_');
+        }
+        out.appendJsonStringContent(key, 0, key.length());
+        out.append((byte) '"').append((byte) ':');
+    }
+
+    private static void appendValue(final Object value, final GelfOutputBuffer out) {
+        if (value == null) {
+            out.appendNull();
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte) {
+            out.appendLong(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            final double d = ((Number) value).doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                out.appendJsonString(value.toString());
+            } else {
+                out.appendAscii(value.toString());
+            }
+        } else {
+            out.appendJsonString(value.toString());
+        }
+    }
+
+    /**
+     * Writes the fields of the thread context, but leaves out every field which would exceed the limit.
+     */
+    private final class LimitedContextDataWriter implements TriConsumer<String, Object, GelfOutputBuffer> {
+        private int limit;
+        private boolean truncated;
+
+        @Override
+        public void accept(final String key, final Object value, final GelfOutputBuffer out) {
+            final byte[] fieldName = threadContextFields.encodedFieldName(key);
+            if (fieldName != null) {
+                final int fieldStart = out.size();
+                out.append(fieldName);
+                appendValue(value, out);
+                if (out.size() > limit) {
+                    out.truncate(fieldStart);
+                    truncated = true;
+                }
+            }
+        }
+    }
+
+    private static byte[] ascii(final String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,259 @@
+package org.graylog2.log4j2;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects the metrics of a {@link GelfAppender} and forwards them to the registered {@link GelfAppenderListener}s.
+ * <p>
+ * Counters are striped, so that concurrent logging threads don't contend on a single cache line. Instances outlive
+ * the transports of the appender, so that the counters aren't reset by a reconfiguration.
+ */
+final class GelfMetrics implements GelfAppenderMXBean {
+    private static final Logger LOG = StatusLogger.getLogger();
+    private static final GelfDropReason[] DROP_REASONS = GelfDropReason.values();
+    private static final GelfAppenderListener[] NO_LISTENERS = new GelfAppenderListener[0];
+    // The metrics registered under each name, guarded by itself
+    private static final Map<ObjectName, GelfMetrics> REGISTERED = new HashMap<>();
+
+    static final int HISTOGRAM_BUCKETS = 41;
+    // Round up to full cache lines, so that the histograms of different stripes don't share a cache line
+    private static final int HISTOGRAM_STRIDE = (HISTOGRAM_BUCKETS + StripedCounter.PADDING - 1)
+            / StripedCounter.PADDING * StripedCounter.PADDING;
+
+    private final StripedCounter appended = new StripedCounter();
+    private final StripedCounter bytesEncoded = new StripedCounter();
+    private final StripedCounter reconnects = new StripedCounter();
+    private final StripedCounter[] dropped = new StripedCounter[DROP_REASONS.length];
+    private final AtomicLongArray encodeTimes = new AtomicLongArray(StripedCounter.STRIPES * HISTOGRAM_STRIDE);
+
+    // Set once an event has been appended whose size is unknown, because the transport of gelfclient encodes it
+    private volatile boolean sizeUnknown;
+    private volatile GelfAppenderListener[] listeners = NO_LISTENERS;
+    private volatile QueueingTransport transport;
+    private ObjectName objectName;
+
+    GelfMetrics() {
+        for (int i = 0; i < dropped.length; i++) {
+            dropped[i] = new StripedCounter();
+        }
+    }
+
+    void appended(final int encodedBytes, final long encodeNanos) {
+        appended.increment();
+        if (encodedBytes > 0) {
+            bytesEncoded.add(encodedBytes);
+        } else if (encodedBytes < 0 && !sizeUnknown) {
+            sizeUnknown = true;
+        }
+        encodeTimes.getAndIncrement(StripedCounter.stripe() * HISTOGRAM_STRIDE + bucket(encodeNanos));
+
+        final GelfAppenderListener[] listeners = this.listeners;
+        for (GelfAppenderListener listener : listeners) {
+            listener.onAppended(encodedBytes, encodeNanos);
+        }
+    }
+
+    void dropped(final GelfDropReason reason, final long count) {
+        if (count <= 0L) {
+            return;
+        }
+        dropped[reason.ordinal()].add(count);
+
+        final GelfAppenderListener[] listeners = this.listeners;
+        for (GelfAppenderListener listener : listeners) {
+            listener.onDropped(reason, count);
+        }
+    }
+
+    void reconnected() {
+        reconnects.increment();
+
+        final GelfAppenderListener[] listeners = this.listeners;
+        for (GelfAppenderListener listener : listeners) {
+            listener.onReconnect();
+        }
+    }
+
+    synchronized void addListener(final GelfAppenderListener listener) {
+        final GelfAppenderListener[] newListeners = Arrays.copyOf(listeners, listeners.length + 1);
+        newListeners[listeners.length] = listener;
+        listeners = newListeners;
+    }
+
+    synchronized void removeListener(final GelfAppenderListener listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                final GelfAppenderListener[] newListeners = new GelfAppenderListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, newListeners, 0, i);
+                System.arraycopy(listeners, i + 1, newListeners, i, listeners.length - i - 1);
+                listeners = newListeners;
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param transport the transport whose queue occupancy is reported or {@code null}
+     */
+    void transport(final QueueingTransport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Registers the metrics as MBean under the name of the appender. Log4j starts the appender of a new configuration
+     * before it stops the old one, so the MBean of other metrics under the same name is replaced. Failures are
+     * logged, but otherwise ignored.
+     */
+    synchronized void register(final String appenderName) {
+        if (objectName != null) {
+            return;
+        }
+        synchronized (REGISTERED) {
+            try {
+                final ObjectName name = new ObjectName("org.graylog2.log4j2:type=GelfAppender,name="
+                        + ObjectName.quote(appenderName));
+                final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+                server.registerMBean(this, name);
+                REGISTERED.put(name, this);
+                objectName = name;
+            } catch (JMException | SecurityException e) {
+                LOG.warn("Couldn't register MBean for GELF appender {}: {}", appenderName, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Unregisters the MBean, unless it has been replaced by the metrics of another configuration in the meantime.
+     */
+    synchronized void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        synchronized (REGISTERED) {
+            try {
+                if (REGISTERED.get(objectName) == this) {
+                    REGISTERED.remove(objectName);
+                    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                    if (server.isRegistered(objectName)) {
+                        server.unregisterMBean(objectName);
+                    }
+                }
+            } catch (JMException | SecurityException e) {
+                LOG.debug("Couldn't unregister MBean {}", objectName, e);
+            }
+        }
+        objectName = null;
+    }
+
+    static int bucket(final long nanos) {
+        return nanos <= 0L ? 0 : Math.min(HISTOGRAM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+    }
+
+    long getDropped(final GelfDropReason reason) {
+        return dropped[reason.ordinal()].get();
+    }
+
+    @Override
+    public long getEventsAppended() {
+        return appended.get();
+    }
+
+    @Override
+    public long getEventsDropped() {
+        long sum = 0L;
+        for (StripedCounter counter : dropped) {
+            sum += counter.get();
+        }
+        return sum;
+    }
+
+    @Override
+    public Map<String, Long> getEventsDroppedByReason() {
+        final Map<String, Long> result = new LinkedHashMap<>();
+        for (GelfDropReason reason : DROP_REASONS) {
+            result.put(reason.name(), getDropped(reason));
+        }
+        return result;
+    }
+
+    @Override
+    public long getBytesEncoded() {
+        final long bytes = bytesEncoded.get();
+        return bytes == 0L && sizeUnknown ? -1L : bytes;
+    }
+
+    @Override
+    public long[] getEncodeTimeHistogram() {
+        final long[] histogram = new long[HISTOGRAM_BUCKETS];
+        for (int stripe = 0; stripe < StripedCounter.STRIPES; stripe++) {
+            for (int bucket = 0; bucket < HISTOGRAM_BUCKETS; bucket++) {
+                histogram[bucket] += encodeTimes.get(stripe * HISTOGRAM_STRIDE + bucket);
+            }
+        }
+        return histogram;
+    }
+
+    @Override
+    public long getEncodeTimeP50Nanos() {
+        return percentile(0.5d);
+    }
+
+    @Override
+    public long getEncodeTimeP99Nanos() {
+        return percentile(0.99d);
+    }
+
+    @Override
+    public long getEncodeTimeP999Nanos() {
+        return percentile(0.999d);
+    }
+
+    /**
+     * @return the upper bound of the bucket containing the given percentile or {@code 0} if nothing has been recorded
+     */
+    long percentile(final double percentile) {
+        final long[] histogram = getEncodeTimeHistogram();
+        long total = 0L;
+        for (long count : histogram) {
+            total += count;
+        }
+        if (total == 0L) {
+            return 0L;
+        }
+
+        final long rank = (long) Math.ceil(percentile * total);
+        long cumulative = 0L;
+        for (int bucket = 0; bucket < histogram.length; bucket++) {
+            cumulative += histogram[bucket];
+            if (cumulative >= rank) {
+                return 1L << bucket;
+            }
+        }
+        return 1L << (HISTOGRAM_BUCKETS - 1);
+    }
+
+    @Override
+    public int getQueueSize() {
+        final QueueingTransport transport = this.transport;
+        return transport == null ? 0 : transport.queueSize();
+    }
+
+    @Override
+    public long getReconnects() {
+        return reconnects.get();
+    }
+}
@@ -0,0 +1,351 @@
+package org.graylog2.log4j2;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * A growable byte buffer which knows how to write JSON tokens as UTF-8.
+ * <p>
+ * Instances are meant to be reused (see {@link #reset()}) and are not thread-safe.
+ */
+final class GelfOutputBuffer {
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+    private static final int DEFLATE_STEP = 512;
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] buffer;
+    private int size;
+
+    GelfOutputBuffer(final int initialCapacity) {
+        this.buffer = new byte[Math.max(16, initialCapacity)];
+    }
+
+    /**
+     * Discards the contents of this buffer. The underlying array is shrunk back to {@code maxRetainedCapacity}
+     * if it has grown beyond that size, so that a single huge message doesn't pin memory forever.
+     */
+    void reset(final int maxRetainedCapacity) {
+        size = 0;
+        if (buffer.length > maxRetainedCapacity) {
+            buffer = new byte[Math.max(16, maxRetainedCapacity)];
+        }
+    }
+
+    void reset() {
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the backing array, valid from index {@code 0} to {@link #size()}
+     */
+    byte[] array() {
+        return buffer;
+    }
+
+    /**
+     * Discards everything after the first {@code newSize} bytes.
+     */
+    void truncate(final int newSize) {
+        if (newSize < size) {
+            size = Math.max(0, newSize);
+        }
+    }
+
+    /**
+     * Removes the bytes from {@code start} (inclusive) to {@code end} (exclusive) and moves the following bytes to the
+     * front.
+     */
+    void delete(final int start, final int end) {
+        System.arraycopy(buffer, end, buffer, start, size - end);
+        size -= end - start;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    GelfOutputBuffer append(final byte b) {
+        ensureCapacity(size + 1);
+        buffer[size++] = b;
+        return this;
+    }
+
+    GelfOutputBuffer append(final byte[] bytes) {
+        return append(bytes, 0, bytes.length);
+    }
+
+    GelfOutputBuffer append(final byte[] bytes, final int offset, final int length) {
+        ensureCapacity(size + length);
+        System.arraycopy(bytes, offset, buffer, size, length);
+        size += length;
+        return this;
+    }
+
+    /**
+     * Appends {@code length} bytes from the current position of {@code source} and advances its position.
+     */
+    GelfOutputBuffer append(final ByteBuffer source, final int length) {
+        ensureCapacity(size + length);
+        source.get(buffer, size, length);
+        size += length;
+        return this;
+    }
+
+    /**
+     * Appends a string which is known to consist of ASCII characters only, e. g. a number or a constant.
+     */
+    GelfOutputBuffer appendAscii(final String s) {
+        final int length = s.length();
+        ensureCapacity(size + length);
+        for (int i = 0; i < length; i++) {
+            buffer[size++] = (byte) s.charAt(i);
+        }
+        return this;
+    }
+
+    GelfOutputBuffer appendNull() {
+        return append(NULL);
+    }
+
+    GelfOutputBuffer appendLong(final long value) {
+        if (value == Long.MIN_VALUE) {
+            return append(MIN_LONG);
+        }
+
+        long v = value;
+        if (v < 0) {
+            append((byte) '-');
+            v = -v;
+        }
+
+        int digits = 1;
+        for (long p = 10; digits < 19 && v >= p; p *= 10) {
+            digits++;
+        }
+
+        ensureCapacity(size + digits);
+        for (int i = size + digits - 1; i >= size; i--) {
+            buffer[i] = (byte) ('0' + (v % 10));
+            v /= 10;
+        }
+        size += digits;
+        return this;
+    }
+
+    /**
+     * Appends a UNIX timestamp given in milliseconds as decimal seconds, e. g. {@code 1476000000.123}.
+     */
+    GelfOutputBuffer appendTimestamp(final long timeMillis) {
+        if (timeMillis < 0) {
+            return appendAscii(Double.toString(timeMillis / 1000d));
+        }
+
+        final int millis = (int) (timeMillis % 1000L);
+        appendLong(timeMillis / 1000L);
+        ensureCapacity(size + 4);
+        buffer[size++] = '.';
+        buffer[size++] = (byte) ('0' + millis / 100);
+        buffer[size++] = (byte) ('0' + (millis / 10) % 10);
+        buffer[size++] = (byte) ('0' + millis % 10);
+        return this;
+    }
+
+    /**
+     * Appends the given characters as a quoted and escaped JSON string or {@code null}.
+     */
+    GelfOutputBuffer appendJsonString(final CharSequence s) {
+        if (s == null) {
+            return appendNull();
+        }
+
+        append((byte) '"');
+        appendJsonStringContent(s, 0, s.length());
+        return append((byte) '"');
+    }
+
+    /**
+     * Appends the given characters as a quoted and escaped JSON string which is cut off so that it takes at most
+     * {@code maxBytes} bytes including the quotes. Only the characters which can fit are encoded, so this is cheap
+     * even for huge strings.
+     *
+     * @return {@code true} if the string has been cut off
+     */
+    boolean appendTruncatedJsonString(final CharSequence s, final int maxBytes) {
+        final int start = size;
+        final int maxContent = Math.max(0, maxBytes - 2);
+        // Every character takes at least one byte, so more characters than bytes can't fit
+        int end = Math.min(s.length(), maxContent);
+        if (end < s.length() && end > 0 && Character.isHighSurrogate(s.charAt(end - 1))) {
+            end--;
+        }
+
+        append((byte) '"');
+        appendJsonStringContent(s, 0, end);
+        boolean truncated = end < s.length();
+        if (size - start - 1 > maxContent) {
+            size = jsonBoundary(buffer, start + 1, start + 1 + maxContent);
+            truncated = true;
+        }
+        append((byte) '"');
+        return truncated;
+    }
+
+    /**
+     * Finds the end of the longest prefix of JSON-escaped UTF-8 text which ends before {@code maxEnd} without
+     * splitting an escape sequence or a multi-byte character.
+     *
+     * @param bytes  the escaped text
+     * @param start  the start of the escaped text
+     * @param maxEnd the maximum end of the prefix
+     * @return the end of the prefix
+     */
+    static int jsonBoundary(final byte[] bytes, final int start, final int maxEnd) {
+        int i = start;
+        while (i < maxEnd) {
+            final int b = bytes[i];
+            final int length;
+            if (b == '\\') {
+                length = i + 1 < maxEnd && bytes[i + 1] == 'u' ? 6 : 2;
+            } else if ((b & 0xe0) == 0xc0) {
+                length = 2;
+            } else if ((b & 0xf0) == 0xe0) {
+                length = 3;
+            } else if ((b & 0xf8) == 0xf0) {
+                length = 4;
+            } else {
+                length = 1;
+            }
+            if (i + length > maxEnd) {
+                break;
+            }
+            i += length;
+        }
+        return i;
+    }
+
+    /**
+     * Appends the given characters JSON-escaped and UTF-8 encoded, but without surrounding quotes.
+     */
+    GelfOutputBuffer appendJsonStringContent(final CharSequence s, final int start, final int end) {
+        // Most characters need exactly one byte, so only grow the buffer when actually needed.
+        ensureCapacity(size + (end - start));
+        for (int i = start; i < end; i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    if (size == buffer.length) {
+                        ensureCapacity(size + 1 + (end - i));
+                    }
+                    buffer[size++] = (byte) c;
+                } else {
+                    appendEscaped(c);
+                }
+            } else if (c < 0x800) {
+                ensureCapacity(size + 2 + (end - i));
+                buffer[size++] = (byte) (0xc0 | (c >> 6));
+                buffer[size++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                ensureCapacity(size + 4 + (end - i));
+                buffer[size++] = (byte) (0xf0 | (codePoint >> 18));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buffer[size++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogates can't be represented in UTF-8
+                append((byte) '?');
+            } else {
+                ensureCapacity(size + 3 + (end - i));
+                buffer[size++] = (byte) (0xe0 | (c >> 12));
+                buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[size++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Appends UTF-8 encoded text JSON-escaped, but without surrounding quotes. The bytes of multi-byte sequences are
+     * always {@code >= 0x80} and never need escaping, so the text doesn't have to be decoded.
+     */
+    GelfOutputBuffer appendJsonUtf8Content(final byte[] bytes, final int offset, final int length) {
+        final int end = offset + length;
+        ensureCapacity(size + length);
+        for (int i = offset; i < end; i++) {
+            final byte b = bytes[i];
+            if (b < 0 || (b >= 0x20 && b != '"' && b != '\\')) {
+                if (size == buffer.length) {
+                    ensureCapacity(size + 1 + (end - i));
+                }
+                buffer[size++] = b;
+            } else {
+                appendEscaped((char) b);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Appends the output of the given {@link Deflater} until it is finished. The caller is responsible for providing
+     * the input and calling {@link Deflater#finish()} before.
+     */
+    GelfOutputBuffer appendDeflated(final Deflater deflater) {
+        while (!deflater.finished()) {
+            ensureCapacity(size + DEFLATE_STEP);
+            size += deflater.deflate(buffer, size, buffer.length - size);
+        }
+        return this;
+    }
+
+    private void appendEscaped(final char c) {
+        ensureCapacity(size + 6);
+        buffer[size++] = '\\';
+        switch (c) {
+            case '"':
+                buffer[size++] = '"';
+                break;
+            case '\\':
+                buffer[size++] = '\\';
+                break;
+            case '\n':
+                buffer[size++] = 'n';
+                break;
+            case '\r':
+                buffer[size++] = 'r';
+                break;
+            case '\t':
+                buffer[size++] = 't';
+                break;
+            case '\b':
+                buffer[size++] = 'b';
+                break;
+            case '\f':
+                buffer[size++] = 'f';
+                break;
+            default:
+                buffer[size++] = 'u';
+                buffer[size++] = '0';
+                buffer[size++] = '0';
+                buffer[size++] = HEX[(c >> 4) & 0xf];
+                buffer[size++] = HEX[c & 0xf];
+        }
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if (capacity > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length << 1));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, 0, size, StandardCharsets.UTF_8);
+    }
+}
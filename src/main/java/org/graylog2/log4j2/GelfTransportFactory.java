@@ -0,0 +1,398 @@
+package org.graylog2.log4j2;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.status.StatusLogger;
+import org.graylog2.gelfclient.GelfConfiguration;
+import org.graylog2.gelfclient.GelfTransports;
+import org.graylog2.gelfclient.transport.GelfTransport;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.zip.Deflater;
+
+/**
+ * Creates the {@link GelfTransport} used by {@link GelfAppender} from the appender configuration.
+ * <p>
+ * The transports of gelfclient are used unless a feature requires one of the transports of this library or they have
+ * been requested explicitly with {@link #nio(boolean)}. All transports apply the configured {@link OverflowPolicy}
+ * when their queue is full. Only the transports of this library accept messages encoded by
+ * {@link GelfMessageEncoder}, so the allocation-free append path is opt-in.
+ */
+class GelfTransportFactory {
+    private static final Logger LOG = StatusLogger.getLogger();
+    private static final int DEFLATER_POOL_SIZE = 4;
+
+    private final GelfConfiguration configuration;
+    private int batchSize = 0;
+    private long batchLinger = 0L;
+    private GelfCompression compression = null;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private int compressionThreshold = 0;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.dropNewest();
+    private File spillDirectory = null;
+    private int spillSegmentSize = 8 * 1024 * 1024;
+    private int spillMaxSegments = 16;
+    private long spillMaxAge = 3600000L;
+    private int maxMessageBytes = 0;
+    private boolean http = false;
+    private boolean nio = false;
+    private List<InetSocketAddress> endpoints;
+    private LoadBalancingTransport.Strategy loadBalancing = LoadBalancingTransport.Strategy.ROUND_ROBIN;
+
+    GelfTransportFactory(final GelfConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    GelfConfiguration getConfiguration() {
+        return configuration;
+    }
+
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize the maximum number of bytes to coalesce into a single TCP write, {@code 0} disables batching
+     */
+    GelfTransportFactory batchSize(final int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    long getBatchLinger() {
+        return batchLinger;
+    }
+
+    /**
+     * @param batchLinger the maximum time in milliseconds to wait for more messages before a batch is written
+     */
+    GelfTransportFactory batchLinger(final long batchLinger) {
+        this.batchLinger = batchLinger;
+        return this;
+    }
+
+    GelfCompression getCompression() {
+        return compression;
+    }
+
+    /**
+     * @param compression the compression of UDP payloads, {@code null} keeps the default of gelfclient (always GZIP)
+     */
+    GelfTransportFactory compression(final GelfCompression compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * @param compressionLevel the compression level from {@code 0} to {@code 9} or {@code -1} for the default level
+     */
+    GelfTransportFactory compressionLevel(final int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+        return this;
+    }
+
+    int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * @param compressionThreshold the minimum size of a message in bytes to be compressed
+     */
+    GelfTransportFactory compressionThreshold(final int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+        return this;
+    }
+
+    OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @return the metrics the transports report to, i. e. the metrics of the {@link OverflowPolicy}
+     */
+    GelfMetrics getMetrics() {
+        return overflowPolicy.getMetrics();
+    }
+
+    /**
+     * @param overflowPolicy what to do with messages if the queue of the transport is full
+     */
+    GelfTransportFactory overflowPolicy(final OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+        return this;
+    }
+
+    File getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * @param spillDirectory the directory for spilling messages to disk if the queue is full, {@code null} disables
+     *                       spilling
+     */
+    GelfTransportFactory spillDirectory(final File spillDirectory) {
+        this.spillDirectory = spillDirectory;
+        return this;
+    }
+
+    int getSpillSegmentSize() {
+        return spillSegmentSize;
+    }
+
+    /**
+     * @param spillSegmentSize the size of a single spill file in bytes
+     */
+    GelfTransportFactory spillSegmentSize(final int spillSegmentSize) {
+        this.spillSegmentSize = spillSegmentSize;
+        return this;
+    }
+
+    int getSpillMaxSegments() {
+        return spillMaxSegments;
+    }
+
+    /**
+     * @param spillMaxSegments the maximum number of spill files, the oldest file is discarded if it is exceeded
+     */
+    GelfTransportFactory spillMaxSegments(final int spillMaxSegments) {
+        this.spillMaxSegments = spillMaxSegments;
+        return this;
+    }
+
+    long getSpillMaxAge() {
+        return spillMaxAge;
+    }
+
+    /**
+     * @param spillMaxAge the maximum age of a spilled message in milliseconds, older messages are discarded
+     */
+    GelfTransportFactory spillMaxAge(final long spillMaxAge) {
+        this.spillMaxAge = spillMaxAge;
+        return this;
+    }
+
+    boolean isHttp() {
+        return http;
+    }
+
+    /**
+     * @param http whether to send messages to the GELF HTTP input, the configuration has to use TCP in this case
+     */
+    GelfTransportFactory http(final boolean http) {
+        this.http = http;
+        return this;
+    }
+
+    /**
+     * @return the name of the protocol used to send messages
+     */
+    String getProtocol() {
+        return http ? "HTTP" : configuration.getTransport().toString();
+    }
+
+    boolean isNio() {
+        return nio;
+    }
+
+    /**
+     * @param nio whether to use the transports of this library, which need a single thread each and no Netty, instead
+     *            of the transports of gelfclient
+     */
+    GelfTransportFactory nio(final boolean nio) {
+        this.nio = nio;
+        return this;
+    }
+
+    /**
+     * @return {@code true} if the transports of this library have been requested, which don't support TLS over TCP
+     */
+    boolean isNioEnabled() {
+        return nio && !configuration.isTlsEnabled();
+    }
+
+    int getMaxMessageBytes() {
+        return maxMessageBytes;
+    }
+
+    /**
+     * @param maxMessageBytes the maximum size of an encoded GELF message in bytes, {@code 0} for no limit
+     */
+    GelfTransportFactory maxMessageBytes(final int maxMessageBytes) {
+        this.maxMessageBytes = maxMessageBytes;
+        return this;
+    }
+
+    List<InetSocketAddress> getEndpoints() {
+        return endpoints == null ? Collections.singletonList(
+                InetSocketAddress.createUnresolved(configuration.getHostname(), configuration.getPort())) : endpoints;
+    }
+
+    /**
+     * @param endpoints the addresses of the GELF servers, the first one has to be the remote address of the
+     *                  configuration, which is used if there is only a single endpoint
+     */
+    GelfTransportFactory endpoints(final List<InetSocketAddress> endpoints) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("At least one endpoint is required");
+        }
+        this.endpoints = Collections.unmodifiableList(new ArrayList<>(endpoints));
+        return this;
+    }
+
+    LoadBalancingTransport.Strategy getLoadBalancing() {
+        return loadBalancing;
+    }
+
+    /**
+     * @param loadBalancing how to distribute messages over several endpoints
+     */
+    GelfTransportFactory loadBalancing(final LoadBalancingTransport.Strategy loadBalancing) {
+        this.loadBalancing = loadBalancing;
+        return this;
+    }
+
+    boolean isCompressionEnabled() {
+        return compression != null && (http || configuration.getTransport() == GelfTransports.UDP);
+    }
+
+    /**
+     * @return {@code true} if messages are batched, which is always the case for HTTP
+     */
+    boolean isBatchingEnabled() {
+        return http || (batchSize > 0
+                && configuration.getTransport() == GelfTransports.TCP
+                && !configuration.isTlsEnabled());
+    }
+
+    /**
+     * @return {@code true} if the size of messages is limited, which requires the messages to be encoded by
+     * {@link GelfMessageEncoder} and isn't supported for TLS
+     */
+    boolean isSizeLimitEnabled() {
+        return maxMessageBytes > 0 && (http || !configuration.isTlsEnabled());
+    }
+
+    /**
+     * @return {@code true} if the queue is split into lanes per severity, which requires the transports of this library
+     * and isn't supported for TLS over TCP
+     */
+    boolean isPriorityLanesEnabled() {
+        return overflowPolicy.isPriorityLanes() && (http || !configuration.isTlsEnabled());
+    }
+
+    boolean isSpillEnabled() {
+        return spillDirectory != null && (http || !configuration.isTlsEnabled());
+    }
+
+    /**
+     * @return {@code true} if messages are distributed over several endpoints, which isn't supported for TLS over TCP
+     */
+    boolean isLoadBalancingEnabled() {
+        return endpoints != null && endpoints.size() > 1 && (http || !configuration.isTlsEnabled());
+    }
+
+    GelfTransport create() {
+        if (isLoadBalancingEnabled()) {
+            final List<AbstractFrameTransport> transports = new ArrayList<>(endpoints.size());
+            for (InetSocketAddress endpoint : endpoints) {
+                final DiskSpillBuffer spill = isSpillEnabled() ? openSpill(spillDirectoryFor(endpoint)) : null;
+                transports.add(createFrameTransport(configurationFor(endpoint), spill));
+            }
+            return new LoadBalancingTransport(transports, loadBalancing);
+        }
+
+        final DiskSpillBuffer spill = isSpillEnabled() ? openSpill(spillDirectory) : null;
+        if (isNioEnabled() || isBatchingEnabled() || isCompressionEnabled() || isSizeLimitEnabled()
+                || isPriorityLanesEnabled() || spill != null) {
+            return createFrameTransport(configuration, spill);
+        }
+
+        switch (configuration.getTransport()) {
+            case TCP:
+            case UDP:
+                return new DeferredTransport(new Callable<GelfTransport>() {
+                    @Override
+                    public GelfTransport call() throws IOException {
+                        return createClientTransport();
+                    }
+                }, configuration.getQueueSize(), configuration.getReconnectDelay(), overflowPolicy);
+            default:
+                return GelfTransports.create(configuration);
+        }
+    }
+
+    private GelfTransport createClientTransport() throws IOException {
+        if (configuration.getTransport() == GelfTransports.TCP) {
+            // Netty resolves the address on every connect attempt and retries on failure
+            return new GelfClientTransports.Tcp(configuration, overflowPolicy);
+        }
+
+        // The UDP transport resolves the address once when its channel is initialized, so make sure it can be
+        final InetSocketAddress address = new InetSocketAddress(configuration.getHostname(), configuration.getPort());
+        if (address.isUnresolved()) {
+            throw new IOException("Couldn't resolve GELF server " + configuration.getHostname());
+        }
+        return new GelfClientTransports.Udp(configuration, overflowPolicy);
+    }
+
+    private AbstractFrameTransport createFrameTransport(final GelfConfiguration configuration,
+                                                        final DiskSpillBuffer spill) {
+        if (http) {
+            final GelfCompressor compressor = compression == null || compression == GelfCompression.NONE ? null
+                    : new GelfCompressor(compression, compressionLevel, compressionThreshold, 1);
+            return new HttpTransport(configuration, batchSize, batchLinger, compressor, overflowPolicy, spill,
+                    this.configuration.isTlsEnabled());
+        }
+        if (configuration.getTransport() == GelfTransports.TCP) {
+            return new BatchingTcpTransport(configuration, batchSize, batchLinger, overflowPolicy, spill);
+        }
+
+        // gelfclient always compresses UDP payloads with GZIP, keep that if no compression has been configured
+        final GelfCompressor compressor = new GelfCompressor(
+                compression == null ? GelfCompression.GZIP : compression,
+                compressionLevel, compressionThreshold, DEFLATER_POOL_SIZE);
+        return new ChunkedUdpTransport(configuration, compressor, overflowPolicy, spill);
+    }
+
+    /**
+     * @return a copy of the configuration with another remote address
+     */
+    private GelfConfiguration configurationFor(final InetSocketAddress endpoint) {
+        return new GelfConfiguration(endpoint)
+                .transport(configuration.getTransport())
+                .queueSize(configuration.getQueueSize())
+                .connectTimeout(configuration.getConnectTimeout())
+                .reconnectDelay(configuration.getReconnectDelay())
+                .sendBufferSize(configuration.getSendBufferSize())
+                .tcpNoDelay(configuration.isTcpNoDelay())
+                .tcpKeepAlive(configuration.isTcpKeepAlive())
+                .maxInflightSends(configuration.getMaxInflightSends());
+    }
+
+    /**
+     * @return a subdirectory of the spill directory for the given endpoint, as spill files can only be used by one
+     * transport
+     */
+    private File spillDirectoryFor(final InetSocketAddress endpoint) {
+        final String name = endpoint.getHostString().replaceAll("[^\\w.-]", "_") + "_" + endpoint.getPort();
+        return new File(spillDirectory, name);
+    }
+
+    private DiskSpillBuffer openSpill(final File directory) {
+        try {
+            return new DiskSpillBuffer(directory, spillSegmentSize, spillMaxSegments, spillMaxAge, getMetrics());
+        } catch (IOException e) {
+            LOG.warn("Couldn't open spill directory {}, spilling is disabled: {}", directory, e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package org.graylog2.log4j2;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.appender.AbstractManager;
+import org.apache.logging.log4j.core.appender.ManagerFactory;
+import org.apache.logging.log4j.status.StatusLogger;
+import org.graylog2.gelfclient.GelfConfiguration;
+import org.graylog2.gelfclient.transport.GelfTransport;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares the {@link GelfTransport} of a {@link GelfAppender} between the appender instances of successive
+ * configurations, so that a reconfiguration neither reconnects nor discards the queued messages.
+ * <p>
+ * Log4j starts the appenders of a new configuration before it stops those of the old one. The manager is reference
+ * counted like the other managers of Log4j: the transport is created when the first appender starts and stopped when
+ * the last appender using it has been stopped. Managers are keyed by the appender name and every setting of the
+ * transport, so changing any of them still creates a new transport.
+ */
+final class GelfTransportManager extends AbstractManager {
+    private static final Logger LOG = StatusLogger.getLogger();
+    private static final ManagerFactory<GelfTransportManager, GelfTransportFactory> FACTORY =
+            new ManagerFactory<GelfTransportManager, GelfTransportFactory>() {
+                @Override
+                public GelfTransportManager createManager(final String name, final GelfTransportFactory data) {
+                    return new GelfTransportManager(name, data);
+                }
+            };
+
+    private final GelfTransportFactory transportFactory;
+    private GelfTransport transport;
+
+    private GelfTransportManager(final String name, final GelfTransportFactory transportFactory) {
+        super(null, name);
+        this.transportFactory = transportFactory;
+    }
+
+    /**
+     * Returns the manager for the given appender and transport settings and increments its reference count.
+     *
+     * @param appenderName     the name of the appender
+     * @param transportFactory the transport settings, only used if there is no manager with the same settings yet
+     */
+    static GelfTransportManager getManager(final String appenderName, final GelfTransportFactory transportFactory) {
+        return getManager(key(appenderName, transportFactory), FACTORY, transportFactory);
+    }
+
+    /**
+     * @return the settings the transport is created from, whose metrics outlive the appender instances
+     */
+    GelfTransportFactory getTransportFactory() {
+        return transportFactory;
+    }
+
+    /**
+     * @return the shared transport, which is created on the first call
+     */
+    synchronized GelfTransport getTransport() {
+        if (transport == null) {
+            transport = transportFactory.create();
+        }
+        return transport;
+    }
+
+    /**
+     * Drains the transport once the last appender using it has been stopped.
+     *
+     * @return {@code false} if queued messages had to be abandoned
+     */
+    @Override
+    protected synchronized boolean releaseSub(final long timeout, final TimeUnit timeUnit) {
+        final GelfMetrics metrics = transportFactory.getMetrics();
+        int abandoned = 0;
+        if (transport != null) {
+            abandoned = drainAndStop(transport, timeUnit.toNanos(timeout), metrics);
+            transport = null;
+        }
+        metrics.unregister();
+        metrics.transport(null);
+        return abandoned == 0;
+    }
+
+    /**
+     * Stops the given transport after sending its queued messages within the timeout and reports how many messages
+     * were flushed and how many were abandoned. Abandoned messages are counted as {@link GelfDropReason#ABANDONED}.
+     *
+     * @return the number of abandoned messages
+     */
+    static int drainAndStop(final GelfTransport transport, final long timeoutNanos, final GelfMetrics metrics) {
+        if (!(transport instanceof QueueingTransport)) {
+            transport.stop();
+            return 0;
+        }
+
+        final QueueingTransport queueingTransport = (QueueingTransport) transport;
+        final long start = System.nanoTime();
+        final int queued = queueingTransport.queueSize();
+        final int abandoned = queueingTransport.drainAndStop(Math.max(0L, timeoutNanos));
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        metrics.dropped(GelfDropReason.ABANDONED, abandoned);
+        if (abandoned > 0) {
+            LOG.warn("Flushed {} and abandoned {} queued GELF messages within {} ms",
+                    Math.max(0, queued - abandoned), abandoned, elapsedMillis);
+        } else if (queued > 0) {
+            LOG.info("Flushed {} queued GELF messages within {} ms", queued, elapsedMillis);
+        }
+        return abandoned;
+    }
+
+    /**
+     * Builds the name of the manager from every setting which affects the transport. {@link GelfConfiguration}
+     * doesn't implement {@code equals()}, so its settings are listed explicitly.
+     */
+    static String key(final String appenderName, final GelfTransportFactory transportFactory) {
+        final GelfConfiguration configuration = transportFactory.getConfiguration();
+        final OverflowPolicy overflowPolicy = transportFactory.getOverflowPolicy();
+        return GelfAppender.class.getName() + "{"
+                + "name=" + appenderName
+                + ",protocol=" + transportFactory.getProtocol()
+                + ",endpoints=" + transportFactory.getEndpoints()
+                + ",loadBalancing=" + transportFactory.getLoadBalancing()
+                + ",nio=" + transportFactory.isNio()
+                + ",queueSize=" + configuration.getQueueSize()
+                + ",connectTimeout=" + configuration.getConnectTimeout()
+                + ",reconnectDelay=" + configuration.getReconnectDelay()
+                + ",sendBufferSize=" + configuration.getSendBufferSize()
+                + ",tcpNoDelay=" + configuration.isTcpNoDelay()
+                + ",tcpKeepAlive=" + configuration.isTcpKeepAlive()
+                + ",maxInflightSends=" + configuration.getMaxInflightSends()
+                + ",tls=" + configuration.isTlsEnabled()
+                + ",tlsCertVerification=" + configuration.isTlsCertVerificationEnabled()
+                + ",tlsTrustCertChainFile=" + configuration.getTlsTrustCertChainFile()
+                + ",batchSize=" + transportFactory.getBatchSize()
+                + ",batchLinger=" + transportFactory.getBatchLinger()
+                + ",compression=" + transportFactory.getCompression()
+                + ",compressionLevel=" + transportFactory.getCompressionLevel()
+                + ",compressionThreshold=" + transportFactory.getCompressionThreshold()
+                + ",overflowPolicy=" + overflowPolicy
+                + ",overflowTimeout=" + overflowPolicy.getTimeoutNanos()
+                + ",overflowSeverity=" + overflowPolicy.getDiscardSeverity()
+                + ",priorityLanes=" + overflowPolicy.isPriorityLanes()
+                + ",spillDirectory=" + transportFactory.getSpillDirectory()
+                + ",spillSegmentSize=" + transportFactory.getSpillSegmentSize()
+                + ",spillMaxSegments=" + transportFactory.getSpillMaxSegments()
+                + ",spillMaxAge=" + transportFactory.getSpillMaxAge()
+                + ",maxMessageBytes=" + transportFactory.getMaxMessageBytes()
+                + "}";
+    }
+}
@@ -0,0 +1,122 @@
+package org.graylog2.log4j2;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Detects the name of the local host in the background.
+ * <p>
+ * {@link InetAddress#getCanonicalHostName()} does a reverse DNS lookup which can take seconds if DNS is slow or
+ * broken. The lookup is started once per JVM and its result is cached, so that the appender doesn't have to wait for
+ * it again on a reconfiguration of Log4j. Callers which don't want to wait for it get a fallback name derived from the
+ * environment and can pick up the resolved name later via {@link #getIfResolved()}.
+ */
+final class HostNameResolver {
+    private static final Logger LOG = StatusLogger.getLogger();
+
+    static final HostNameResolver INSTANCE = new HostNameResolver(new Callable<String>() {
+        @Override
+        public String call() {
+            return lookup();
+        }
+    });
+
+    private final Callable<String> lookup;
+    private volatile FutureTask<String> task;
+
+    HostNameResolver(final Callable<String> lookup) {
+        this.lookup = lookup;
+    }
+
+    /**
+     * Waits at most {@code timeoutMillis} for the local host name.
+     *
+     * @return the resolved host name or a fallback if it isn't available in time
+     */
+    String resolve(final long timeoutMillis) {
+        final FutureTask<String> task = start();
+        try {
+            return task.get(Math.max(0L, timeoutMillis), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            final String fallback = fallback();
+            LOG.debug("Local host name couldn't be resolved within {} ms, using {} for now", timeoutMillis, fallback);
+            return fallback;
+        } catch (ExecutionException e) {
+            LOG.warn("Couldn't detect local host name", e.getCause());
+            return fallback();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return fallback();
+        }
+    }
+
+    /**
+     * @return the resolved host name or {@code null} if the lookup hasn't finished yet
+     */
+    String getIfResolved() {
+        final FutureTask<String> task = start();
+        if (!task.isDone()) {
+            return null;
+        }
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            return fallback();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private FutureTask<String> start() {
+        FutureTask<String> task = this.task;
+        if (task == null) {
+            synchronized (this) {
+                task = this.task;
+                if (task == null) {
+                    task = new FutureTask<>(lookup);
+                    final Thread thread = new Thread(task, "gelf-hostname-resolver");
+                    thread.setDaemon(true);
+                    thread.start();
+                    this.task = task;
+                }
+            }
+        }
+        return task;
+    }
+
+    /**
+     * @return the host name from the environment, which is usually set in containers, or {@code localhost}
+     */
+    static String fallback() {
+        for (String variable : new String[]{"HOSTNAME", "COMPUTERNAME"}) {
+            final String value = System.getenv(variable);
+            if (value != null && !value.trim().isEmpty()) {
+                return value.trim();
+            }
+        }
+        return "localhost";
+    }
+
+    private static String lookup() {
+        try {
+            final String canonicalHostName = InetAddress.getLocalHost().getCanonicalHostName();
+            if (GelfAppender.isFQDN(canonicalHostName)) {
+                return canonicalHostName;
+            } else {
+                return InetAddress.getLocalHost().getHostName();
+            }
+        } catch (UnknownHostException e) {
+            LOG.warn("Couldn't detect local host name, falling back to \"localhost\"");
+            return "localhost";
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package org.graylog2.log4j2;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.status.StatusLogger;
+import org.graylog2.gelfclient.GelfConfiguration;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A GELF HTTP transport which posts many messages with a single request.
+ * <p>
+ * The messages of a batch are sent newline-delimited, as expected by the bulk mode of the GELF HTTP input of Graylog.
+ * Connections are kept alive by {@link HttpURLConnection}, which reuses a connection as soon as the response has been
+ * read completely. Batches are retried with an exponential backoff if the server is unreachable or overloaded (5xx,
+ * 408, 429) and discarded if the server rejects them (other 4xx). A batch is always retried completely, so messages
+ * may be delivered twice if the response to a request which has been processed by the server got lost.
+ */
+final class HttpTransport extends AbstractFrameTransport {
+    private static final Logger LOG = StatusLogger.getLogger();
+
+    static final int DEFAULT_BATCH_SIZE = 64 * 1024;
+    static final String PATH = "/gelf";
+    private static final long MAX_RETRY_DELAY_MILLIS = 30000L;
+    private static final int MIN_READ_TIMEOUT_MILLIS = 5000;
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+    private final URL url;
+    private final GelfCompressor compressor;
+    private final GelfOutputBuffer body = new GelfOutputBuffer(DEFAULT_BATCH_SIZE);
+    private final GelfOutputBuffer compressed = new GelfOutputBuffer(DEFAULT_BATCH_SIZE);
+    private final byte[] responseBuffer = new byte[1024];
+
+    private HttpURLConnection connection;
+
+    /**
+     * @param compressor the compression of request bodies or {@code null} to send them uncompressed
+     * @param tls        whether to use HTTPS
+     */
+    HttpTransport(final GelfConfiguration config, final int batchSize, final long lingerMillis,
+                  final GelfCompressor compressor, final OverflowPolicy overflowPolicy, final DiskSpillBuffer spill,
+                  final boolean tls) {
+        super(config, batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE, lingerMillis, overflowPolicy, spill,
+                "gelf-http-sender");
+        this.url = url(tls ? "https" : "http", config.getHostname(), config.getPort());
+        this.compressor = compressor;
+        startSender();
+    }
+
+    private static URL url(final String protocol, final String host, final int port) {
+        try {
+            return new URL(protocol, host, port, PATH);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid GELF server " + host + ":" + port, e);
+        }
+    }
+
+    @Override
+    protected void write(final FrameBatchQueue.Batch batch) throws IOException {
+        // JSON never contains raw control characters, so the null delimiters can simply be replaced
+        body.reset(MAX_RETAINED_BUFFER_SIZE);
+        body.append(batch.array(), 0, batch.size());
+        final byte[] data = body.array();
+        for (int i = 0; i < body.size(); i++) {
+            if (data[i] == 0) {
+                data[i] = '\n';
+            }
+        }
+
+        GelfOutputBuffer payload = body;
+        String contentEncoding = null;
+        if (compressor != null && compressor.shouldCompress(body.size())) {
+            compressed.reset(MAX_RETAINED_BUFFER_SIZE);
+            compressor.compress(data, 0, body.size(), compressed);
+            payload = compressed;
+            contentEncoding = compressor.getCompression() == GelfCompression.GZIP ? "gzip" : "deflate";
+        }
+
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        this.connection = connection;
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setUseCaches(false);
+        connection.setConnectTimeout(config.getConnectTimeout());
+        connection.setReadTimeout(Math.max(MIN_READ_TIMEOUT_MILLIS, config.getConnectTimeout()));
+        connection.setFixedLengthStreamingMode(payload.size());
+        connection.setRequestProperty("Content-Type", "application/json");
+        if (contentEncoding != null) {
+            connection.setRequestProperty("Content-Encoding", contentEncoding);
+        }
+
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(payload.array(), 0, payload.size());
+        }
+
+        final int status = connection.getResponseCode();
+        readResponse(connection, status);
+        if (status >= 200 && status < 300) {
+            return;
+        }
+        if (status >= 400 && status < 500 && status != 408 && status != 429) {
+            LOG.warn("GELF server {} rejected {} messages with HTTP status {}", url, batch.count(), status);
+            metrics.dropped(GelfDropReason.ERROR, batch.count());
+            return;
+        }
+        throw new IOException("GELF server " + url + " responded with HTTP status " + status);
+    }
+
+    /**
+     * Reads the response completely, which is required to return the connection to the keep-alive cache.
+     */
+    private void readResponse(final HttpURLConnection connection, final int status) throws IOException {
+        final InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (in == null) {
+            return;
+        }
+        try {
+            while (in.read(responseBuffer) >= 0) {
+                // Discard the response body
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    protected long retryDelay(final int attempt) {
+        final long backoff = reconnectDelay() * (1L << Math.min(attempt, 16));
+        final long delay = Math.min(MAX_RETRY_DELAY_MILLIS, backoff);
+        // Spread the retries of many clients after an outage of a shared server
+        return delay + ThreadLocalRandom.current().nextLong(delay / 5 + 1);
+    }
+
+    @Override
+    protected void closeConnection() {
+        // Drop the connection after errors instead of returning a possibly broken connection to the keep-alive cache
+        if (connection != null) {
+            connection.disconnect();
+            connection = null;
+        }
+    }
+
+    @Override
+    protected void onTerminated() {
+        if (compressor != null) {
+            compressor.close();
+        }
+    }
+}
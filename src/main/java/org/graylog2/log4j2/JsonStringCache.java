@@ -0,0 +1,48 @@
+package org.graylog2.log4j2;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A bounded cache of strings encoded as quoted and escaped JSON strings in UTF-8.
+ * <p>
+ * Logger and thread names are a small set of strings which repeat with every log event, so escaping and encoding
+ * them once turns the per-event cost into a plain copy. If more distinct strings than {@code maxSize} show up (e. g.
+ * because of threads with generated names), the cache is cleared and starts over.
+ */
+final class JsonStringCache {
+    private final int maxSize;
+    private final ConcurrentMap<String, byte[]> cache;
+
+    /**
+     * @param maxSize the maximum number of cached strings, {@code 0} disables caching
+     */
+    JsonStringCache(final int maxSize) {
+        this.maxSize = Math.max(0, maxSize);
+        this.cache = new ConcurrentHashMap<>(Math.min(this.maxSize, 256));
+    }
+
+    /**
+     * Appends the given string as quoted and escaped JSON string or {@code null} to {@code out}.
+     */
+    void append(final String s, final GelfOutputBuffer out) {
+        if (s == null || maxSize == 0) {
+            out.appendJsonString(s);
+            return;
+        }
+
+        byte[] encoded = cache.get(s);
+        if (encoded == null) {
+            encoded = new GelfOutputBuffer(s.length() + 2).appendJsonString(s).toByteArray();
+            if (cache.size() >= maxSize) {
+                cache.clear();
+            }
+            cache.put(s, encoded);
+        }
+        out.append(encoded);
+    }
+
+    int size() {
+        return cache.size();
+    }
+}
@@ -0,0 +1,126 @@
+package org.graylog2.log4j2;
+
+import org.graylog2.gelfclient.GelfMessage;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Distributes GELF messages over several endpoints, each with its own transport and queue.
+ * <p>
+ * Endpoints whose last write failed are skipped until they have reconnected. If no endpoint is healthy, messages are
+ * still handed to one of the transports, so that they are queued, spilled or discarded by its {@link OverflowPolicy}.
+ */
+final class LoadBalancingTransport implements GelfFrameTransport, QueueingTransport {
+    enum Strategy {
+        /**
+         * Use the healthy endpoints in turn (default).
+         */
+        ROUND_ROBIN,
+        /**
+         * Use the healthy endpoint with the fewest queued messages.
+         */
+        LEAST_QUEUED;
+
+        static Strategy parse(final String strategy) {
+            return valueOf(strategy.trim().replace('-', '_').toUpperCase(Locale.ENGLISH));
+        }
+    }
+
+    private final AbstractFrameTransport[] transports;
+    private final Strategy strategy;
+    private final AtomicInteger next = new AtomicInteger();
+
+    LoadBalancingTransport(final List<AbstractFrameTransport> transports, final Strategy strategy) {
+        if (transports.isEmpty()) {
+            throw new IllegalArgumentException("At least one transport is required");
+        }
+        this.transports = transports.toArray(new AbstractFrameTransport[transports.size()]);
+        this.strategy = strategy;
+    }
+
+    AbstractFrameTransport select() {
+        return strategy == Strategy.LEAST_QUEUED ? selectLeastQueued() : selectRoundRobin();
+    }
+
+    private AbstractFrameTransport selectRoundRobin() {
+        final int start = next.getAndIncrement() & Integer.MAX_VALUE;
+        for (int i = 0; i < transports.length; i++) {
+            final AbstractFrameTransport transport = transports[(start + i) % transports.length];
+            if (transport.isConnected()) {
+                return transport;
+            }
+        }
+        return transports[start % transports.length];
+    }
+
+    private AbstractFrameTransport selectLeastQueued() {
+        AbstractFrameTransport best = null;
+        int bestSize = Integer.MAX_VALUE;
+        for (AbstractFrameTransport transport : transports) {
+            if (transport.isConnected()) {
+                final int size = transport.queueSize();
+                if (size < bestSize) {
+                    best = transport;
+                    bestSize = size;
+                }
+            }
+        }
+        return best == null ? selectRoundRobin() : best;
+    }
+
+    @Override
+    public boolean trySend(final byte[] frame, final int offset, final int length, final int severity) {
+        return select().trySend(frame, offset, length, severity);
+    }
+
+    @Override
+    public void flush() {
+        for (AbstractFrameTransport transport : transports) {
+            transport.flush();
+        }
+    }
+
+    @Override
+    public void send(final GelfMessage message) throws InterruptedException {
+        select().send(message);
+    }
+
+    @Override
+    public boolean trySend(final GelfMessage message) {
+        return select().trySend(message);
+    }
+
+    @Override
+    public void stop() {
+        drainAndStop(TimeUnit.MILLISECONDS.toNanos(AbstractFrameTransport.STOP_TIMEOUT_MILLIS));
+    }
+
+    /**
+     * Closes all transports before waiting for them, so that the endpoints are drained in parallel within the same
+     * deadline.
+     */
+    @Override
+    public int drainAndStop(final long timeoutNanos) {
+        final long deadlineNanos = System.nanoTime() + timeoutNanos;
+        for (AbstractFrameTransport transport : transports) {
+            transport.close();
+        }
+        int abandoned = 0;
+        for (AbstractFrameTransport transport : transports) {
+            abandoned += transport.awaitTermination(deadlineNanos);
+        }
+        return abandoned;
+    }
+
+    @Override
+    public int queueSize() {
+        int size = 0;
+        for (AbstractFrameTransport transport : transports) {
+            size += transport.queueSize();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,153 @@
+package org.graylog2.log4j2;
+
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.StringLayout;
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.util.StringBuilderFormattable;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Formats the message of a {@link LogEvent}, either with the configured {@link Layout} or as the plain message.
+ * <p>
+ * When encoding GELF JSON, the message is written straight into the {@link GelfOutputBuffer}: UTF-8 string layouts
+ * encode into a reusable {@link ByteBufferDestination} which escapes the bytes on the fly, and messages implementing
+ * {@link StringBuilderFormattable} are rendered into a reusable {@link StringBuilder}. This avoids the round trip from
+ * bytes to a {@link String} and back to bytes for every log event.
+ */
+final class MessageFormatter {
+    private static final int INITIAL_BUILDER_CAPACITY = 1024;
+    private static final int MAX_RETAINED_BUILDER_CAPACITY = 16 * 1024;
+    private static final int DESTINATION_CAPACITY = 8 * 1024;
+
+    private final Layout<? extends Serializable> layout;
+    private final boolean encodeLayout;
+    private final ThreadLocal<StringBuilder> builder = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(INITIAL_BUILDER_CAPACITY);
+        }
+    };
+    private final ThreadLocal<JsonStringDestination> destination = new ThreadLocal<JsonStringDestination>() {
+        @Override
+        protected JsonStringDestination initialValue() {
+            return new JsonStringDestination();
+        }
+    };
+
+    /**
+     * @param layout the layout to format log events with or {@code null} to use the formatted message of the event
+     */
+    MessageFormatter(final Layout<? extends Serializable> layout) {
+        this.layout = layout;
+        this.encodeLayout = layout instanceof StringLayout
+                && StandardCharsets.UTF_8.equals(((StringLayout) layout).getCharset());
+    }
+
+    /**
+     * Formats the message of the given log event as a {@link String}, e. g. for a
+     * {@link org.graylog2.gelfclient.GelfMessage}.
+     */
+    String format(final LogEvent event) {
+        if (layout == null) {
+            return event.getMessage().getFormattedMessage();
+        }
+        if (layout instanceof StringLayout) {
+            return ((StringLayout) layout).toSerializable(event);
+        }
+        return new String(layout.toByteArray(event), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Appends the formatted message of the given log event to {@code out} as a quoted and escaped JSON string.
+     */
+    void appendJsonString(final LogEvent event, final GelfOutputBuffer out) {
+        if (layout == null) {
+            final Message message = event.getMessage();
+            if (message instanceof StringBuilderFormattable) {
+                final StringBuilder sb = builder.get();
+                try {
+                    ((StringBuilderFormattable) message).formatTo(sb);
+                    out.appendJsonString(sb);
+                } finally {
+                    trim(sb);
+                }
+            } else {
+                final String formattedMessage = message.getFormattedMessage();
+                out.appendJsonString(formattedMessage == null ? "" : formattedMessage);
+            }
+        } else if (encodeLayout) {
+            out.append((byte) '"');
+            destination.get().encode(layout, event, out);
+            out.append((byte) '"');
+        } else {
+            final String formattedMessage = format(event);
+            out.appendJsonString(formattedMessage == null ? "" : formattedMessage);
+        }
+    }
+
+    private static void trim(final StringBuilder sb) {
+        sb.setLength(0);
+        if (sb.capacity() > MAX_RETAINED_BUILDER_CAPACITY) {
+            sb.trimToSize();
+            sb.ensureCapacity(INITIAL_BUILDER_CAPACITY);
+        }
+    }
+
+    /**
+     * Receives the UTF-8 encoded output of a layout and appends it JSON-escaped to a {@link GelfOutputBuffer}.
+     * <p>
+     * {@code writeBytes()} is part of {@link ByteBufferDestination} in newer versions of Log4j 2.
+     */
+    private static final class JsonStringDestination implements ByteBufferDestination {
+        private final ByteBuffer buffer = ByteBuffer.allocate(DESTINATION_CAPACITY);
+        private GelfOutputBuffer out;
+
+        void encode(final Layout<? extends Serializable> layout, final LogEvent event, final GelfOutputBuffer out) {
+            this.out = out;
+            try {
+                layout.encode(event, this);
+                drain(buffer);
+            } finally {
+                this.out = null;
+                buffer.clear();
+            }
+        }
+
+        @Override
+        public ByteBuffer getByteBuffer() {
+            return buffer;
+        }
+
+        @Override
+        public ByteBuffer drain(final ByteBuffer buf) {
+            buf.flip();
+            if (buf.hasRemaining()) {
+                out.appendJsonUtf8Content(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+            }
+            buf.clear();
+            return buf;
+        }
+
+        public void writeBytes(final ByteBuffer data) {
+            drain(buffer);
+            while (data.hasRemaining()) {
+                final int length = Math.min(data.remaining(), buffer.capacity());
+                final int limit = data.limit();
+                data.limit(data.position() + length);
+                buffer.put(data);
+                data.limit(limit);
+                drain(buffer);
+            }
+        }
+
+        public void writeBytes(final byte[] data, final int offset, final int length) {
+            drain(buffer);
+            out.appendJsonUtf8Content(data, offset, length);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package org.graylog2.log4j2;
+
+import org.graylog2.gelfclient.GelfMessage;
+
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides what happens to a message when the queue of a transport is full and reports the discarded messages to
+ * {@link GelfMetrics}.
+ * <p>
+ * Severities are GELF (syslog) severity codes, i. e. lower values are more severe.
+ */
+final class OverflowPolicy {
+    enum Type {
+        /**
+         * Discard the message which couldn't be queued (default).
+         */
+        DROP_NEWEST,
+        /**
+         * Discard the oldest queued messages to make room for the new message.
+         */
+        DROP_OLDEST,
+        /**
+         * Wait for free space up to the configured timeout.
+         */
+        BLOCK,
+        /**
+         * Discard messages less severe than the configured level, wait up to the configured timeout for all others.
+         */
+        DISCARD_BELOW_LEVEL;
+
+        static Type parse(final String type) {
+            return valueOf(type.trim().replace('-', '_').toUpperCase(Locale.ENGLISH));
+        }
+    }
+
+    /**
+     * The severity assumed for messages without a level, i. e. debug.
+     */
+    static final int UNKNOWN_SEVERITY = 7;
+
+    private final Type type;
+    private final long timeoutNanos;
+    private final int discardSeverity;
+    private final boolean priorityLanes;
+    private final GelfMetrics metrics;
+
+    /**
+     * @param type            the overflow policy
+     * @param timeoutMillis   the maximum time to wait for free space in milliseconds
+     * @param discardSeverity the GELF severity code of the least severe message which isn't discarded by
+     *                        {@link Type#DISCARD_BELOW_LEVEL}
+     * @param priorityLanes   whether queues keep separate lanes per severity and discard less severe messages first
+     * @param metrics         the metrics to report discarded messages to
+     */
+    OverflowPolicy(final Type type, final long timeoutMillis, final int discardSeverity, final boolean priorityLanes,
+                   final GelfMetrics metrics) {
+        this.type = type;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, timeoutMillis));
+        this.discardSeverity = discardSeverity;
+        this.priorityLanes = priorityLanes;
+        this.metrics = metrics;
+    }
+
+    OverflowPolicy(final Type type, final long timeoutMillis, final int discardSeverity, final GelfMetrics metrics) {
+        this(type, timeoutMillis, discardSeverity, false, metrics);
+    }
+
+    OverflowPolicy(final Type type, final long timeoutMillis, final int discardSeverity) {
+        this(type, timeoutMillis, discardSeverity, new GelfMetrics());
+    }
+
+    static OverflowPolicy dropNewest() {
+        return new OverflowPolicy(Type.DROP_NEWEST, 0L, 0);
+    }
+
+    GelfMetrics getMetrics() {
+        return metrics;
+    }
+
+    Type getType() {
+        return type;
+    }
+
+    long getTimeoutNanos() {
+        return timeoutNanos;
+    }
+
+    int getDiscardSeverity() {
+        return discardSeverity;
+    }
+
+    /**
+     * @return {@code true} if the queues of the transports should be split into lanes per severity, see
+     * {@link FrameBatchQueue}
+     */
+    boolean isPriorityLanes() {
+        return priorityLanes;
+    }
+
+    /**
+     * @return {@code true} if a message of the given severity should wait for free space
+     */
+    boolean shouldBlock(final int severity) {
+        return type == Type.BLOCK || (type == Type.DISCARD_BELOW_LEVEL && severity <= discardSeverity);
+    }
+
+    /**
+     * Queues a message in a {@link BlockingQueue} according to this policy.
+     *
+     * @return {@code true} if the message has been queued
+     */
+    <T> boolean offer(final BlockingQueue<T> queue, final T message, final int severity) {
+        if (queue.offer(message)) {
+            return true;
+        }
+
+        switch (type) {
+            case DROP_OLDEST:
+                // Other threads may refill the queue in the meantime, so don't try forever
+                for (int i = 0; i < 3; i++) {
+                    if (queue.poll() != null) {
+                        countDroppedOldest(1);
+                    }
+                    if (queue.offer(message)) {
+                        return true;
+                    }
+                }
+                countDroppedNewest();
+                return false;
+            case BLOCK:
+            case DISCARD_BELOW_LEVEL:
+                if (!shouldBlock(severity)) {
+                    countDiscardedBelowLevel();
+                    return false;
+                }
+                try {
+                    if (queue.offer(message, timeoutNanos, TimeUnit.NANOSECONDS)) {
+                        return true;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                countTimedOut();
+                return false;
+            default:
+                countDroppedNewest();
+                return false;
+        }
+    }
+
+    void countDroppedNewest() {
+        metrics.dropped(GelfDropReason.QUEUE_FULL, 1L);
+    }
+
+    void countDroppedOldest(final int count) {
+        metrics.dropped(GelfDropReason.DROPPED_OLDEST, count);
+    }
+
+    void countPreempted(final int count) {
+        metrics.dropped(GelfDropReason.PREEMPTED, count);
+    }
+
+    void countTimedOut() {
+        metrics.dropped(GelfDropReason.TIMEOUT, 1L);
+    }
+
+    void countDiscardedBelowLevel() {
+        metrics.dropped(GelfDropReason.BELOW_LEVEL, 1L);
+    }
+
+    long getDroppedNewest() {
+        return metrics.getDropped(GelfDropReason.QUEUE_FULL);
+    }
+
+    long getDroppedOldest() {
+        return metrics.getDropped(GelfDropReason.DROPPED_OLDEST);
+    }
+
+    long getPreempted() {
+        return metrics.getDropped(GelfDropReason.PREEMPTED);
+    }
+
+    long getTimedOut() {
+        return metrics.getDropped(GelfDropReason.TIMEOUT);
+    }
+
+    long getDiscardedBelowLevel() {
+        return metrics.getDropped(GelfDropReason.BELOW_LEVEL);
+    }
+
+    /**
+     * @return the total number of messages discarded by this policy
+     */
+    long getDiscarded() {
+        return getDroppedNewest() + getDroppedOldest() + getPreempted() + getTimedOut() + getDiscardedBelowLevel();
+    }
+
+    static int severityOf(final GelfMessage message) {
+        return message.getLevel() == null ? UNKNOWN_SEVERITY : message.getLevel().getNumericLevel();
+    }
+
+    @Override
+    public String toString() {
+        return type.toString();
+    }
+}
@@ -0,0 +1,20 @@
+package org.graylog2.log4j2;
+
+/**
+ * A transport which can report the occupancy of its queue and send the queued messages before it stops.
+ */
+interface QueueingTransport {
+    /**
+     * @return the number of messages waiting to be sent
+     */
+    int queueSize();
+
+    /**
+     * Stops the transport after sending the queued messages as fast as possible. Messages which haven't been sent
+     * when the timeout expires are abandoned.
+     *
+     * @param timeoutNanos the maximum time in nanoseconds to wait for the queued messages to be sent
+     * @return the number of abandoned messages
+     */
+    int drainAndStop(long timeoutNanos);
+}
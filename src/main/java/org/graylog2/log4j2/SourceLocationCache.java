@@ -0,0 +1,68 @@
+package org.graylog2.log4j2;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A bounded cache of the encoded source fields ({@code _sourceFileName}, {@code _sourceMethodName},
+ * {@code _sourceClassName} and {@code _sourceLineNumber}) per call site.
+ * <p>
+ * An application only has a limited number of logging statements, so the four fields are encoded once per
+ * {@link StackTraceElement} and copied as a single fragment afterwards. If more distinct call sites than
+ * {@code maxSize} show up, the cache is cleared and starts over.
+ */
+final class SourceLocationCache {
+    private static final byte[] SOURCE_FILE_NAME = ascii(",\"_sourceFileName\":");
+    private static final byte[] SOURCE_METHOD_NAME = ascii(",\"_sourceMethodName\":");
+    private static final byte[] SOURCE_CLASS_NAME = ascii(",\"_sourceClassName\":");
+    private static final byte[] SOURCE_LINE_NUMBER = ascii(",\"_sourceLineNumber\":");
+
+    private final int maxSize;
+    private final ConcurrentMap<StackTraceElement, byte[]> cache;
+
+    /**
+     * @param maxSize the maximum number of cached call sites, {@code 0} disables caching
+     */
+    SourceLocationCache(final int maxSize) {
+        this.maxSize = Math.max(0, maxSize);
+        this.cache = new ConcurrentHashMap<>(Math.min(this.maxSize, 256));
+    }
+
+    /**
+     * Appends the source fields of the given call site to {@code out}.
+     */
+    void append(final StackTraceElement source, final GelfOutputBuffer out) {
+        if (maxSize == 0) {
+            encode(source, out);
+            return;
+        }
+
+        byte[] encoded = cache.get(source);
+        if (encoded == null) {
+            final GelfOutputBuffer buffer = new GelfOutputBuffer(128);
+            encode(source, buffer);
+            encoded = buffer.toByteArray();
+            if (cache.size() >= maxSize) {
+                cache.clear();
+            }
+            cache.put(source, encoded);
+        }
+        out.append(encoded);
+    }
+
+    private static void encode(final StackTraceElement source, final GelfOutputBuffer out) {
+        out.append(SOURCE_FILE_NAME).appendJsonString(source.getFileName());
+        out.append(SOURCE_METHOD_NAME).appendJsonString(source.getMethodName());
+        out.append(SOURCE_CLASS_NAME).appendJsonString(source.getClassName());
+        out.append(SOURCE_LINE_NUMBER).appendLong(source.getLineNumber());
+    }
+
+    int size() {
+        return cache.size();
+    }
+
+    private static byte[] ascii(final String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
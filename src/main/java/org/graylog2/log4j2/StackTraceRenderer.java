@@ -0,0 +1,173 @@
+package org.graylog2.log4j2;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Renders stack traces of {@link Throwable}s and caches the results.
+ * <p>
+ * When a downstream dependency fails, the same exception (same class, same message, same frames) tends to be logged
+ * over and over again. Rendering the stack trace is expensive, so the rendered strings are kept in a bounded cache
+ * keyed on the exception classes, messages and stack frames of the exception (and its causes, if requested).
+ */
+final class StackTraceRenderer {
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final int maxCacheSize;
+    private final ConcurrentMap<Key, String> cache;
+
+    /**
+     * @param maxCacheSize the maximum number of rendered stack traces to keep, {@code 0} disables caching
+     */
+    StackTraceRenderer(final int maxCacheSize) {
+        this.maxCacheSize = Math.max(0, maxCacheSize);
+        this.cache = new ConcurrentHashMap<>(Math.min(this.maxCacheSize, 1024));
+    }
+
+    /**
+     * Renders the stack trace of the given {@link Throwable}.
+     *
+     * @param thrown       the throwable to render
+     * @param includeCause whether the causes and suppressed exceptions should be included (as printed by
+     *                     {@link Throwable#printStackTrace()}) or only the stack frames of {@code thrown} itself
+     * @return the rendered stack trace
+     */
+    String render(final Throwable thrown, final boolean includeCause) {
+        if (maxCacheSize == 0) {
+            return renderUncached(thrown, includeCause);
+        }
+
+        final Key key = new Key(thrown, includeCause);
+        final String cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        final String stackTrace = renderUncached(thrown, includeCause);
+        if (cache.size() >= maxCacheSize) {
+            evict();
+        }
+        cache.put(key, stackTrace);
+        return stackTrace;
+    }
+
+    int cacheSize() {
+        return cache.size();
+    }
+
+    /**
+     * Makes room for at least one new entry. The eviction order is unspecified, but cheap.
+     */
+    private void evict() {
+        final Iterator<Key> iterator = cache.keySet().iterator();
+        while (cache.size() >= maxCacheSize && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private static String renderUncached(final Throwable thrown, final boolean includeCause) {
+        if (includeCause) {
+            final StringWriter stringWriter = new StringWriter();
+            final PrintWriter printWriter = new PrintWriter(stringWriter);
+            thrown.printStackTrace(printWriter);
+            return stringWriter.toString();
+        } else {
+            return renderFrames(thrown.getStackTrace());
+        }
+    }
+
+    /**
+     * Renders the given stack frames as {@code className.methodName(fileName:lineNumber)}, one per line.
+     */
+    static String renderFrames(final StackTraceElement[] stackTrace) {
+        final StringBuilder stackTraceBuilder = new StringBuilder(stackTrace.length * 80);
+        for (StackTraceElement stackTraceElement : stackTrace) {
+            stackTraceBuilder.append(stackTraceElement.getClassName())
+                    .append('.')
+                    .append(stackTraceElement.getMethodName())
+                    .append('(')
+                    .append(stackTraceElement.getFileName())
+                    .append(':')
+                    .append(stackTraceElement.getLineNumber())
+                    .append(')')
+                    .append(LINE_SEPARATOR);
+        }
+        return stackTraceBuilder.toString();
+    }
+
+    /**
+     * Identifies the rendered form of an exception: the classes, messages and stack frames of all exceptions which
+     * show up in the rendered stack trace.
+     */
+    private static final class Key {
+        private static final Object SUPPRESSED = new Object();
+        private static final Object CAUSE = new Object();
+
+        private final boolean includeCause;
+        private final Object[] parts;
+        private final int hashCode;
+
+        Key(final Throwable thrown, final boolean includeCause) {
+            this.includeCause = includeCause;
+            if (includeCause) {
+                final List<Object> parts = new ArrayList<>();
+                collect(thrown, parts, Collections.newSetFromMap(new IdentityHashMap<Throwable, Boolean>()));
+                this.parts = parts.toArray();
+            } else {
+                // The simple rendering only contains the frames, so the message doesn't matter
+                this.parts = new Object[]{thrown.getClass(), thrown.getStackTrace()};
+            }
+            this.hashCode = 31 * Arrays.deepHashCode(this.parts) + (includeCause ? 1 : 0);
+        }
+
+        private static void collect(final Throwable thrown, final List<Object> parts, final Set<Throwable> seen) {
+            if (!seen.add(thrown)) {
+                // Circular reference, just mark the position
+                parts.add(thrown.getClass());
+                return;
+            }
+
+            parts.add(thrown.getClass());
+            parts.add(thrown.getLocalizedMessage());
+            parts.add(thrown.getStackTrace());
+            for (Throwable suppressed : thrown.getSuppressed()) {
+                parts.add(SUPPRESSED);
+                collect(suppressed, parts, seen);
+            }
+
+            final Throwable cause = thrown.getCause();
+            if (cause != null) {
+                parts.add(CAUSE);
+                collect(cause, parts, seen);
+            }
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            final Key key = (Key) o;
+            return hashCode == key.hashCode && includeCause == key.includeCause && Arrays.deepEquals(parts, key.parts);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package org.graylog2.log4j2;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter which spreads concurrent updates over several cache lines, similar to {@code LongAdder} of Java 8.
+ * <p>
+ * Updates are cheap and don't contend, reading the value sums up all stripes and is therefore comparably expensive.
+ */
+final class StripedCounter {
+    // 8 longs = 64 bytes, so that every stripe has a cache line on its own
+    static final int PADDING = 8;
+    static final int STRIPES = stripes();
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    void increment() {
+        add(1L);
+    }
+
+    void add(final long delta) {
+        cells.getAndAdd(stripe() * PADDING, delta);
+    }
+
+    long get() {
+        long sum = 0L;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    /**
+     * @return the stripe of the current thread
+     */
+    static int stripe() {
+        // Thread IDs are assigned sequentially, so they distribute nicely over the stripes
+        final long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 16)) & (STRIPES - 1);
+    }
+
+    private static int stripes() {
+        final int processors = Math.min(64, Runtime.getRuntime().availableProcessors());
+        int stripes = 1;
+        while (stripes < processors) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+}
@@ -0,0 +1,152 @@
+package org.graylog2.log4j2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Rules for mapping the keys of the {@link org.apache.logging.log4j.ThreadContext} to GELF fields.
+ * <p>
+ * Keys can be included and excluded by name or by prefix (a name ending with {@code *}); excludes win over includes.
+ * The remaining keys can be renamed. The rules are parsed once at configuration time and the decision for each key is
+ * cached together with the already encoded JSON field name, so that the per-event cost is a single map lookup.
+ */
+final class ThreadContextFields {
+    /**
+     * Includes all keys under their own name.
+     */
+    static final ThreadContextFields ALL = new ThreadContextFields(Collections.<String>emptySet(),
+            Collections.<String>emptyList(), Collections.<String>emptySet(), Collections.<String>emptyList(),
+            Collections.<String, String>emptyMap());
+
+    private static final int MAX_CACHE_SIZE = 1024;
+    private static final byte[] EXCLUDED = new byte[0];
+
+    private final Set<String> includes;
+    private final String[] includePrefixes;
+    private final Set<String> excludes;
+    private final String[] excludePrefixes;
+    private final Map<String, String> renames;
+    private final ConcurrentMap<String, byte[]> fieldNames = new ConcurrentHashMap<>();
+
+    private ThreadContextFields(final Set<String> includes, final List<String> includePrefixes,
+                                final Set<String> excludes, final List<String> excludePrefixes,
+                                final Map<String, String> renames) {
+        this.includes = includes;
+        this.includePrefixes = includePrefixes.toArray(new String[includePrefixes.size()]);
+        this.excludes = excludes;
+        this.excludePrefixes = excludePrefixes.toArray(new String[excludePrefixes.size()]);
+        this.renames = renames;
+    }
+
+    /**
+     * @param includes a comma-separated list of keys to include or {@code null} to include all keys
+     * @param excludes a comma-separated list of keys to exclude or {@code null}
+     * @param renames  a comma-separated list of {@code key=field} pairs or {@code null}
+     */
+    static ThreadContextFields parse(final String includes, final String excludes, final String renames) {
+        final Set<String> includeNames = new HashSet<>();
+        final List<String> includePrefixes = new ArrayList<>();
+        split(includes, includeNames, includePrefixes);
+        final Set<String> excludeNames = new HashSet<>();
+        final List<String> excludePrefixes = new ArrayList<>();
+        split(excludes, excludeNames, excludePrefixes);
+
+        final Map<String, String> renameMap = new HashMap<>();
+        if (renames != null) {
+            for (String entry : renames.split(",")) {
+                final int separator = entry.indexOf('=');
+                if (separator > 0 && !entry.substring(separator + 1).trim().isEmpty()) {
+                    renameMap.put(entry.substring(0, separator).trim(), entry.substring(separator + 1).trim());
+                }
+            }
+        }
+        return new ThreadContextFields(includeNames, includePrefixes, excludeNames, excludePrefixes, renameMap);
+    }
+
+    private static void split(final String list, final Set<String> names, final List<String> prefixes) {
+        if (list == null) {
+            return;
+        }
+        for (String entry : list.split(",")) {
+            final String name = entry.trim();
+            if (name.endsWith("*")) {
+                prefixes.add(name.substring(0, name.length() - 1));
+            } else if (!name.isEmpty()) {
+                names.add(name);
+            }
+        }
+    }
+
+    /**
+     * @return the name of the GELF field for the given key or {@code null} if the key is excluded
+     */
+    String fieldName(final String key) {
+        if (!isIncluded(key)) {
+            return null;
+        }
+        final String rename = renames.get(key);
+        return rename == null ? key : rename;
+    }
+
+    /**
+     * @return the UTF-8 encoded JSON field name for the given key including the leading comma and the trailing colon,
+     * e. g. {@code ,"_key":}, or {@code null} if the key is excluded
+     */
+    byte[] encodedFieldName(final String key) {
+        byte[] encoded = fieldNames.get(key);
+        if (encoded == null) {
+            final String fieldName = fieldName(key);
+            encoded = fieldName == null ? EXCLUDED : encode(fieldName);
+            // The keys of the thread context are usually a small, fixed set, but don't grow without bounds otherwise
+            if (fieldNames.size() < MAX_CACHE_SIZE) {
+                fieldNames.put(key, encoded);
+            }
+        }
+        return encoded == EXCLUDED ? null : encoded;
+    }
+
+    private boolean isIncluded(final String key) {
+        if (excludes.contains(key) || startsWithAny(key, excludePrefixes)) {
+            return false;
+        }
+        if (includes.isEmpty() && includePrefixes.length == 0) {
+            return true;
+        }
+        return includes.contains(key) || startsWithAny(key, includePrefixes);
+    }
+
+    private static boolean startsWithAny(final String key, final String[] prefixes) {
+        for (String prefix : prefixes) {
+            if (key.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] encode(final String fieldName) {
+        final GelfOutputBuffer buffer = new GelfOutputBuffer(fieldName.length() + 8);
+        buffer.append((byte) ',').append((byte) '"');
+        if (!fieldName.startsWith("_")) {
+            buffer.append((byte) '_');
+        }
+        buffer.appendJsonStringContent(fieldName, 0, fieldName.length());
+        buffer.append((byte) '"').append((byte) ':');
+        return buffer.toByteArray();
+    }
+
+    @Override
+    public String toString() {
+        return "includes=" + includes + ",includePrefixes=" + Arrays.toString(includePrefixes)
+                + ",excludes=" + excludes + ",excludePrefixes=" + Arrays.toString(excludePrefixes)
+                + ",renames=" + renames;
+    }
+}
@@ -0,0 +1,261 @@
+package org.graylog2.log4j2;
+
+import org.graylog2.gelfclient.GelfConfiguration;
+import org.graylog2.gelfclient.GelfMessageBuilder;
+import org.graylog2.gelfclient.GelfTransports;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.core.StringContains.containsString;
+import static org.junit.Assert.assertThat;
+
+public class BatchingTcpTransportTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private ServerSocket serverSocket;
+    private BatchingTcpTransport transport;
+
+    @Before
+    public void setUp() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        serverSocket.setSoTimeout(5000);
+        final GelfConfiguration configuration = new GelfConfiguration(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort()))
+                .transport(GelfTransports.TCP)
+                .queueSize(512)
+                .reconnectDelay(10);
+        transport = new BatchingTcpTransport(configuration, 64 * 1024, 60000L, OverflowPolicy.dropNewest(), null);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        transport.stop();
+        serverSocket.close();
+    }
+
+    @Test
+    public void shouldWriteNullDelimitedFramesOnFlush() throws IOException {
+        // given
+        final byte[] frame = "{\"short_message\":\"test\"}".getBytes(StandardCharsets.UTF_8);
+
+        // when
+        for (int i = 0; i < 10; i++) {
+            assertThat(transport.trySend(frame, 0, frame.length, 6), is(true));
+        }
+        transport.flush();
+
+        // then
+        try (Socket socket = serverSocket.accept()) {
+            final List<String> frames = readFrames(socket.getInputStream(), 10);
+            assertThat(frames.size(), is(10));
+            assertThat(frames.get(9), is("{\"short_message\":\"test\"}"));
+        }
+    }
+
+    @Test
+    public void shouldEncodeGelfMessages() throws IOException {
+        // when
+        transport.trySend(new GelfMessageBuilder("Hello World", "host").build());
+        transport.flush();
+
+        // then
+        try (Socket socket = serverSocket.accept()) {
+            final List<String> frames = readFrames(socket.getInputStream(), 1);
+            assertThat(frames.get(0), containsString("\"short_message\":\"Hello World\""));
+        }
+    }
+
+    @Test
+    public void shouldSpillFramesDuringOutageAndReplayThemInOrder() throws IOException, InterruptedException {
+        // given
+        final int port = serverSocket.getLocalPort();
+        serverSocket.close();
+        final GelfConfiguration configuration = new GelfConfiguration(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port))
+                .transport(GelfTransports.TCP)
+                .queueSize(2)
+                .reconnectDelay(50);
+        final DiskSpillBuffer spill = new DiskSpillBuffer(temporaryFolder.getRoot(), 4096, 4, 0L,
+                new GelfMetrics());
+        final BatchingTcpTransport spillingTransport = new BatchingTcpTransport(configuration, 0, 0L,
+                OverflowPolicy.dropNewest(), spill);
+
+        try {
+            // when
+            for (int i = 0; i < 20; i++) {
+                final byte[] frame = ("{\"short_message\":\"" + i + "\"}").getBytes(StandardCharsets.UTF_8);
+                assertThat(spillingTransport.trySend(frame, 0, frame.length, 6), is(true));
+            }
+            Thread.sleep(100L);
+            serverSocket = new ServerSocket();
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            serverSocket.setSoTimeout(5000);
+
+            // then
+            try (Socket socket = serverSocket.accept()) {
+                final List<String> frames = readFrames(socket.getInputStream(), 20);
+                assertThat(frames.size(), is(20));
+                for (int i = 0; i < 20; i++) {
+                    assertThat(frames.get(i), is("{\"short_message\":\"" + i + "\"}"));
+                }
+            }
+            assertThat(spill.getSpilled() > 0L, is(true));
+        } finally {
+            spillingTransport.stop();
+        }
+    }
+
+    @Test
+    public void shouldKeepReplayedErrorsWhenDebugMessagesFillTheQueue() throws IOException, InterruptedException {
+        // given
+        final GelfConfiguration configuration = new GelfConfiguration(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort()))
+                .transport(GelfTransports.TCP)
+                .queueSize(4)
+                .reconnectDelay(10);
+        final OverflowPolicy policy = new OverflowPolicy(OverflowPolicy.Type.DROP_OLDEST, 0L, 0, true,
+                new GelfMetrics());
+        final DiskSpillBuffer spill = new DiskSpillBuffer(temporaryFolder.getRoot(), 4096, 4, 0L,
+                new GelfMetrics());
+        final byte[] error = "{\"short_message\":\"error\"}".getBytes(StandardCharsets.UTF_8);
+        assertThat(spill.append(error, 0, error.length, 3), is(true));
+        final BatchingTcpTransport spillingTransport = new BatchingTcpTransport(configuration, 64 * 1024, 60000L,
+                policy, spill);
+
+        try {
+            while (!spill.isEmpty()) {
+                Thread.sleep(10L);
+            }
+
+            // when
+            // Larger than a spill segment, so that the frames can only be queued in memory
+            final StringBuilder debug = new StringBuilder("{\"short_message\":\"debug");
+            while (debug.length() < 5000) {
+                debug.append('.');
+            }
+            final byte[] frame = debug.append("\"}").toString().getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i < 8; i++) {
+                spillingTransport.trySend(frame, 0, frame.length, 7);
+            }
+            spillingTransport.flush();
+
+            // then
+            try (Socket socket = serverSocket.accept()) {
+                final List<String> frames = readFrames(socket.getInputStream(), 1);
+                assertThat(frames.get(0), is("{\"short_message\":\"error\"}"));
+            }
+            assertThat(policy.getMetrics().getDropped(GelfDropReason.DROPPED_OLDEST) > 0L, is(true));
+        } finally {
+            spillingTransport.stop();
+        }
+    }
+
+    @Test
+    public void shouldSendQueuedFramesWhenDraining() throws IOException {
+        // given
+        final byte[] frame = "{\"short_message\":\"test\"}".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < 10; i++) {
+            assertThat(transport.trySend(frame, 0, frame.length, 6), is(true));
+        }
+
+        // when
+        final int abandoned = transport.drainAndStop(TimeUnit.SECONDS.toNanos(5L));
+
+        // then
+        assertThat(abandoned, is(0));
+        assertThat(transport.queueSize(), is(0));
+        try (Socket socket = serverSocket.accept()) {
+            final List<String> frames = readFrames(socket.getInputStream(), 10);
+            assertThat(frames.size(), is(10));
+        }
+    }
+
+    @Test
+    public void shouldAbandonFramesIfServerIsUnreachableUntilDeadline() throws IOException {
+        // given
+        final int port = serverSocket.getLocalPort();
+        serverSocket.close();
+        final GelfConfiguration configuration = new GelfConfiguration(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port))
+                .transport(GelfTransports.TCP)
+                .queueSize(512)
+                .reconnectDelay(10);
+        final BatchingTcpTransport unreachable = new BatchingTcpTransport(configuration, 0, 0L,
+                OverflowPolicy.dropNewest(), null);
+        final byte[] frame = "{\"short_message\":\"test\"}".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < 5; i++) {
+            assertThat(unreachable.trySend(frame, 0, frame.length, 6), is(true));
+        }
+
+        // when
+        final long start = System.nanoTime();
+        final int abandoned = unreachable.drainAndStop(TimeUnit.MILLISECONDS.toNanos(200L));
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // then
+        assertThat(abandoned, is(5));
+        assertThat(elapsedMillis >= 150L && elapsedMillis < 2000L, is(true));
+    }
+
+    @Test
+    public void shouldCountBatchBeingRetriedAsAbandoned() throws IOException, InterruptedException {
+        // given
+        final int port = serverSocket.getLocalPort();
+        serverSocket.close();
+        final GelfConfiguration configuration = new GelfConfiguration(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port))
+                .transport(GelfTransports.TCP)
+                .queueSize(512)
+                .reconnectDelay(10);
+        final BatchingTcpTransport unreachable = new BatchingTcpTransport(configuration, 64 * 1024, 60000L,
+                OverflowPolicy.dropNewest(), null);
+        final byte[] frame = "{\"short_message\":\"test\"}".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < 10; i++) {
+            assertThat(unreachable.trySend(frame, 0, frame.length, 6), is(true));
+        }
+        unreachable.flush();
+        while (unreachable.isConnected()) {
+            Thread.sleep(5L);
+        }
+
+        // when
+        final int abandoned = unreachable.drainAndStop(TimeUnit.MILLISECONDS.toNanos(100L));
+
+        // then
+        assertThat(abandoned, is(10));
+        assertThat(unreachable.queueSize(), is(0));
+    }
+
+    static List<String> readFrames(final InputStream inputStream, final int count) throws IOException {
+        final List<String> frames = new ArrayList<>();
+        final ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        int b;
+        while (frames.size() < count && (b = inputStream.read()) != -1) {
+            if (b == 0) {
+                frames.add(new String(frame.toByteArray(), StandardCharsets.UTF_8));
+                frame.reset();
+            } else {
+                frame.write(b);
+            }
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,118 @@
+package org.graylog2.log4j2;
+
+import org.graylog2.gelfclient.GelfConfiguration;
+import org.graylog2.gelfclient.GelfTransports;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ChunkedUdpTransportTest {
+    private DatagramSocket socket;
+    private GelfConfiguration configuration;
+    private ChunkedUdpTransport transport;
+
+    @Before
+    public void setUp() throws IOException {
+        socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        socket.setSoTimeout(5000);
+        configuration = new GelfConfiguration(new InetSocketAddress(InetAddress.getLoopbackAddress(), socket.getLocalPort()))
+                .transport(GelfTransports.UDP)
+                .queueSize(512);
+    }
+
+    @After
+    public void tearDown() {
+        if (transport != null) {
+            transport.stop();
+        }
+        socket.close();
+    }
+
+    @Test
+    public void shouldSendSmallMessagesUncompressedBelowThreshold() throws IOException {
+        // given
+        transport = new ChunkedUdpTransport(configuration, new GelfCompressor(GelfCompression.GZIP, 6, 1024, 1),
+                OverflowPolicy.dropNewest(), null);
+        final byte[] message = "{\"short_message\":\"test\"}".getBytes(StandardCharsets.UTF_8);
+
+        // when
+        transport.trySend(message, 0, message.length, 6);
+
+        // then
+        assertThat(receive(), is(message));
+    }
+
+    @Test
+    public void shouldCompressMessagesAboveThreshold() throws IOException {
+        // given
+        transport = new ChunkedUdpTransport(configuration, new GelfCompressor(GelfCompression.GZIP, 6, 10, 1),
+                OverflowPolicy.dropNewest(), null);
+        final byte[] message = "{\"short_message\":\"test\"}".getBytes(StandardCharsets.UTF_8);
+
+        // when
+        transport.trySend(message, 0, message.length, 6);
+
+        // then
+        final byte[] datagram = receive();
+        assertThat(datagram[0], is((byte) 0x1f));
+        assertThat(datagram[1], is((byte) 0x8b));
+        assertThat(gunzip(datagram), is(message));
+    }
+
+    @Test
+    public void shouldChunkLargeMessages() throws IOException {
+        // given
+        transport = new ChunkedUdpTransport(configuration, new GelfCompressor(GelfCompression.NONE, 6, 0, 1),
+                OverflowPolicy.dropNewest(), null);
+        final byte[] message = new byte[10000];
+        Arrays.fill(message, (byte) 'a');
+
+        // when
+        transport.trySend(message, 0, message.length, 6);
+
+        // then
+        final ByteArrayOutputStream reassembled = new ByteArrayOutputStream();
+        final int expectedChunks = 8;
+        for (int i = 0; i < expectedChunks; i++) {
+            final byte[] chunk = receive();
+            assertThat(chunk[0], is((byte) 0x1e));
+            assertThat(chunk[1], is((byte) 0x0f));
+            assertThat(chunk[10], is((byte) i));
+            assertThat(chunk[11], is((byte) expectedChunks));
+            reassembled.write(chunk, 12, chunk.length - 12);
+        }
+        assertThat(reassembled.toByteArray(), is(message));
+    }
+
+    private byte[] receive() throws IOException {
+        final DatagramPacket packet = new DatagramPacket(new byte[ChunkedUdpTransport.MAX_DATAGRAM_SIZE], ChunkedUdpTransport.MAX_DATAGRAM_SIZE);
+        socket.receive(packet);
+        return Arrays.copyOf(packet.getData(), packet.getLength());
+    }
+
+    private static byte[] gunzip(final byte[] compressed) throws IOException {
+        try (GZIPInputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.graylog2.log4j2;
+
+import org.graylog2.gelfclient.GelfMessage;
+import org.graylog2.gelfclient.transport.GelfTransport;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+public class DeferredTransportTest {
+    @Test
+    public void shouldBufferMessagesUntilDelegateIsCreated() throws Exception {
+        // given
+        final CountDownLatch latch = new CountDownLatch(1);
+        final GelfTransport delegate = mock(GelfTransport.class);
+        given(delegate.trySend(any(GelfMessage.class))).willReturn(true);
+        final DeferredTransport transport = new DeferredTransport(new Callable<GelfTransport>() {
+            @Override
+            public GelfTransport call() throws InterruptedException {
+                latch.await();
+                return delegate;
+            }
+        }, 10, 10L, OverflowPolicy.dropNewest());
+        final GelfMessage first = new GelfMessage("first");
+        final GelfMessage second = new GelfMessage("second");
+
+        // when
+        final boolean sent = transport.trySend(first);
+
+        // then
+        assertThat(sent, is(true));
+        assertThat(transport.isStarted(), is(false));
+        assertThat(transport.queueSize(), is(1));
+
+        // when
+        latch.countDown();
+        verify(delegate, timeout(5000L)).trySend(first);
+        transport.trySend(second);
+
+        // then
+        assertThat(transport.isStarted(), is(true));
+        verify(delegate).trySend(second);
+        transport.stop();
+        verify(delegate).stop();
+    }
+
+    @Test
+    public void shouldApplyOverflowPolicyWhileBuffering() {
+        // given
+        final OverflowPolicy policy = OverflowPolicy.dropNewest();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final DeferredTransport transport = new DeferredTransport(new Callable<GelfTransport>() {
+            @Override
+            public GelfTransport call() throws InterruptedException {
+                latch.await();
+                return mock(GelfTransport.class);
+            }
+        }, 1, 10L, policy);
+
+        // when
+        final boolean first = transport.trySend(new GelfMessage("first"));
+        final boolean second = transport.trySend(new GelfMessage("second"));
+
+        // then
+        assertThat(first, is(true));
+        assertThat(second, is(false));
+        assertThat(policy.getDroppedNewest(), is(1L));
+        transport.stop();
+    }
+
+    @Test
+    public void shouldRetryCreatingDelegate() throws Exception {
+        // given
+        final AtomicInteger attempts = new AtomicInteger();
+        final GelfTransport delegate = mock(GelfTransport.class);
+        final CountDownLatch created = new CountDownLatch(1);
+
+        // when
+        final DeferredTransport transport = new DeferredTransport(new Callable<GelfTransport>() {
+            @Override
+            public GelfTransport call() throws IOException {
+                if (attempts.incrementAndGet() < 3) {
+                    throw new IOException("Unknown host");
+                }
+                created.countDown();
+                return delegate;
+            }
+        }, 10, 1L, OverflowPolicy.dropNewest());
+
+        // then
+        assertTrue(created.await(5L, TimeUnit.SECONDS));
+        assertThat(attempts.get(), is(3));
+        transport.stop();
+    }
+
+    @Test
+    public void shouldAbandonBufferedMessagesIfDelegateWasNeverCreated() {
+        // given
+        final CountDownLatch latch = new CountDownLatch(1);
+        final DeferredTransport transport = new DeferredTransport(new Callable<GelfTransport>() {
+            @Override
+            public GelfTransport call() throws InterruptedException {
+                latch.await();
+                return mock(GelfTransport.class);
+            }
+        }, 4, 10L, OverflowPolicy.dropNewest());
+        transport.trySend(new GelfMessage("first"));
+        transport.trySend(new GelfMessage("second"));
+
+        // when
+        final int abandoned = transport.drainAndStop(TimeUnit.MILLISECONDS.toNanos(100L));
+
+        // then
+        assertThat(abandoned, is(2));
+        assertThat(transport.queueSize(), is(0));
+    }
+}
@@ -0,0 +1,175 @@
+package org.graylog2.log4j2;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class DiskSpillBufferTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final GelfMetrics metrics = new GelfMetrics();
+
+    @Test
+    public void shouldReplayFramesInOrder() throws IOException {
+        // given
+        final DiskSpillBuffer spill = new DiskSpillBuffer(temporaryFolder.getRoot(), 4096, 4, 0L, metrics);
+        append(spill, "first");
+        append(spill, "second");
+
+        // when
+        final String first = take(spill);
+        final String second = take(spill);
+
+        // then
+        assertThat(first, is("first"));
+        assertThat(second, is("second"));
+        assertThat(spill.isEmpty(), is(true));
+        assertThat(spill.getReplayed(), is(2L));
+        spill.close();
+    }
+
+    @Test
+    public void shouldKeepFrameUntilCommitted() throws IOException {
+        // given
+        final DiskSpillBuffer spill = new DiskSpillBuffer(temporaryFolder.getRoot(), 4096, 4, 0L, metrics);
+        append(spill, "frame");
+        final GelfOutputBuffer buffer = new GelfOutputBuffer(16);
+
+        // when
+        spill.peek(buffer);
+        spill.peek(buffer);
+
+        // then
+        assertThat(buffer.toString(), is("frame"));
+        assertThat(spill.size(), is(1L));
+        spill.close();
+    }
+
+    @Test
+    public void shouldRecoverFramesAfterRestart() throws IOException {
+        // given
+        final File directory = temporaryFolder.getRoot();
+        final DiskSpillBuffer spill = new DiskSpillBuffer(directory, 4096, 4, 0L, metrics);
+        append(spill, "first");
+        append(spill, "second");
+        append(spill, "third");
+        take(spill);
+        spill.close();
+
+        // when
+        final DiskSpillBuffer recovered = new DiskSpillBuffer(directory, 4096, 4, 0L, metrics);
+
+        // then
+        assertThat(recovered.size(), is(2L));
+        assertThat(take(recovered), is("second"));
+        assertThat(take(recovered), is("third"));
+        recovered.close();
+    }
+
+    @Test
+    public void shouldKeepSeverityOfFramesAfterRestart() throws IOException {
+        // given
+        final File directory = temporaryFolder.getRoot();
+        final DiskSpillBuffer spill = new DiskSpillBuffer(directory, 4096, 4, 0L, metrics);
+        append(spill, "error", 3);
+        append(spill, "debug", 7);
+        spill.close();
+
+        // when
+        final DiskSpillBuffer recovered = new DiskSpillBuffer(directory, 4096, 4, 0L, metrics);
+        final GelfOutputBuffer buffer = new GelfOutputBuffer(16);
+
+        // then
+        assertThat(recovered.peek(buffer), is(true));
+        assertThat(recovered.peekedSeverity(), is(3));
+        recovered.commit();
+        assertThat(recovered.peek(buffer), is(true));
+        assertThat(recovered.peekedSeverity(), is(7));
+        recovered.close();
+    }
+
+    @Test
+    public void shouldDiscardOldestSegmentWhenFull() throws IOException {
+        // given
+        final DiskSpillBuffer spill = new DiskSpillBuffer(temporaryFolder.getRoot(), 4096, 2, 0L, metrics);
+        final String frame = new String(new char[1000]).replace('\0', 'x');
+
+        // when
+        for (int i = 0; i < 12; i++) {
+            append(spill, i + frame);
+        }
+
+        // then
+        assertThat(spill.getDropped(), is(4L));
+        assertThat(metrics.getDropped(GelfDropReason.SPILL_OVERFLOW), is(4L));
+        assertThat(spill.size(), is(8L));
+        assertThat(take(spill), is(4 + frame));
+        spill.close();
+    }
+
+    @Test
+    public void shouldSkipExpiredFrames() throws Exception {
+        // given
+        final DiskSpillBuffer spill = new DiskSpillBuffer(temporaryFolder.getRoot(), 4096, 4, 10L, metrics);
+        append(spill, "expired");
+        Thread.sleep(50L);
+        append(spill, "fresh");
+
+        // when
+        final String frame = take(spill);
+
+        // then
+        assertThat(frame, is("fresh"));
+        assertThat(spill.getExpired(), is(1L));
+        assertThat(metrics.getDropped(GelfDropReason.SPILL_EXPIRED), is(1L));
+        spill.close();
+    }
+
+    @Test
+    public void shouldRejectFramesLargerThanSegment() throws IOException {
+        // given
+        final DiskSpillBuffer spill = new DiskSpillBuffer(temporaryFolder.getRoot(), 4096, 4, 0L, metrics);
+        final byte[] frame = new byte[8192];
+
+        // when
+        final boolean spilled = spill.append(frame, 0, frame.length, 6);
+
+        // then
+        assertThat(spilled, is(false));
+        spill.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldLockDirectory() throws IOException {
+        final DiskSpillBuffer spill = new DiskSpillBuffer(temporaryFolder.getRoot(), 4096, 4, 0L, metrics);
+        try {
+            new DiskSpillBuffer(temporaryFolder.getRoot(), 4096, 4, 0L, metrics);
+        } finally {
+            spill.close();
+        }
+    }
+
+    private static void append(final DiskSpillBuffer spill, final String frame) {
+        append(spill, frame, 6);
+    }
+
+    private static void append(final DiskSpillBuffer spill, final String frame, final int severity) {
+        final byte[] bytes = frame.getBytes(StandardCharsets.UTF_8);
+        assertThat(spill.append(bytes, 0, bytes.length, severity), is(true));
+    }
+
+    private static String take(final DiskSpillBuffer spill) {
+        final GelfOutputBuffer buffer = new GelfOutputBuffer(16);
+        assertThat(spill.peek(buffer), is(true));
+        spill.commit();
+        return buffer.toString();
+    }
+}
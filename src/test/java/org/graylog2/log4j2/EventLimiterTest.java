@@ -0,0 +1,102 @@
+package org.graylog2.log4j2;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class EventLimiterTest {
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1L);
+
+    private GelfMetrics metrics;
+
+    @Before
+    public void setUp() {
+        metrics = new GelfMetrics();
+    }
+
+    @Test
+    public void shouldLimitRatePerLoggerAndLevel() {
+        // given
+        final EventLimiter limiter = new EventLimiter(10d, 2, 1d, Level.INFO, 0L, metrics);
+        final LogEvent event = createLogEvent("a", Level.ERROR, "message");
+
+        // when
+        final long first = limiter.acquire(event, 0L);
+        final long second = limiter.acquire(event, 0L);
+        final long third = limiter.acquire(event, 0L);
+        final long otherLogger = limiter.acquire(createLogEvent("b", Level.ERROR, "message"), 0L);
+        final long otherLevel = limiter.acquire(createLogEvent("a", Level.WARN, "message"), 0L);
+        final long later = limiter.acquire(event, 100L * MILLIS);
+
+        // then
+        assertThat(first, is(0L));
+        assertThat(second, is(0L));
+        assertThat(third, is(EventLimiter.DISCARD));
+        assertThat(otherLogger, is(0L));
+        assertThat(otherLevel, is(0L));
+        assertThat(later, is(0L));
+        assertThat(metrics.getDropped(GelfDropReason.RATE_LIMITED), is(1L));
+    }
+
+    @Test
+    public void shouldOnlySampleEventsAtOrBelowSamplingLevel() {
+        // given
+        final EventLimiter limiter = new EventLimiter(0d, 1, 0d, Level.INFO, 0L, metrics);
+
+        // when
+        final long debug = limiter.acquire(createLogEvent("a", Level.DEBUG, "message"), 0L);
+        final long info = limiter.acquire(createLogEvent("a", Level.INFO, "message"), 0L);
+        final long warn = limiter.acquire(createLogEvent("a", Level.WARN, "message"), 0L);
+
+        // then
+        assertThat(debug, is(EventLimiter.DISCARD));
+        assertThat(info, is(EventLimiter.DISCARD));
+        assertThat(warn, is(0L));
+        assertThat(metrics.getDropped(GelfDropReason.SAMPLED), is(2L));
+    }
+
+    @Test
+    public void shouldCollapseDuplicatesWithinWindow() {
+        // given
+        final EventLimiter limiter = new EventLimiter(0d, 1, 1d, Level.INFO, 1000L, metrics);
+
+        // when
+        final long first = limiter.acquire(createLogEvent("a", Level.ERROR, "broken"), 0L);
+        final long duplicate1 = limiter.acquire(createLogEvent("a", Level.ERROR, "broken"), 10L * MILLIS);
+        final long duplicate2 = limiter.acquire(createLogEvent("a", Level.ERROR, "broken"), 20L * MILLIS);
+        final long different = limiter.acquire(createLogEvent("a", Level.ERROR, "other"), 30L * MILLIS);
+        final long afterWindow = limiter.acquire(createLogEvent("a", Level.ERROR, "broken"), 1000L * MILLIS);
+        final long nextWindow = limiter.acquire(createLogEvent("a", Level.ERROR, "broken"), 2000L * MILLIS);
+
+        // then
+        assertThat(first, is(0L));
+        assertThat(duplicate1, is(EventLimiter.DISCARD));
+        assertThat(duplicate2, is(EventLimiter.DISCARD));
+        assertThat(different, is(0L));
+        assertThat(afterWindow, is(2L));
+        assertThat(nextWindow, is(0L));
+        assertThat(metrics.getDropped(GelfDropReason.DUPLICATE), is(2L));
+    }
+
+    @Test
+    public void shouldBeDisabledWithoutStages() {
+        assertThat(new EventLimiter(0d, 1, 1d, Level.INFO, 0L, metrics).isEnabled(), is(false));
+        assertThat(new EventLimiter(1d, 1, 1d, Level.INFO, 0L, metrics).isEnabled(), is(true));
+    }
+
+    private static LogEvent createLogEvent(final String loggerName, final Level level, final String message) {
+        return Log4jLogEvent.newBuilder()
+                .setLoggerName(loggerName)
+                .setLevel(level)
+                .setMessage(new SimpleMessage(message))
+                .build();
+    }
+}
@@ -0,0 +1,142 @@
+package org.graylog2.log4j2;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class EventRingBufferTest {
+    private EventRingBuffer ringBuffer;
+
+    @After
+    public void tearDown() {
+        if (ringBuffer != null) {
+            ringBuffer.stop(1L, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void shouldRoundUpCapacityToPowerOfTwo() {
+        // when
+        ringBuffer = new EventRingBuffer(100, 0, new RecordingHandler(), "test");
+
+        // then
+        assertThat(ringBuffer.capacity(), is(128));
+    }
+
+    @Test
+    public void shouldHandOverEventsOfAllProducersInOrder() throws Exception {
+        // given
+        final int producers = 4;
+        final int events = 10000;
+        final RecordingHandler handler = new RecordingHandler();
+        ringBuffer = new EventRingBuffer(64, 16, handler, "test");
+        ringBuffer.start();
+
+        // when
+        final Thread[] threads = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            final int producer = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int event = 0; event < events; event++) {
+                        EventRingBuffer.Slot slot;
+                        while ((slot = ringBuffer.claim()) == null) {
+                            Thread.yield();
+                        }
+                        slot.severity = producer;
+                        slot.repeatCount = event;
+                        ringBuffer.publish(slot);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        final int abandoned = ringBuffer.stop(5L, TimeUnit.SECONDS);
+
+        // then
+        assertThat(abandoned, is(0));
+        assertThat(handler.received.size(), is(producers * events));
+        final long[] next = new long[producers];
+        for (long[] event : handler.received) {
+            assertThat(event[1], is(next[(int) event[0]]++));
+        }
+        assertThat(handler.batches.get() > 0, is(true));
+        assertThat(ringBuffer.size(), is(0));
+    }
+
+    @Test
+    public void shouldRejectEventsIfFull() throws Exception {
+        // given
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingHandler handler = new RecordingHandler() {
+            @Override
+            public void onEvent(final EventRingBuffer.Slot slot) {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.onEvent(slot);
+            }
+        };
+        ringBuffer = new EventRingBuffer(2, 0, handler, "test");
+        ringBuffer.start();
+        ringBuffer.publish(ringBuffer.claim());
+        blocked.await();
+
+        // when
+        ringBuffer.publish(ringBuffer.claim());
+        final EventRingBuffer.Slot rejected = ringBuffer.claim();
+        release.countDown();
+
+        // then
+        assertThat(rejected, nullValue());
+        assertThat(ringBuffer.stop(5L, TimeUnit.SECONDS), is(0));
+        assertThat(handler.received.size(), is(2));
+    }
+
+    @Test
+    public void shouldRejectEventsAfterStop() {
+        // given
+        ringBuffer = new EventRingBuffer(4, 0, new RecordingHandler(), "test");
+        ringBuffer.start();
+        assertThat(ringBuffer.claim(), notNullValue());
+
+        // when
+        ringBuffer.stop(10L, TimeUnit.MILLISECONDS);
+
+        // then
+        assertThat(ringBuffer.claim(), nullValue());
+    }
+
+    private static class RecordingHandler implements EventRingBuffer.Handler {
+        private final List<long[]> received = new ArrayList<>();
+        private final AtomicInteger batches = new AtomicInteger();
+
+        @Override
+        public void onEvent(final EventRingBuffer.Slot slot) {
+            received.add(new long[]{slot.severity, slot.repeatCount});
+        }
+
+        @Override
+        public void onEndOfBatch() {
+            batches.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package org.graylog2.log4j2;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+
+public class ExceptionFingerprintsTest {
+    private static final StackTraceElement[] FRAMES = {
+            new StackTraceElement("com.example.Foo", "foo", "Foo.java", 10),
+            new StackTraceElement("com.example.Main", "main", "Main.java", 5)
+    };
+
+    @Test
+    public void shouldIgnoreMessagesButNotFrames() {
+        // given
+        final Throwable first = exception("first", FRAMES);
+        final Throwable second = exception("second", FRAMES);
+        final Throwable otherFrames = exception("first", new StackTraceElement[]{FRAMES[1]});
+
+        // when
+        final String fingerprint = ExceptionFingerprints.fingerprint(first, false);
+
+        // then
+        assertThat(fingerprint.length(), is(16));
+        assertThat(ExceptionFingerprints.fingerprint(second, false), is(fingerprint));
+        assertThat(ExceptionFingerprints.fingerprint(otherFrames, false), not(fingerprint));
+    }
+
+    @Test
+    public void shouldIncludeCausesIfRequested() {
+        // given
+        final Throwable first = exception("outer", FRAMES);
+        first.initCause(exception("inner", FRAMES));
+        final Throwable second = exception("outer", FRAMES);
+        second.initCause(new IllegalStateException("inner"));
+
+        // when
+        final String withoutCause = ExceptionFingerprints.fingerprint(first, false);
+        final String withCause = ExceptionFingerprints.fingerprint(first, true);
+
+        // then
+        assertThat(ExceptionFingerprints.fingerprint(second, false), is(withoutCause));
+        assertThat(ExceptionFingerprints.fingerprint(second, true), not(withCause));
+        assertThat(withCause, not(withoutCause));
+    }
+
+    @Test
+    public void shouldCountOccurrencesPerWindow() {
+        // given
+        final ExceptionFingerprints fingerprints = new ExceptionFingerprints(1000L, false);
+        final Throwable thrown = exception("test", FRAMES);
+        final long start = System.nanoTime();
+
+        // when
+        final ExceptionFingerprints.Occurrence first = fingerprints.record(thrown, start);
+        final ExceptionFingerprints.Occurrence second = fingerprints.record(thrown, start + 500000000L);
+        final ExceptionFingerprints.Occurrence afterWindow = fingerprints.record(thrown, start + 1000000000L);
+
+        // then
+        assertThat(first.isFirst(), is(true));
+        assertThat(second.isFirst(), is(false));
+        assertThat(second.getCount(), is(2L));
+        assertThat(second.getFingerprint(), is(first.getFingerprint()));
+        assertThat(afterWindow.isFirst(), is(true));
+        assertThat(fingerprints.size(), is(1));
+    }
+
+    private static Throwable exception(final String message, final StackTraceElement[] frames) {
+        final Throwable thrown = new RuntimeException(message);
+        thrown.setStackTrace(frames);
+        return thrown;
+    }
+}
@@ -0,0 +1,253 @@
+package org.graylog2.log4j2;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class FrameBatchQueueTest {
+    private static final byte[] FRAME = "{\"short_message\":\"test\"}".getBytes(StandardCharsets.UTF_8);
+    private static final int ERROR = 3;
+    private static final int INFO = 6;
+    private static final int DEBUG = 7;
+
+    @Test
+    public void shouldSealBatchWhenBatchSizeIsReached() throws InterruptedException {
+        // given
+        final FrameBatchQueue queue = new FrameBatchQueue(2 * (FRAME.length + 1), 60000L, 100,
+                OverflowPolicy.dropNewest());
+
+        // when
+        for (int i = 0; i < 3; i++) {
+            queue.offer(FRAME, 0, FRAME.length, INFO);
+        }
+        final FrameBatchQueue.Batch batch = queue.take();
+
+        // then
+        assertThat(batch.count(), is(2));
+        assertThat(batch.size(), is(2 * (FRAME.length + 1)));
+        assertThat(batch.array()[FRAME.length], is((byte) 0));
+        assertThat(queue.size(), is(3));
+        queue.release(batch);
+        assertThat(queue.size(), is(1));
+    }
+
+    @Test
+    public void shouldSealBatchOnFlush() throws InterruptedException {
+        // given
+        final FrameBatchQueue queue = new FrameBatchQueue(1024, 60000L, 100, OverflowPolicy.dropNewest());
+        queue.offer(FRAME, 0, FRAME.length, INFO);
+
+        // when
+        queue.flush();
+        final FrameBatchQueue.Batch batch = queue.take();
+
+        // then
+        assertThat(batch.count(), is(1));
+    }
+
+    @Test
+    public void shouldSealBatchAfterLingerTime() throws InterruptedException {
+        // given
+        final FrameBatchQueue queue = new FrameBatchQueue(1024, 10L, 100, OverflowPolicy.dropNewest());
+        queue.offer(FRAME, 0, FRAME.length, INFO);
+        queue.offer(FRAME, 0, FRAME.length, INFO);
+
+        // when
+        final FrameBatchQueue.Batch batch = queue.take();
+
+        // then
+        assertThat(batch.count(), is(2));
+    }
+
+    @Test
+    public void shouldAcceptFramesLargerThanBatchSize() throws InterruptedException {
+        // given
+        final FrameBatchQueue queue = new FrameBatchQueue(4, 60000L, 100, OverflowPolicy.dropNewest());
+
+        // when
+        queue.offer(FRAME, 0, FRAME.length, INFO);
+        final FrameBatchQueue.Batch batch = queue.take();
+
+        // then
+        assertThat(batch.count(), is(1));
+        assertThat(batch.size(), is(FRAME.length + 1));
+    }
+
+    @Test
+    public void shouldRejectFramesWhenFull() {
+        // given
+        final FrameBatchQueue queue = new FrameBatchQueue(1024, 60000L, 2, OverflowPolicy.dropNewest());
+
+        // when
+        final boolean first = queue.offer(FRAME, 0, FRAME.length, INFO);
+        final boolean second = queue.offer(FRAME, 0, FRAME.length, INFO);
+        final boolean third = queue.offer(FRAME, 0, FRAME.length, INFO);
+
+        // then
+        assertThat(first, is(true));
+        assertThat(second, is(true));
+        assertThat(third, is(false));
+    }
+
+    @Test
+    public void shouldDropOldestFramesWhenFull() throws InterruptedException {
+        // given
+        final OverflowPolicy policy = new OverflowPolicy(OverflowPolicy.Type.DROP_OLDEST, 0L, 0);
+        final FrameBatchQueue queue = new FrameBatchQueue(FRAME.length + 1, 60000L, 2, policy);
+        final byte[] newest = "{\"short_message\":\"newest\"}".getBytes(StandardCharsets.UTF_8);
+
+        // when
+        queue.offer(FRAME, 0, FRAME.length, INFO);
+        queue.offer(FRAME, 0, FRAME.length, INFO);
+        final boolean sent = queue.offer(newest, 0, newest.length, INFO);
+
+        // then
+        assertThat(sent, is(true));
+        assertThat(policy.getDroppedOldest(), is(1L));
+        assertThat(queue.size(), is(2));
+        queue.take();
+        final FrameBatchQueue.Batch batch = queue.take();
+        assertThat(new String(batch.array(), 0, batch.size() - 1, StandardCharsets.UTF_8),
+                is("{\"short_message\":\"newest\"}"));
+    }
+
+    @Test
+    public void shouldWaitForFreeSpaceWhenBlocking() throws InterruptedException {
+        // given
+        final OverflowPolicy policy = new OverflowPolicy(OverflowPolicy.Type.BLOCK, 5000L, 0);
+        final FrameBatchQueue queue = new FrameBatchQueue(FRAME.length + 1, 60000L, 1, policy);
+        queue.offer(FRAME, 0, FRAME.length, INFO);
+        final Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    queue.release(queue.take());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        // when
+        consumer.start();
+        final boolean sent = queue.offer(FRAME, 0, FRAME.length, INFO);
+        consumer.join();
+
+        // then
+        assertThat(sent, is(true));
+        assertThat(policy.getDiscarded(), is(0L));
+    }
+
+    @Test
+    public void shouldDiscardFramesBelowLevelWithoutWaiting() {
+        // given
+        final OverflowPolicy policy = new OverflowPolicy(OverflowPolicy.Type.DISCARD_BELOW_LEVEL, 60000L, 4);
+        final FrameBatchQueue queue = new FrameBatchQueue(1024, 60000L, 1, policy);
+        queue.offer(FRAME, 0, FRAME.length, INFO);
+
+        // when
+        final boolean sent = queue.offer(FRAME, 0, FRAME.length, INFO);
+
+        // then
+        assertThat(sent, is(false));
+        assertThat(policy.getDiscardedBelowLevel(), is(1L));
+    }
+
+    @Test
+    public void shouldPreemptLessSevereFramesWithPriorityLanes() throws InterruptedException {
+        // given
+        final OverflowPolicy policy = new OverflowPolicy(OverflowPolicy.Type.DROP_NEWEST, 0L, 0, true,
+                new GelfMetrics());
+        final FrameBatchQueue queue = new FrameBatchQueue(FRAME.length + 1, 60000L, 2, policy);
+        final byte[] error = "{\"short_message\":\"error\"}".getBytes(StandardCharsets.UTF_8);
+        queue.offer(FRAME, 0, FRAME.length, DEBUG);
+        queue.offer(FRAME, 0, FRAME.length, DEBUG);
+
+        // when
+        final boolean errorSent = queue.offer(error, 0, error.length, ERROR);
+        final boolean debugSent = queue.offer(FRAME, 0, FRAME.length, DEBUG);
+
+        // then
+        assertThat(errorSent, is(true));
+        assertThat(debugSent, is(false));
+        assertThat(policy.getPreempted(), is(1L));
+        assertThat(policy.getDroppedNewest(), is(1L));
+        assertThat(queue.size(), is(2));
+        final FrameBatchQueue.Batch batch = queue.take();
+        assertThat(new String(batch.array(), 0, batch.size() - 1, StandardCharsets.UTF_8),
+                is("{\"short_message\":\"error\"}"));
+    }
+
+    @Test
+    public void shouldTakeSevereLanesWithHigherWeight() throws InterruptedException {
+        // given
+        final OverflowPolicy policy = new OverflowPolicy(OverflowPolicy.Type.DROP_NEWEST, 0L, 0, true,
+                new GelfMetrics());
+        final FrameBatchQueue queue = new FrameBatchQueue(FRAME.length + 1, 60000L, 100, policy);
+        final byte[] error = "{\"short_message\":\"error\"}".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < 20; i++) {
+            queue.offer(FRAME, 0, FRAME.length, DEBUG);
+        }
+        for (int i = 0; i < 20; i++) {
+            queue.offer(error, 0, error.length, ERROR);
+        }
+
+        // when
+        int errors = 0;
+        for (int i = 0; i < 18; i++) {
+            final FrameBatchQueue.Batch batch = queue.take();
+            if (batch.size() == error.length + 1) {
+                errors++;
+            }
+            queue.release(batch);
+        }
+
+        // then
+        assertThat(errors, is(16));
+        assertThat(queue.size(), is(22));
+    }
+
+    @Test
+    public void shouldReturnRemainingFramesAfterClose() throws InterruptedException {
+        // given
+        final FrameBatchQueue queue = new FrameBatchQueue(1024, 60000L, 100, OverflowPolicy.dropNewest());
+        queue.offer(FRAME, 0, FRAME.length, INFO);
+
+        // when
+        queue.close();
+
+        // then
+        assertThat(queue.offer(FRAME, 0, FRAME.length, INFO), is(false));
+        assertThat(queue.take().count(), is(1));
+        assertThat(queue.take(), nullValue());
+    }
+
+    @Test
+    public void shouldResumeWithFirstFrameWhichHasNotBeenSentCompletely() throws InterruptedException {
+        // given
+        final FrameBatchQueue queue = new FrameBatchQueue(1024, 60000L, 100, OverflowPolicy.dropNewest());
+        for (int i = 0; i < 3; i++) {
+            queue.offer(FRAME, 0, FRAME.length, INFO);
+        }
+        queue.flush();
+        final FrameBatchQueue.Batch batch = queue.take();
+
+        // when
+        batch.markSent(FRAME.length + 1 + FRAME.length / 2);
+
+        // then
+        assertThat(batch.resumeOffset(), is(FRAME.length + 1));
+        assertThat(batch.unsentCount(), is(2));
+
+        batch.markSent(batch.size());
+        assertThat(batch.resumeOffset(), is(batch.size()));
+        assertThat(batch.unsentCount(), is(0));
+
+        queue.release(batch);
+        assertThat(batch.resumeOffset(), is(0));
+    }
+}
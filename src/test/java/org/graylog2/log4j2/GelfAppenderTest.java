@@ -12,6 +12,9 @@ import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.net.InetSocketAddress;
+import java.util.List;
+
 public class GelfAppenderTest {
     private Logger logger;
 
@@ -66,6 +69,22 @@ public class GelfAppenderTest {
         assertThat(GelfAppender.isFQDN("host.example.com"), equalTo(true));
     }
 
+    @Test
+    public void testParseEndpoints() {
+        final List<InetSocketAddress> endpoints =
+                GelfAppender.parseEndpoints("localhost:12202, 127.0.0.1,[::1]:12203,, ::1", 12201);
+
+        assertThat(endpoints.size(), equalTo(4));
+        assertThat(endpoints.get(0).getHostString(), equalTo("localhost"));
+        assertThat(endpoints.get(0).getPort(), equalTo(12202));
+        assertThat(endpoints.get(1).getHostString(), equalTo("127.0.0.1"));
+        assertThat(endpoints.get(1).getPort(), equalTo(12201));
+        assertThat(endpoints.get(2).getHostString(), equalTo("::1"));
+        assertThat(endpoints.get(2).getPort(), equalTo(12203));
+        assertThat(endpoints.get(3).getHostString(), equalTo("::1"));
+        assertThat(endpoints.get(3).getPort(), equalTo(12201));
+    }
+
     @AfterClass
     public static void shutdown() throws InterruptedException {
         //need to wait to hope the underlying gelf client pushes the messages.
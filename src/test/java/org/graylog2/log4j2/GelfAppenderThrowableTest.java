@@ -22,6 +22,7 @@ import static org.junit.Assert.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -176,6 +177,33 @@ public class GelfAppenderThrowableTest {
         assertThat(exceptionStackTrace.toString(), not(containsString("Caused by: java.lang.Exception: Inner Exception")));
     }
 
+    @Test
+    public void shouldSendStackTraceAgainIfFirstOccurrenceWasDropped() {
+        // given
+        final GelfAppender gelfAppender = new GelfAppender("appender", null, null, false,
+                new GelfTransportFactory(null), "host", false, false, true, null, true, 16, false,
+                ThreadContextFields.ALL, null, new ExceptionFingerprints(60000L, true), null);
+        gelfAppender.setClient(mockedGelfTransport);
+        given(mockedGelfTransport.trySend(any(GelfMessage.class))).willReturn(false, true, true);
+        final LogEvent event = createLogEventMock();
+        given(event.getThrown()).willReturn(new RuntimeException("Outer Exception"));
+
+        // when
+        gelfAppender.append(event);
+        gelfAppender.append(event);
+        gelfAppender.append(event);
+
+        // then
+        ArgumentCaptor<GelfMessage> gelfMessageCaptor = ArgumentCaptor.forClass(GelfMessage.class);
+        verify(mockedGelfTransport, times(3)).trySend(gelfMessageCaptor.capture());
+        final GelfMessage resent = gelfMessageCaptor.getAllValues().get(1);
+        final GelfMessage repeated = gelfMessageCaptor.getAllValues().get(2);
+        assertThat(resent.getAdditionalFields().get("exceptionStackTrace"), notNullValue());
+        assertThat(resent.getAdditionalFields().get("exceptionOccurrence"), is((Object) 1L));
+        assertThat(repeated.getAdditionalFields().get("exceptionStackTrace"), nullValue());
+        assertThat(repeated.getAdditionalFields().get("exceptionOccurrence"), is((Object) 2L));
+    }
+
     private GelfAppender createGelfAppender(final boolean includeStackTrace, final boolean includeExceptionCause) {
         GelfAppender gelfAppender = new GelfAppender("appender", null, null, false, null, "host", false, false, includeStackTrace,
                 null, includeExceptionCause);
@@ -0,0 +1,83 @@
+package org.graylog2.log4j2;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class GelfCompressorTest {
+    private static final byte[] MESSAGE = "{\"short_message\":\"Hello World Hello World Hello World\"}"
+            .getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void shouldCompressWithGzip() throws IOException {
+        // given
+        final GelfCompressor compressor = new GelfCompressor(GelfCompression.GZIP, 6, 0, 1);
+        final GelfOutputBuffer out = new GelfOutputBuffer(16);
+
+        // when
+        compressor.compress(MESSAGE, 0, MESSAGE.length, out);
+
+        // then
+        assertThat(inflate(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))), is(MESSAGE));
+    }
+
+    @Test
+    public void shouldCompressWithZlib() throws IOException {
+        // given
+        final GelfCompressor compressor = new GelfCompressor(GelfCompression.ZLIB, 6, 0, 1);
+        final GelfOutputBuffer out = new GelfOutputBuffer(16);
+
+        // when
+        compressor.compress(MESSAGE, 0, MESSAGE.length, out);
+
+        // then
+        assertThat(inflate(new InflaterInputStream(new ByteArrayInputStream(out.toByteArray()))), is(MESSAGE));
+    }
+
+    @Test
+    public void shouldReusePooledDeflaters() throws IOException {
+        // given
+        final GelfCompressor compressor = new GelfCompressor(GelfCompression.GZIP, 6, 0, 1);
+        final GelfOutputBuffer out = new GelfOutputBuffer(16);
+
+        // when
+        for (int i = 0; i < 3; i++) {
+            out.reset();
+            compressor.compress(MESSAGE, 0, MESSAGE.length, out);
+        }
+
+        // then
+        assertThat(inflate(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))), is(MESSAGE));
+    }
+
+    @Test
+    public void shouldOnlyCompressMessagesAboveThreshold() {
+        // given
+        final GelfCompressor compressor = new GelfCompressor(GelfCompression.GZIP, 6, 100, 1);
+        final GelfCompressor noCompression = new GelfCompressor(GelfCompression.NONE, 6, 0, 1);
+
+        // then
+        assertThat(compressor.shouldCompress(99), is(false));
+        assertThat(compressor.shouldCompress(100), is(true));
+        assertThat(noCompression.shouldCompress(100), is(false));
+    }
+
+    private static byte[] inflate(final InputStream inputStream) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,430 @@
+package org.graylog2.log4j2;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.MarkerManager;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.spi.MutableThreadContextStack;
+import org.apache.logging.log4j.util.SortedArrayStringMap;
+import org.apache.logging.log4j.util.StringMap;
+import org.graylog2.gelfclient.GelfMessage;
+import org.graylog2.gelfclient.GelfMessageBuilder;
+import org.graylog2.gelfclient.GelfMessageLevel;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.core.StringContains.containsString;
+import static org.junit.Assert.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class GelfMessageEncoderTest {
+    @Test
+    public void shouldEncodeCoreFields() throws IOException {
+        // given
+        final GelfMessageEncoder encoder = createEncoder(Collections.<String, Object>emptyMap());
+        final LogEvent event = createLogEventMock("Some Message");
+        final GelfOutputBuffer buffer = new GelfOutputBuffer(16);
+
+        // when
+        encoder.encode(event, "Some Message", buffer);
+
+        // then
+        final Map<String, Object> json = parse(buffer);
+        assertThat(json.get("version"), is((Object) "1.1"));
+        assertThat(json.get("host"), is((Object) "host"));
+        assertThat(json.get("short_message"), is((Object) "Some Message"));
+        assertThat(json.get("timestamp"), is((Object) 1476000000.123d));
+        assertThat(json.get("level"), is((Object) 3L));
+        assertThat(json.get("_loggerName"), is((Object) "logger"));
+        assertThat(json.get("_threadName"), is((Object) "main"));
+        assertThat(json.get("_marker"), is((Object) "TEST"));
+        assertThat(json.get("full_message"), nullValue());
+    }
+
+    @Test
+    public void shouldEscapeStringsAndEncodeUtf8() throws IOException {
+        // given
+        final String message = "Quote \" Backslash \\ Newline \n Tab \t Control \u0001 Umlaut ä Euro € Emoji 😀";
+        final GelfMessageEncoder encoder = createEncoder(Collections.<String, Object>emptyMap());
+        final LogEvent event = createLogEventMock(message);
+        final GelfOutputBuffer buffer = new GelfOutputBuffer(16);
+
+        // when
+        encoder.encode(event, message, buffer);
+
+        // then
+        final Map<String, Object> json = parse(buffer);
+        assertThat(json.get("short_message"), is((Object) message));
+    }
+
+    @Test
+    public void shouldEncodeThreadContextAndAdditionalFields() throws IOException {
+        // given
+        final Map<String, Object> additionalFields = new HashMap<>();
+        additionalFields.put("app", "test app");
+        additionalFields.put("_prefixed", "value");
+        additionalFields.put("number", 42);
+        final GelfMessageEncoder encoder = createEncoder(additionalFields);
+        final LogEvent event = createLogEventMock("Some Message");
+        given(event.getContextData()).willReturn(contextData("userId", "testUser"));
+        final GelfOutputBuffer buffer = new GelfOutputBuffer(16);
+
+        // when
+        encoder.encode(event, "Some Message", buffer);
+
+        // then
+        final Map<String, Object> json = parse(buffer);
+        assertThat(json.get("_userId"), is((Object) "testUser"));
+        assertThat(json.get("_app"), is((Object) "test app"));
+        assertThat(json.get("_prefixed"), is((Object) "value"));
+        assertThat(json.get("_number"), is((Object) 42L));
+    }
+
+    @Test
+    public void shouldApplyThreadContextRulesAndEncodeContextStack() throws IOException {
+        // given
+        final GelfMessageEncoder encoder = new GelfMessageEncoder("host", false, true, true, true,
+                Collections.<String, Object>emptyMap(), new StackTraceRenderer(16),
+                ThreadContextFields.parse("user*, traceId", "userSecret", "traceId=trace_id"), 0, null);
+        final LogEvent event = createLogEventMock("Some Message");
+        given(event.getContextData()).willReturn(contextData(
+                "userId", "testUser", "userSecret", "secret", "traceId", "abc", "other", "value"));
+        given(event.getContextStack()).willReturn(
+                new MutableThreadContextStack(Arrays.asList("first", "second \"quoted\"")));
+        final GelfOutputBuffer buffer = new GelfOutputBuffer(16);
+
+        // when
+        encoder.encode(event, "Some Message", buffer);
+
+        // then
+        final Map<String, Object> json = parse(buffer);
+        assertThat(json.get("_userId"), is((Object) "testUser"));
+        assertThat(json.get("_trace_id"), is((Object) "abc"));
+        assertThat(json.containsKey("_traceId"), is(false));
+        assertThat(json.containsKey("_userSecret"), is(false));
+        assertThat(json.containsKey("_other"), is(false));
+        assertThat(json.get("_contextStack"), is((Object) "[first, second \"quoted\"]"));
+    }
+
+    @Test
+    public void shouldEncodeRepeatCount() throws IOException {
+        // given
+        final GelfMessageEncoder encoder = createEncoder(Collections.<String, Object>emptyMap());
+        final LogEvent event = createLogEventMock("Some Message");
+        final GelfOutputBuffer buffer = new GelfOutputBuffer(16);
+
+        // when
+        encoder.encode(event, new MessageFormatter(null), 3L, buffer);
+
+        // then
+        final Map<String, Object> json = parse(buffer);
+        assertThat(json.get("short_message"), is((Object) "Some Message"));
+        assertThat(json.get("_repeatCount"), is((Object) 3L));
+    }
+
+    @Test
+    public void shouldEncodeExceptionFields() throws IOException {
+        // given
+        final GelfMessageEncoder encoder = createEncoder(Collections.<String, Object>emptyMap());
+        final LogEvent event = createLogEventMock("Some Message");
+        given(event.getThrown()).willReturn(new RuntimeException("Outer Exception", new Exception("Inner Exception")));
+        final GelfOutputBuffer buffer = new GelfOutputBuffer(16);
+
+        // when
+        encoder.encode(event, "Some Message", buffer);
+
+        // then
+        final Map<String, Object> json = parse(buffer);
+        assertThat(json.get("full_message"), is((Object) "Some Message"));
+        assertThat(json.get("_exceptionClass"), is((Object) "java.lang.RuntimeException"));
+        assertThat(json.get("_exceptionMessage"), is((Object) "Outer Exception"));
+        assertThat((String) json.get("_exceptionStackTrace"), containsString("Caused by: java.lang.Exception: Inner Exception"));
+    }
+
+    @Test
+    public void shouldOnlySendStackTraceOfFirstFingerprintOccurrence() throws IOException {
+        // given
+        final GelfMessageEncoder encoder = new GelfMessageEncoder("host", false, true, true, false,
+                Collections.<String, Object>emptyMap(), new StackTraceRenderer(16), ThreadContextFields.ALL, 0,
+                new ExceptionFingerprints(60000L, false));
+        final LogEvent event = createLogEventMock("Some Message");
+        given(event.getThrown()).willReturn(new RuntimeException("Exception"));
+        final GelfOutputBuffer first = new GelfOutputBuffer(16);
+        final GelfOutputBuffer second = new GelfOutputBuffer(16);
+
+        // when
+        encoder.encode(event, "Some Message", first);
+        encoder.encode(event, "Some Message", second);
+
+        // then
+        final Map<String, Object> firstJson = parse(first);
+        final Map<String, Object> secondJson = parse(second);
+        assertThat(firstJson.get("_exceptionStackTrace"), notNullValue());
+        assertThat(firstJson.get("_exceptionOccurrence"), is((Object) 1L));
+        assertThat(secondJson.get("_exceptionStackTrace"), nullValue());
+        assertThat(secondJson.get("full_message"), nullValue());
+        assertThat(secondJson.get("_exceptionClass"), is((Object) "java.lang.RuntimeException"));
+        assertThat(secondJson.get("_exceptionOccurrence"), is((Object) 2L));
+        assertThat(secondJson.get("_exceptionFingerprint"), is(firstJson.get("_exceptionFingerprint")));
+    }
+
+    @Test
+    public void shouldNotMarkMessagesWithinSizeLimit() throws IOException {
+        // given
+        final GelfMessageEncoder encoder = createEncoder(Collections.<String, Object>emptyMap(), 4096);
+        final LogEvent event = createLogEventMock("Some Message");
+        given(event.getThrown()).willReturn(new RuntimeException("Exception"));
+        given(event.getContextData()).willReturn(contextData("userId", "testUser"));
+        final GelfOutputBuffer buffer = new GelfOutputBuffer(16);
+
+        // when
+        encoder.encode(event, "Some Message", buffer);
+
+        // then
+        final Map<String, Object> json = parse(buffer);
+        assertThat(json.get("full_message"), is((Object) "Some Message"));
+        assertThat(json.get("_userId"), is((Object) "testUser"));
+        assertThat(json.containsKey("_exceptionStackTrace"), is(true));
+        assertThat(json.containsKey("_truncated"), is(false));
+    }
+
+    @Test
+    public void shouldCutOffStackTraceFirst() throws IOException {
+        // given
+        final GelfMessageEncoder encoder = createEncoder(Collections.<String, Object>singletonMap("app", "test"), 700);
+        final LogEvent event = createLogEventMock("Some Message");
+        given(event.getThrown()).willReturn(new RuntimeException("Exception"));
+        given(event.getContextData()).willReturn(contextData("userId", "testUser"));
+        final GelfOutputBuffer buffer = new GelfOutputBuffer(16);
+
+        // when
+        encoder.encode(event, "Some Message", buffer);
+
+        // then
+        final Map<String, Object> json = parse(buffer);
+        assertThat(buffer.size() <= 700, is(true));
+        assertThat(json.get("short_message"), is((Object) "Some Message"));
+        assertThat(json.get("full_message"), is((Object) "Some Message"));
+        assertThat(json.get("_userId"), is((Object) "testUser"));
+        assertThat(json.get("_app"), is((Object) "test"));
+        assertThat(json.get("_exceptionClass"), is((Object) "java.lang.RuntimeException"));
+        assertThat(((String) json.get("_exceptionStackTrace")).isEmpty(), is(false));
+        assertThat(json.get("_truncated"), is((Object) "true"));
+    }
+
+    @Test
+    public void shouldDropLowPriorityFieldsAndCutOffShortMessage() throws IOException {
+        // given
+        final GelfMessageEncoder encoder = createEncoder(Collections.<String, Object>emptyMap(), 300);
+        final char[] chars = new char[2000];
+        Arrays.fill(chars, '\u20ac');
+        final String message = new String(chars);
+        final LogEvent event = createLogEventMock(message);
+        given(event.getThrown()).willReturn(new RuntimeException("Exception"));
+        given(event.getContextData()).willReturn(contextData("userId", "testUser"));
+        final GelfOutputBuffer buffer = new GelfOutputBuffer(16);
+
+        // when
+        encoder.encode(event, message, buffer);
+
+        // then
+        final Map<String, Object> json = parse(buffer);
+        assertThat(buffer.size() <= 300, is(true));
+        assertThat(message.startsWith((String) json.get("short_message")), is(true));
+        assertThat(((String) json.get("short_message")).isEmpty(), is(false));
+        assertThat(json.get("_loggerName"), is((Object) "logger"));
+        assertThat(json.get("_exceptionClass"), is((Object) "java.lang.RuntimeException"));
+        assertThat(json.containsKey("full_message"), is(false));
+        assertThat(json.containsKey("_userId"), is(false));
+        assertThat(json.containsKey("_exceptionStackTrace"), is(false));
+        assertThat(json.get("_truncated"), is((Object) "true"));
+    }
+
+    @Test
+    public void shouldCutOffExceptionMessage() throws IOException {
+        // given
+        final GelfMessageEncoder encoder = createEncoder(Collections.<String, Object>emptyMap(), 400);
+        final char[] chars = new char[2000];
+        Arrays.fill(chars, 'x');
+        final String exceptionMessage = new String(chars);
+        final LogEvent event = createLogEventMock("Message");
+        given(event.getThrown()).willReturn(new RuntimeException(exceptionMessage));
+        final GelfOutputBuffer buffer = new GelfOutputBuffer(16);
+
+        // when
+        encoder.encode(event, "Message", buffer);
+
+        // then
+        final Map<String, Object> json = parse(buffer);
+        assertThat(buffer.size() <= 400, is(true));
+        assertThat(encoder.isOversized(buffer.size()), is(false));
+        assertThat(json.get("short_message"), is((Object) "Message"));
+        assertThat(exceptionMessage.startsWith((String) json.get("_exceptionMessage")), is(true));
+        assertThat(json.get("_truncated"), is((Object) "true"));
+    }
+
+    @Test
+    public void shouldReportOversizedMessageIfCoreFieldsDoNotFit() throws IOException {
+        // given
+        final GelfMessageEncoder encoder = createEncoder(Collections.<String, Object>emptyMap(), 400);
+        final char[] chars = new char[2000];
+        Arrays.fill(chars, 't');
+        final LogEvent event = createLogEventMock("Message");
+        given(event.getThreadName()).willReturn(new String(chars));
+        final GelfOutputBuffer buffer = new GelfOutputBuffer(16);
+
+        // when
+        encoder.encode(event, "Message", buffer);
+
+        // then
+        parse(buffer);
+        assertThat(encoder.isOversized(buffer.size()), is(true));
+    }
+
+    @Test
+    public void shouldNotSplitEscapeSequencesWhenCuttingOff() throws IOException {
+        // given
+        final GelfOutputBuffer buffer = new GelfOutputBuffer(16);
+        buffer.append((byte) '{').appendAscii("\"a\":");
+
+        // when
+        final boolean truncated = buffer.appendTruncatedJsonString("ab\"\u00e4\u0001\ud83d\ude00cd", 12);
+        buffer.append((byte) '}');
+
+        // then
+        assertThat(truncated, is(true));
+        assertThat(parse(buffer).get("a"), is((Object) "ab\"\u00e4"));
+    }
+
+    @Test
+    public void shouldEncodeGelfMessage() throws IOException {
+        // given
+        final GelfMessage message = new GelfMessageBuilder("Some Message", "host")
+                .timestamp(1476000000.5d)
+                .level(GelfMessageLevel.ERROR)
+                .additionalField("foo", "bar")
+                .build();
+        final GelfOutputBuffer buffer = new GelfOutputBuffer(16);
+
+        // when
+        GelfMessageEncoder.encode(message, buffer);
+
+        // then
+        final Map<String, Object> json = parse(buffer);
+        assertThat(json.get("short_message"), is((Object) "Some Message"));
+        assertThat(json.get("timestamp"), is((Object) 1476000000.5d));
+        assertThat(json.get("level"), is((Object) 3L));
+        assertThat(json.get("_foo"), is((Object) "bar"));
+    }
+
+    @Test
+    public void shouldEncodeSourceFields() throws IOException {
+        // given
+        final GelfMessageEncoder encoder = new GelfMessageEncoder("host", true, true, true, true,
+                Collections.<String, Object>emptyMap(), new StackTraceRenderer(16), ThreadContextFields.ALL, 0, null);
+        final LogEvent event = createLogEventMock("Some Message");
+        given(event.getSource()).willReturn(new StackTraceElement("com.example.Foo", "bar", "Foo.java", 42));
+        final GelfOutputBuffer first = new GelfOutputBuffer(16);
+        final GelfOutputBuffer second = new GelfOutputBuffer(16);
+
+        // when
+        encoder.encode(event, "Some Message", first);
+        encoder.encode(event, "Some Message", second);
+
+        // then
+        final Map<String, Object> json = parse(second);
+        assertThat(json.get("_sourceFileName"), is((Object) "Foo.java"));
+        assertThat(json.get("_sourceMethodName"), is((Object) "bar"));
+        assertThat(json.get("_sourceClassName"), is((Object) "com.example.Foo"));
+        assertThat(json.get("_sourceLineNumber"), is((Object) 42L));
+        assertThat(second.toString(), is(first.toString()));
+    }
+
+    @Test
+    public void shouldNotRequestLocationIfSourceIsExcluded() {
+        // given
+        final GelfMessageEncoder encoder = createEncoder(Collections.<String, Object>emptyMap());
+        final LogEvent event = createLogEventMock("Some Message");
+
+        // when
+        encoder.encode(event, "Some Message", new GelfOutputBuffer(16));
+
+        // then
+        verify(event, never()).getSource();
+    }
+
+    private GelfMessageEncoder createEncoder(final Map<String, Object> additionalFields) {
+        return createEncoder(additionalFields, 0);
+    }
+
+    private GelfMessageEncoder createEncoder(final Map<String, Object> additionalFields, final int maxMessageBytes) {
+        return new GelfMessageEncoder("host", false, true, true, true, additionalFields, new StackTraceRenderer(16),
+                ThreadContextFields.ALL, maxMessageBytes, null);
+    }
+
+    private static StringMap contextData(final String... keysAndValues) {
+        final StringMap contextData = new SortedArrayStringMap();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            contextData.putValue(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return contextData;
+    }
+
+    private LogEvent createLogEventMock(final String formattedMessage) {
+        final Message message = mock(Message.class);
+        given(message.getFormattedMessage()).willReturn(formattedMessage);
+
+        final LogEvent event = mock(LogEvent.class);
+        given(event.getMessage()).willReturn(message);
+        given(event.getLevel()).willReturn(Level.ERROR);
+        given(event.getTimeMillis()).willReturn(1476000000123L);
+        given(event.getLoggerName()).willReturn("logger");
+        given(event.getThreadName()).willReturn("main");
+        given(event.getMarker()).willReturn(MarkerManager.getMarker("TEST"));
+        return event;
+    }
+
+    static Map<String, Object> parse(final GelfOutputBuffer buffer) throws IOException {
+        return parse(buffer.toByteArray());
+    }
+
+    static Map<String, Object> parse(final byte[] json) throws IOException {
+        final Map<String, Object> fields = new HashMap<>();
+        try (JsonParser parser = new JsonFactory().createParser(json)) {
+            assertThat(parser.nextToken(), is(JsonToken.START_OBJECT));
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.getCurrentName();
+                final JsonToken token = parser.nextToken();
+                switch (token) {
+                    case VALUE_NUMBER_INT:
+                        fields.put(name, parser.getLongValue());
+                        break;
+                    case VALUE_NUMBER_FLOAT:
+                        fields.put(name, parser.getDoubleValue());
+                        break;
+                    case VALUE_NULL:
+                        fields.put(name, null);
+                        break;
+                    default:
+                        fields.put(name, parser.getText());
+                }
+            }
+            assertThat(parser.getCurrentToken(), is(JsonToken.END_OBJECT));
+        }
+        return fields;
+    }
+}
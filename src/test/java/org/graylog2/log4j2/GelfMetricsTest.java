@@ -0,0 +1,127 @@
+package org.graylog2.log4j2;
+
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+public class GelfMetricsTest {
+    @Test
+    public void shouldCountAppendedEventsAndBytes() {
+        // given
+        final GelfMetrics metrics = new GelfMetrics();
+
+        // when
+        metrics.appended(100, 1000L);
+        metrics.appended(50, 1000L);
+        metrics.appended(-1, 1000L);
+
+        // then
+        assertThat(metrics.getEventsAppended(), is(3L));
+        assertThat(metrics.getBytesEncoded(), is(150L));
+    }
+
+    @Test
+    public void shouldReportUnknownSizeIfTransportEncodesMessages() {
+        // given
+        final GelfMetrics metrics = new GelfMetrics();
+
+        // when
+        metrics.appended(-1, 1000L);
+        metrics.appended(-1, 1000L);
+
+        // then
+        assertThat(metrics.getEventsAppended(), is(2L));
+        assertThat(metrics.getBytesEncoded(), is(-1L));
+    }
+
+    @Test
+    public void shouldCountDroppedEventsByReason() {
+        // given
+        final GelfMetrics metrics = new GelfMetrics();
+
+        // when
+        metrics.dropped(GelfDropReason.QUEUE_FULL, 1L);
+        metrics.dropped(GelfDropReason.DROPPED_OLDEST, 5L);
+
+        // then
+        assertThat(metrics.getEventsDropped(), is(6L));
+        assertThat(metrics.getEventsDroppedByReason().get("DROPPED_OLDEST"), is(5L));
+        assertThat(metrics.getEventsDroppedByReason().get("TIMEOUT"), is(0L));
+    }
+
+    @Test
+    public void shouldReportEncodeTimePercentiles() {
+        // given
+        final GelfMetrics metrics = new GelfMetrics();
+
+        // when
+        for (int i = 0; i < 990; i++) {
+            metrics.appended(1, 1000L);
+        }
+        for (int i = 0; i < 10; i++) {
+            metrics.appended(1, 1000000L);
+        }
+
+        // then
+        assertThat(metrics.getEncodeTimeHistogram()[GelfMetrics.bucket(1000L)], is(990L));
+        assertThat(metrics.getEncodeTimeP50Nanos(), is(1024L));
+        assertThat(metrics.getEncodeTimeP99Nanos(), is(1024L));
+        assertThat(metrics.getEncodeTimeP999Nanos(), is(1L << 20));
+    }
+
+    @Test
+    public void shouldNotifyListeners() {
+        // given
+        final GelfMetrics metrics = new GelfMetrics();
+        final GelfAppenderListener listener = mock(GelfAppenderListener.class);
+        final GelfAppenderListener removed = mock(GelfAppenderListener.class);
+        metrics.addListener(listener);
+        metrics.addListener(removed);
+        metrics.removeListener(removed);
+
+        // when
+        metrics.appended(10, 100L);
+        metrics.dropped(GelfDropReason.TIMEOUT, 2L);
+        metrics.reconnected();
+
+        // then
+        verify(listener).onAppended(10, 100L);
+        verify(listener).onDropped(GelfDropReason.TIMEOUT, 2L);
+        verify(listener).onReconnect();
+        verifyZeroInteractions(removed);
+    }
+
+    @Test
+    public void shouldRegisterMBeanUnderAppenderName() throws Exception {
+        // given
+        final GelfMetrics metrics = new GelfMetrics();
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName("org.graylog2.log4j2:type=GelfAppender,name=\"metrics-test\"");
+        metrics.appended(10, 100L);
+        metrics.dropped(GelfDropReason.BELOW_LEVEL, 3L);
+
+        // when
+        metrics.register("metrics-test");
+
+        // then
+        try {
+            assertThat(server.getAttribute(name, "EventsAppended"), is((Object) 1L));
+            final TabularData dropped = (TabularData) server.getAttribute(name, "EventsDroppedByReason");
+            final CompositeData belowLevel = dropped.get(new Object[]{"BELOW_LEVEL"});
+            assertThat(belowLevel.get("value"), is((Object) 3L));
+        } finally {
+            metrics.unregister();
+        }
+        assertThat(server.isRegistered(name), is(false));
+    }
+}
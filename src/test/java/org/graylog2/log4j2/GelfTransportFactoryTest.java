@@ -0,0 +1,88 @@
+package org.graylog2.log4j2;
+
+import org.graylog2.gelfclient.GelfConfiguration;
+import org.graylog2.gelfclient.GelfTransports;
+import org.graylog2.gelfclient.transport.GelfTransport;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class GelfTransportFactoryTest {
+    @Test
+    public void shouldUseGelfclientTransportByDefault() {
+        // given
+        final GelfTransportFactory factory = new GelfTransportFactory(configuration(GelfTransports.TCP));
+
+        // when
+        final GelfTransport transport = factory.create();
+
+        // then
+        try {
+            assertThat(transport, instanceOf(DeferredTransport.class));
+        } finally {
+            transport.stop();
+        }
+    }
+
+    @Test
+    public void shouldUseNioTransportsIfRequested() {
+        // given
+        final GelfTransportFactory tcp = new GelfTransportFactory(configuration(GelfTransports.TCP)).nio(true);
+        final GelfTransportFactory udp = new GelfTransportFactory(configuration(GelfTransports.UDP)).nio(true);
+
+        // when
+        final GelfTransport tcpTransport = tcp.create();
+        final GelfTransport udpTransport = udp.create();
+
+        // then
+        try {
+            assertThat(tcpTransport, instanceOf(BatchingTcpTransport.class));
+            assertThat(udpTransport, instanceOf(ChunkedUdpTransport.class));
+        } finally {
+            tcpTransport.stop();
+            udpTransport.stop();
+        }
+    }
+
+    @Test
+    public void shouldUseFrameTransportForPriorityLanes() {
+        // given
+        final GelfTransportFactory factory = new GelfTransportFactory(configuration(GelfTransports.TCP))
+                .overflowPolicy(new OverflowPolicy(OverflowPolicy.Type.DROP_NEWEST, 0L, 0, true, new GelfMetrics()));
+
+        // when
+        final GelfTransport transport = factory.create();
+
+        // then
+        try {
+            assertThat(factory.isPriorityLanesEnabled(), is(true));
+            assertThat(transport, instanceOf(BatchingTcpTransport.class));
+        } finally {
+            transport.stop();
+        }
+    }
+
+    @Test
+    public void shouldNotUseNioTransportForTls() {
+        // given
+        final GelfConfiguration configuration = configuration(GelfTransports.TCP).enableTls();
+
+        // when
+        final GelfTransportFactory factory = new GelfTransportFactory(configuration).nio(true);
+
+        // then
+        assertThat(factory.isNio(), is(true));
+        assertThat(factory.isNioEnabled(), is(false));
+    }
+
+    private static GelfConfiguration configuration(final GelfTransports transport) {
+        return new GelfConfiguration(new InetSocketAddress(InetAddress.getLoopbackAddress(), 12201))
+                .transport(transport)
+                .reconnectDelay(10);
+    }
+}
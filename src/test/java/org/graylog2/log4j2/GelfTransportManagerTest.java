@@ -0,0 +1,182 @@
+package org.graylog2.log4j2;
+
+import org.graylog2.gelfclient.GelfConfiguration;
+import org.graylog2.gelfclient.GelfMessage;
+import org.graylog2.gelfclient.GelfTransports;
+import org.graylog2.gelfclient.transport.GelfTransport;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class GelfTransportManagerTest {
+    @Test
+    public void shouldShareTransportBetweenAppendersWithSameSettings() {
+        // given
+        final GelfTransport transport = mock(GelfTransport.class);
+        final GelfTransportFactory oldFactory = createTransportFactory(12201, transport);
+        final GelfTransportFactory newFactory = createTransportFactory(12201, mock(GelfTransport.class));
+        final GelfTransportManager oldManager = GelfTransportManager.getManager("shared", oldFactory);
+        final GelfTransport oldTransport = oldManager.getTransport();
+
+        // when
+        final GelfTransportManager newManager = GelfTransportManager.getManager("shared", newFactory);
+        final GelfTransport newTransport = newManager.getTransport();
+        oldManager.stop(0L, TimeUnit.MILLISECONDS);
+
+        // then
+        assertThat(newManager, sameInstance(oldManager));
+        assertThat(newManager.getTransportFactory(), sameInstance(oldFactory));
+        assertThat(newTransport, sameInstance(oldTransport));
+        verify(oldFactory, times(1)).create();
+        verify(newFactory, never()).create();
+        verify(transport, never()).stop();
+
+        newManager.stop(0L, TimeUnit.MILLISECONDS);
+        verify(transport).stop();
+    }
+
+    @Test
+    public void shouldCreateNewTransportIfSettingsChanged() {
+        // given
+        final GelfTransport oldTransport = mock(GelfTransport.class);
+        final GelfTransport newTransport = mock(GelfTransport.class);
+        final GelfTransportManager oldManager = GelfTransportManager.getManager("changed",
+                createTransportFactory(12201, oldTransport));
+        oldManager.getTransport();
+
+        // when
+        final GelfTransportManager newManager = GelfTransportManager.getManager("changed",
+                createTransportFactory(12202, newTransport));
+        newManager.getTransport();
+        oldManager.stop(0L, TimeUnit.MILLISECONDS);
+
+        // then
+        assertThat(newManager, not(sameInstance(oldManager)));
+        verify(oldTransport).stop();
+        verify(newTransport, never()).stop();
+
+        newManager.stop(0L, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void shouldKeepMBeanOfNewConfigurationIfSettingsChanged() throws Exception {
+        // given
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName("org.graylog2.log4j2:type=GelfAppender,name=\"reconfigured\"");
+        final GelfTransportFactory oldFactory = createTransportFactory(12201, mock(GelfTransport.class));
+        final GelfTransportFactory newFactory = createTransportFactory(12202, mock(GelfTransport.class));
+        final GelfTransportManager oldManager = GelfTransportManager.getManager("reconfigured", oldFactory);
+        oldManager.getTransport();
+        oldFactory.getMetrics().register("reconfigured");
+
+        // when
+        final GelfTransportManager newManager = GelfTransportManager.getManager("reconfigured", newFactory);
+        newManager.getTransport();
+        newFactory.getMetrics().register("reconfigured");
+        newFactory.getMetrics().dropped(GelfDropReason.ERROR, 3L);
+        oldManager.stop(0L, TimeUnit.MILLISECONDS);
+
+        // then
+        try {
+            assertThat(newManager, not(sameInstance(oldManager)));
+            assertThat(server.isRegistered(name), is(true));
+            assertThat(server.getAttribute(name, "EventsDropped"), is((Object) 3L));
+        } finally {
+            newManager.stop(0L, TimeUnit.MILLISECONDS);
+        }
+        assertThat(server.isRegistered(name), is(false));
+    }
+
+    @Test
+    public void shouldIncludeSettingsInKey() {
+        // given
+        final GelfTransportFactory factory = createTransportFactory(12201, mock(GelfTransport.class));
+        final String key = GelfTransportManager.key("gelf", factory);
+
+        // when
+        factory.batchSize(4096);
+
+        // then
+        assertThat(GelfTransportManager.key("gelf", factory), not(is(key)));
+        assertThat(GelfTransportManager.key("other", factory), not(is(GelfTransportManager.key("gelf", factory))));
+    }
+
+    @Test
+    public void shouldCountAbandonedMessagesWhenDraining() throws Exception {
+        // given
+        final CountDownLatch latch = new CountDownLatch(1);
+        final DeferredTransport transport = new DeferredTransport(new Callable<GelfTransport>() {
+            @Override
+            public GelfTransport call() throws InterruptedException {
+                latch.await();
+                return mock(GelfTransport.class);
+            }
+        }, 4, 10L, OverflowPolicy.dropNewest());
+        transport.trySend(new GelfMessage("first"));
+        transport.trySend(new GelfMessage("second"));
+        final GelfMetrics metrics = new GelfMetrics();
+
+        // when
+        final int abandoned = GelfTransportManager.drainAndStop(transport, TimeUnit.MILLISECONDS.toNanos(100L), metrics);
+
+        // then
+        assertThat(abandoned, is(2));
+        assertThat(metrics.getDropped(GelfDropReason.ABANDONED), is(2L));
+    }
+
+    @Test
+    public void shouldReleaseCompressorWhenTransportIsReleased() throws Exception {
+        // given
+        try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            socket.setSoTimeout(5000);
+            final GelfConfiguration configuration = new GelfConfiguration(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), socket.getLocalPort()))
+                    .transport(GelfTransports.UDP);
+            final GelfCompressor compressor = new GelfCompressor(GelfCompression.GZIP, 6, 0, 1);
+            final ChunkedUdpTransport transport = new ChunkedUdpTransport(configuration, compressor,
+                    OverflowPolicy.dropNewest(), null);
+            final GelfTransportManager manager = GelfTransportManager.getManager("compressed",
+                    createTransportFactory(socket.getLocalPort(), transport));
+            manager.getTransport();
+            final byte[] message = "{\"short_message\":\"test\"}".getBytes(StandardCharsets.UTF_8);
+            transport.trySend(message, 0, message.length, 6);
+            socket.receive(new DatagramPacket(new byte[1024], 1024));
+
+            // when
+            manager.stop(1L, TimeUnit.SECONDS);
+
+            // then
+            assertThat(compressor.isClosed(), is(true));
+            assertThat(compressor.pooled(), is(0));
+        }
+    }
+
+    private static GelfTransportFactory createTransportFactory(final int port, final GelfTransport transport) {
+        final GelfConfiguration configuration = new GelfConfiguration(new InetSocketAddress("localhost", port))
+                .transport(GelfTransports.TCP);
+        final GelfTransportFactory factory = spy(new GelfTransportFactory(configuration));
+        doReturn(transport).when(factory).create();
+        return factory;
+    }
+}
@@ -0,0 +1,81 @@
+package org.graylog2.log4j2;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class HostNameResolverTest {
+    @Test
+    public void shouldReturnResolvedHostName() {
+        // given
+        final HostNameResolver resolver = new HostNameResolver(new Callable<String>() {
+            @Override
+            public String call() {
+                return "host.example.com";
+            }
+        });
+
+        // when
+        final String hostName = resolver.resolve(1000L);
+
+        // then
+        assertThat(hostName, is("host.example.com"));
+        assertThat(resolver.getIfResolved(), is("host.example.com"));
+    }
+
+    @Test
+    public void shouldFallBackIfLookupIsSlow() throws Exception {
+        // given
+        final CountDownLatch latch = new CountDownLatch(1);
+        final HostNameResolver resolver = new HostNameResolver(new Callable<String>() {
+            @Override
+            public String call() throws InterruptedException {
+                latch.await();
+                return "host.example.com";
+            }
+        });
+
+        // when
+        final long start = System.nanoTime();
+        final String hostName = resolver.resolve(10L);
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // then
+        assertThat(hostName, is(HostNameResolver.fallback()));
+        assertTrue(elapsedMillis < 1000L);
+        assertThat(resolver.getIfResolved(), nullValue());
+
+        // when
+        latch.countDown();
+        final String resolved = resolver.resolve(1000L);
+
+        // then
+        assertThat(resolved, is("host.example.com"));
+        assertThat(resolver.getIfResolved(), is("host.example.com"));
+    }
+
+    @Test
+    public void shouldFallBackIfLookupFails() {
+        // given
+        final HostNameResolver resolver = new HostNameResolver(new Callable<String>() {
+            @Override
+            public String call() {
+                throw new IllegalStateException("No network");
+            }
+        });
+
+        // when
+        final String hostName = resolver.resolve(1000L);
+
+        // then
+        assertThat(hostName, is(HostNameResolver.fallback()));
+        assertThat(resolver.getIfResolved(), is(HostNameResolver.fallback()));
+    }
+}
@@ -0,0 +1,191 @@
+package org.graylog2.log4j2;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.graylog2.gelfclient.GelfConfiguration;
+import org.graylog2.gelfclient.GelfTransports;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class HttpTransportTest {
+    private static final byte[] FRAME = "{\"short_message\":\"test\"}".getBytes(StandardCharsets.UTF_8);
+
+    private final BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Integer> statuses = new LinkedBlockingQueue<>();
+    private HttpServer server;
+    private HttpTransport transport;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(HttpTransport.PATH, new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                final Integer status = statuses.poll();
+                requests.add(new Request(exchange));
+                exchange.sendResponseHeaders(status == null ? 202 : status, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        if (transport != null) {
+            transport.stop();
+        }
+        server.stop(0);
+    }
+
+    @Test
+    public void shouldPostNewlineDelimitedBatchesOverKeepAliveConnection() throws Exception {
+        // given
+        transport = createTransport(null, new GelfMetrics());
+
+        // when
+        for (int i = 0; i < 3; i++) {
+            transport.trySend(FRAME, 0, FRAME.length, 6);
+        }
+        transport.flush();
+        final Request first = requests.poll(5L, TimeUnit.SECONDS);
+        transport.trySend(FRAME, 0, FRAME.length, 6);
+        transport.flush();
+        final Request second = requests.poll(5L, TimeUnit.SECONDS);
+
+        // then
+        assertThat(first.method, is("POST"));
+        assertThat(first.contentType, is("application/json"));
+        assertThat(first.body, is("{\"short_message\":\"test\"}\n{\"short_message\":\"test\"}\n{\"short_message\":\"test\"}\n"));
+        assertThat(second.body, is("{\"short_message\":\"test\"}\n"));
+        assertThat(second.remotePort, is(first.remotePort));
+    }
+
+    @Test
+    public void shouldCompressRequestBodies() throws Exception {
+        // given
+        transport = createTransport(new GelfCompressor(GelfCompression.GZIP, -1, 0, 1), new GelfMetrics());
+
+        // when
+        transport.trySend(FRAME, 0, FRAME.length, 6);
+        transport.flush();
+        final Request request = requests.poll(5L, TimeUnit.SECONDS);
+
+        // then
+        assertThat(request.contentEncoding, is("gzip"));
+        assertThat(request.body, is("{\"short_message\":\"test\"}\n"));
+    }
+
+    @Test
+    public void shouldRetryBatchIfServerIsUnavailable() throws Exception {
+        // given
+        statuses.add(503);
+        statuses.add(429);
+        transport = createTransport(null, new GelfMetrics());
+
+        // when
+        transport.trySend(FRAME, 0, FRAME.length, 6);
+        transport.flush();
+
+        // then
+        for (int i = 0; i < 3; i++) {
+            final Request request = requests.poll(5L, TimeUnit.SECONDS);
+            assertThat(request, notNullValue());
+            assertThat(request.body, is("{\"short_message\":\"test\"}\n"));
+        }
+    }
+
+    @Test
+    public void shouldDiscardBatchRejectedByServer() throws Exception {
+        // given
+        final GelfMetrics metrics = new GelfMetrics();
+        statuses.add(400);
+        transport = createTransport(null, metrics);
+
+        // when
+        transport.trySend(FRAME, 0, FRAME.length, 6);
+        transport.flush();
+        final Request rejected = requests.poll(5L, TimeUnit.SECONDS);
+        transport.trySend(FRAME, 0, FRAME.length, 6);
+        transport.flush();
+        final Request accepted = requests.poll(5L, TimeUnit.SECONDS);
+
+        // then
+        assertThat(rejected, notNullValue());
+        assertThat(accepted, notNullValue());
+        assertThat(requests.poll(100L, TimeUnit.MILLISECONDS), nullValue());
+        assertThat(metrics.getEventsDroppedByReason().get(GelfDropReason.ERROR.name()), is(1L));
+    }
+
+    @Test
+    public void shouldBackOffEvenWithoutReconnectDelay() {
+        // given
+        final GelfConfiguration configuration = new GelfConfiguration(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getAddress().getPort()))
+                .transport(GelfTransports.TCP)
+                .reconnectDelay(0);
+        final OverflowPolicy overflowPolicy = new OverflowPolicy(OverflowPolicy.Type.DROP_NEWEST, 0L, 0,
+                new GelfMetrics());
+        transport = new HttpTransport(configuration, 64 * 1024, 0L, null, overflowPolicy, null, false);
+
+        // when
+        final long firstDelay = transport.retryDelay(0);
+        final long secondDelay = transport.retryDelay(1);
+
+        // then
+        assertThat(firstDelay >= AbstractFrameTransport.MIN_RECONNECT_DELAY_MILLIS, is(true));
+        assertThat(secondDelay >= 2 * AbstractFrameTransport.MIN_RECONNECT_DELAY_MILLIS, is(true));
+    }
+
+    private HttpTransport createTransport(final GelfCompressor compressor, final GelfMetrics metrics) {
+        final GelfConfiguration configuration = new GelfConfiguration(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getAddress().getPort()))
+                .transport(GelfTransports.TCP)
+                .queueSize(512)
+                .reconnectDelay(10);
+        final OverflowPolicy overflowPolicy = new OverflowPolicy(OverflowPolicy.Type.DROP_NEWEST, 0L, 0, metrics);
+        return new HttpTransport(configuration, 64 * 1024, 60000L, compressor, overflowPolicy, null, false);
+    }
+
+    private static final class Request {
+        private final String method;
+        private final String contentType;
+        private final String contentEncoding;
+        private final String body;
+        private final int remotePort;
+
+        Request(final HttpExchange exchange) throws IOException {
+            this.method = exchange.getRequestMethod();
+            this.contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            this.contentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+            this.remotePort = exchange.getRemoteAddress().getPort();
+            final InputStream in = "gzip".equals(contentEncoding)
+                    ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody();
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                body.write(buffer, 0, read);
+            }
+            this.body = new String(body.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.graylog2.log4j2;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class JsonStringCacheTest {
+    @Test
+    public void shouldAppendEscapedStrings() {
+        // given
+        final JsonStringCache cache = new JsonStringCache(16);
+        final GelfOutputBuffer buffer = new GelfOutputBuffer(16);
+
+        // when
+        cache.append("thread \"main\" ä", buffer);
+        cache.append("thread \"main\" ä", buffer);
+        cache.append(null, buffer);
+
+        // then
+        assertThat(buffer.toString(), is("\"thread \\\"main\\\" ä\"\"thread \\\"main\\\" ä\"null"));
+        assertThat(cache.size(), is(1));
+    }
+
+    @Test
+    public void shouldStartOverIfFull() {
+        // given
+        final JsonStringCache cache = new JsonStringCache(2);
+        final GelfOutputBuffer buffer = new GelfOutputBuffer(16);
+
+        // when
+        cache.append("a", buffer);
+        cache.append("b", buffer);
+        cache.append("c", buffer);
+
+        // then
+        assertThat(buffer.toString(), is("\"a\"\"b\"\"c\""));
+        assertThat(cache.size(), is(1));
+    }
+
+    @Test
+    public void shouldNotCacheIfDisabled() {
+        // given
+        final JsonStringCache cache = new JsonStringCache(0);
+        final GelfOutputBuffer buffer = new GelfOutputBuffer(16);
+
+        // when
+        cache.append("a", buffer);
+
+        // then
+        assertThat(buffer.toString(), is("\"a\""));
+        assertThat(cache.size(), is(0));
+    }
+}
@@ -0,0 +1,160 @@
+package org.graylog2.log4j2;
+
+import org.graylog2.gelfclient.GelfConfiguration;
+import org.graylog2.gelfclient.GelfTransports;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class LoadBalancingTransportTest {
+    @Test
+    public void shouldUseHealthyTransportsInTurn() {
+        // given
+        final AbstractFrameTransport first = transport(true, 0);
+        final AbstractFrameTransport second = transport(false, 0);
+        final AbstractFrameTransport third = transport(true, 0);
+        final LoadBalancingTransport transport = new LoadBalancingTransport(
+                Arrays.asList(first, second, third), LoadBalancingTransport.Strategy.ROUND_ROBIN);
+
+        // when
+        final AbstractFrameTransport[] selected = new AbstractFrameTransport[4];
+        for (int i = 0; i < selected.length; i++) {
+            selected[i] = transport.select();
+        }
+
+        // then
+        assertThat(selected[0], sameInstance(first));
+        assertThat(selected[1], sameInstance(third));
+        assertThat(selected[2], sameInstance(third));
+        assertThat(selected[3], sameInstance(first));
+    }
+
+    @Test
+    public void shouldUseHealthyTransportWithFewestQueuedMessages() {
+        // given
+        final AbstractFrameTransport first = transport(true, 10);
+        final AbstractFrameTransport second = transport(false, 0);
+        final AbstractFrameTransport third = transport(true, 5);
+        final LoadBalancingTransport transport = new LoadBalancingTransport(
+                Arrays.asList(first, second, third), LoadBalancingTransport.Strategy.LEAST_QUEUED);
+
+        // when
+        final AbstractFrameTransport selected = transport.select();
+
+        // then
+        assertThat(selected, sameInstance(third));
+        assertThat(transport.queueSize(), is(15));
+    }
+
+    @Test
+    public void shouldStillQueueMessagesIfNoTransportIsHealthy() {
+        // given
+        final AbstractFrameTransport first = transport(false, 0);
+        final AbstractFrameTransport second = transport(false, 0);
+        final LoadBalancingTransport transport = new LoadBalancingTransport(
+                Arrays.asList(first, second), LoadBalancingTransport.Strategy.LEAST_QUEUED);
+        final byte[] frame = new byte[]{'{', '}'};
+        given(first.trySend(frame, 0, 2, 6)).willReturn(true);
+
+        // when
+        final boolean sent = transport.trySend(frame, 0, 2, 6);
+
+        // then
+        assertThat(sent, is(true));
+        verify(first).trySend(frame, 0, 2, 6);
+    }
+
+    @Test
+    public void shouldFailOverToReachableServer() throws IOException, InterruptedException {
+        // given
+        final ServerSocket unreachable = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        final int unreachablePort = unreachable.getLocalPort();
+        unreachable.close();
+        final BatchingTcpTransport down = tcpTransport(unreachablePort);
+
+        try (ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            serverSocket.setSoTimeout(5000);
+            final BatchingTcpTransport up = tcpTransport(serverSocket.getLocalPort());
+            final LoadBalancingTransport transport = new LoadBalancingTransport(
+                    Arrays.<AbstractFrameTransport>asList(down, up), LoadBalancingTransport.Strategy.ROUND_ROBIN);
+
+            try {
+                // when
+                send(transport, "lost");
+                Thread.sleep(200L);
+                for (int i = 0; i < 10; i++) {
+                    send(transport, Integer.toString(i));
+                }
+
+                // then
+                try (Socket socket = serverSocket.accept()) {
+                    final List<String> frames = BatchingTcpTransportTest.readFrames(socket.getInputStream(), 10);
+                    assertThat(frames.size(), is(10));
+                    assertThat(frames.get(9), is("{\"short_message\":\"9\"}"));
+                }
+                assertThat(down.isConnected(), is(false));
+            } finally {
+                transport.stop();
+            }
+        }
+    }
+
+    @Test
+    public void shouldDrainAllEndpointsWithinSameDeadline() throws IOException {
+        // given
+        final ServerSocket unreachable = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        final int unreachablePort = unreachable.getLocalPort();
+        unreachable.close();
+        final LoadBalancingTransport transport = new LoadBalancingTransport(
+                Arrays.<AbstractFrameTransport>asList(tcpTransport(unreachablePort), tcpTransport(unreachablePort)),
+                LoadBalancingTransport.Strategy.ROUND_ROBIN);
+        for (int i = 0; i < 10; i++) {
+            send(transport, Integer.toString(i));
+        }
+
+        // when
+        final long start = System.nanoTime();
+        final int abandoned = transport.drainAndStop(TimeUnit.MILLISECONDS.toNanos(500L));
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // then
+        assertThat(abandoned, is(10));
+        assertThat(elapsedMillis < 950L, is(true));
+    }
+
+    private static AbstractFrameTransport transport(final boolean connected, final int queueSize) {
+        final AbstractFrameTransport transport = mock(AbstractFrameTransport.class);
+        given(transport.isConnected()).willReturn(connected);
+        given(transport.queueSize()).willReturn(queueSize);
+        return transport;
+    }
+
+    private static BatchingTcpTransport tcpTransport(final int port) {
+        final GelfConfiguration configuration = new GelfConfiguration(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port))
+                .transport(GelfTransports.TCP)
+                .queueSize(512)
+                .reconnectDelay(1000);
+        return new BatchingTcpTransport(configuration, 0, 0L, OverflowPolicy.dropNewest(), null);
+    }
+
+    private static void send(final LoadBalancingTransport transport, final String message) {
+        final byte[] frame = ("{\"short_message\":\"" + message + "\"}").getBytes(StandardCharsets.UTF_8);
+        assertThat(transport.trySend(frame, 0, frame.length, 6), is(true));
+    }
+}
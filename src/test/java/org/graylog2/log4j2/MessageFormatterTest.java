@@ -0,0 +1,115 @@
+package org.graylog2.log4j2;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.util.StringBuilderFormattable;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+public class MessageFormatterTest {
+    private static final String MESSAGE = "Quote \" Newline \n Umlaut ä Euro € Emoji 😀";
+
+    @Test
+    public void shouldFormatStringBuilderFormattableMessagesIntoBuilder() {
+        // given
+        final Message message = mock(Message.class, withSettings().extraInterfaces(StringBuilderFormattable.class));
+        given(message.getFormattedMessage()).willReturn("getFormattedMessage");
+        willAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(final InvocationOnMock invocation) {
+                invocation.<StringBuilder>getArgument(0).append(MESSAGE);
+                return null;
+            }
+        }).given((StringBuilderFormattable) message).formatTo(any(StringBuilder.class));
+        final LogEvent event = Log4jLogEvent.newBuilder().setLevel(Level.INFO).setMessage(message).build();
+        final GelfOutputBuffer buffer = new GelfOutputBuffer(16);
+
+        // when
+        new MessageFormatter(null).appendJsonString(event, buffer);
+
+        // then
+        assertThat(buffer.toString(), is(jsonString(MESSAGE)));
+    }
+
+    @Test
+    public void shouldEncodeUtf8LayoutDirectlyIntoBuffer() {
+        // given
+        final PatternLayout layout = PatternLayout.newBuilder()
+                .withPattern("%level %m")
+                .withCharset(StandardCharsets.UTF_8)
+                .build();
+        final LogEvent event = createLogEvent(MESSAGE);
+        final GelfOutputBuffer buffer = new GelfOutputBuffer(16);
+
+        // when
+        new MessageFormatter(layout).appendJsonString(event, buffer);
+
+        // then
+        assertThat(buffer.toString(), is(jsonString("INFO " + MESSAGE)));
+    }
+
+    @Test
+    public void shouldEncodeMessagesLargerThanDestinationBuffer() {
+        // given
+        final char[] chars = new char[20000];
+        Arrays.fill(chars, 'ä');
+        final String message = new String(chars) + "\"";
+        final PatternLayout layout = PatternLayout.newBuilder()
+                .withPattern("%m")
+                .withCharset(StandardCharsets.UTF_8)
+                .build();
+        final GelfOutputBuffer buffer = new GelfOutputBuffer(16);
+
+        // when
+        new MessageFormatter(layout).appendJsonString(createLogEvent(message), buffer);
+
+        // then
+        assertThat(buffer.toString(), is(jsonString(message)));
+    }
+
+    @Test
+    public void shouldDecodeLayoutsWithOtherCharsets() {
+        // given
+        final PatternLayout layout = PatternLayout.newBuilder()
+                .withPattern("%m")
+                .withCharset(StandardCharsets.ISO_8859_1)
+                .build();
+        final LogEvent event = createLogEvent("Umlaut ä");
+        final MessageFormatter formatter = new MessageFormatter(layout);
+        final GelfOutputBuffer buffer = new GelfOutputBuffer(16);
+
+        // when
+        formatter.appendJsonString(event, buffer);
+
+        // then
+        assertThat(buffer.toString(), is(jsonString("Umlaut ä")));
+        assertThat(formatter.format(event), is("Umlaut ä"));
+    }
+
+    private static LogEvent createLogEvent(final String message) {
+        return Log4jLogEvent.newBuilder()
+                .setLevel(Level.INFO)
+                .setMessage(new SimpleMessage(message))
+                .build();
+    }
+
+    private static String jsonString(final String s) {
+        return new GelfOutputBuffer(16).appendJsonString(s).toString();
+    }
+}
@@ -0,0 +1,88 @@
+package org.graylog2.log4j2;
+
+import org.junit.Test;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class OverflowPolicyTest {
+    private static final int ERROR = 3;
+    private static final int WARNING = 4;
+    private static final int INFO = 6;
+
+    @Test
+    public void shouldParseHyphenatedType() {
+        assertThat(OverflowPolicy.Type.parse("discard-below-level"), is(OverflowPolicy.Type.DISCARD_BELOW_LEVEL));
+        assertThat(OverflowPolicy.Type.parse(" drop_oldest "), is(OverflowPolicy.Type.DROP_OLDEST));
+    }
+
+    @Test
+    public void shouldDropNewestMessage() {
+        // given
+        final OverflowPolicy policy = OverflowPolicy.dropNewest();
+        final BlockingQueue<String> queue = new ArrayBlockingQueue<>(1);
+
+        // when
+        final boolean first = policy.offer(queue, "first", INFO);
+        final boolean second = policy.offer(queue, "second", INFO);
+
+        // then
+        assertThat(first, is(true));
+        assertThat(second, is(false));
+        assertThat(queue.peek(), is("first"));
+        assertThat(policy.getDroppedNewest(), is(1L));
+    }
+
+    @Test
+    public void shouldDropOldestMessage() {
+        // given
+        final OverflowPolicy policy = new OverflowPolicy(OverflowPolicy.Type.DROP_OLDEST, 0L, 0);
+        final BlockingQueue<String> queue = new ArrayBlockingQueue<>(1);
+
+        // when
+        policy.offer(queue, "first", INFO);
+        final boolean second = policy.offer(queue, "second", INFO);
+
+        // then
+        assertThat(second, is(true));
+        assertThat(queue.peek(), is("second"));
+        assertThat(policy.getDroppedOldest(), is(1L));
+    }
+
+    @Test
+    public void shouldTimeOutWhenBlocking() {
+        // given
+        final OverflowPolicy policy = new OverflowPolicy(OverflowPolicy.Type.BLOCK, 10L, 0);
+        final BlockingQueue<String> queue = new ArrayBlockingQueue<>(1);
+
+        // when
+        policy.offer(queue, "first", INFO);
+        final boolean second = policy.offer(queue, "second", INFO);
+
+        // then
+        assertThat(second, is(false));
+        assertThat(policy.getTimedOut(), is(1L));
+    }
+
+    @Test
+    public void shouldDiscardOnlyMessagesBelowLevel() {
+        // given
+        final OverflowPolicy policy = new OverflowPolicy(OverflowPolicy.Type.DISCARD_BELOW_LEVEL, 10L, WARNING);
+        final BlockingQueue<String> queue = new ArrayBlockingQueue<>(1);
+
+        // when
+        policy.offer(queue, "first", INFO);
+        final boolean info = policy.offer(queue, "info", INFO);
+        final boolean error = policy.offer(queue, "error", ERROR);
+
+        // then
+        assertThat(info, is(false));
+        assertThat(error, is(false));
+        assertThat(policy.getDiscardedBelowLevel(), is(1L));
+        assertThat(policy.getTimedOut(), is(1L));
+        assertThat(policy.getDiscarded(), is(2L));
+    }
+}
@@ -0,0 +1,44 @@
+package org.graylog2.log4j2;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class SourceLocationCacheTest {
+    private static final StackTraceElement FOO = new StackTraceElement("com.example.Foo", "foo", "Foo.java", 1);
+    private static final StackTraceElement BAR = new StackTraceElement("com.example.Bar", "bar", null, -2);
+
+    @Test
+    public void shouldAppendSourceFields() {
+        // given
+        final SourceLocationCache cache = new SourceLocationCache(16);
+        final GelfOutputBuffer buffer = new GelfOutputBuffer(16);
+
+        // when
+        cache.append(FOO, buffer);
+        cache.append(new StackTraceElement("com.example.Foo", "foo", "Foo.java", 1), buffer);
+
+        // then
+        final String fields = ",\"_sourceFileName\":\"Foo.java\",\"_sourceMethodName\":\"foo\""
+                + ",\"_sourceClassName\":\"com.example.Foo\",\"_sourceLineNumber\":1";
+        assertThat(buffer.toString(), is(fields + fields));
+        assertThat(cache.size(), is(1));
+    }
+
+    @Test
+    public void shouldStartOverIfFull() {
+        // given
+        final SourceLocationCache cache = new SourceLocationCache(1);
+        final GelfOutputBuffer buffer = new GelfOutputBuffer(16);
+
+        // when
+        cache.append(FOO, buffer);
+        cache.append(BAR, buffer);
+
+        // then
+        assertThat(buffer.toString().endsWith(",\"_sourceFileName\":null,\"_sourceMethodName\":\"bar\""
+                + ",\"_sourceClassName\":\"com.example.Bar\",\"_sourceLineNumber\":-2"), is(true));
+        assertThat(cache.size(), is(1));
+    }
+}
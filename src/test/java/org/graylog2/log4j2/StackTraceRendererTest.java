@@ -0,0 +1,107 @@
+package org.graylog2.log4j2;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.core.StringContains.containsString;
+import static org.junit.Assert.assertThat;
+
+public class StackTraceRendererTest {
+    @Test
+    public void shouldRenderFramesWithoutCauses() {
+        // given
+        final StackTraceRenderer renderer = new StackTraceRenderer(16);
+        final Exception exception = new RuntimeException("Outer Exception", new Exception("Inner Exception"));
+        final StackTraceElement frame = exception.getStackTrace()[0];
+
+        // when
+        final String stackTrace = renderer.render(exception, false);
+
+        // then
+        assertThat(stackTrace, containsString(frame.getClassName() + "." + frame.getMethodName()
+                + "(" + frame.getFileName() + ":" + frame.getLineNumber() + ")" + System.lineSeparator()));
+        assertThat(stackTrace, not(containsString("Inner Exception")));
+    }
+
+    @Test
+    public void shouldRenderLikePrintStackTraceWithCauses() {
+        // given
+        final StackTraceRenderer renderer = new StackTraceRenderer(16);
+        final Exception exception = new RuntimeException("Outer Exception", new Exception("Inner Exception"));
+        final StringWriter stringWriter = new StringWriter();
+        exception.printStackTrace(new PrintWriter(stringWriter));
+
+        // when
+        final String stackTrace = renderer.render(exception, true);
+
+        // then
+        assertThat(stackTrace, is(stringWriter.toString()));
+    }
+
+    @Test
+    public void shouldReuseRenderedStackTraceForIdenticalExceptions() {
+        // given
+        final StackTraceRenderer renderer = new StackTraceRenderer(16);
+
+        final String[] stackTraces = new String[2];
+
+        // when
+        for (int i = 0; i < stackTraces.length; i++) {
+            stackTraces[i] = renderer.render(createException("Message"), true);
+        }
+
+        // then
+        assertThat(stackTraces[1], sameInstance(stackTraces[0]));
+        assertThat(renderer.cacheSize(), is(1));
+    }
+
+    @Test
+    public void shouldNotReuseRenderedStackTraceForDifferentMessages() {
+        // given
+        final StackTraceRenderer renderer = new StackTraceRenderer(16);
+
+        // when
+        final String first = renderer.render(createException("Message 1"), true);
+        final String second = renderer.render(createException("Message 2"), true);
+
+        // then
+        assertThat(first, containsString("Message 1"));
+        assertThat(second, containsString("Message 2"));
+        assertThat(renderer.cacheSize(), is(2));
+    }
+
+    @Test
+    public void shouldEvictEntriesWhenCacheIsFull() {
+        // given
+        final StackTraceRenderer renderer = new StackTraceRenderer(2);
+
+        // when
+        for (int i = 0; i < 10; i++) {
+            renderer.render(createException("Message " + i), true);
+        }
+
+        // then
+        assertThat(renderer.cacheSize(), is(2));
+    }
+
+    @Test
+    public void shouldNotCacheIfDisabled() {
+        // given
+        final StackTraceRenderer renderer = new StackTraceRenderer(0);
+
+        // when
+        renderer.render(createException("Message"), false);
+
+        // then
+        assertThat(renderer.cacheSize(), is(0));
+    }
+
+    private static Exception createException(final String message) {
+        return new IllegalStateException(message, new Exception("Cause"));
+    }
+}
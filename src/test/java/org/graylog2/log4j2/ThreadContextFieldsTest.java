@@ -0,0 +1,60 @@
+package org.graylog2.log4j2;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class ThreadContextFieldsTest {
+    @Test
+    public void shouldIncludeAllKeysByDefault() {
+        // given
+        final ThreadContextFields fields = ThreadContextFields.parse(null, null, null);
+
+        // then
+        assertThat(fields.fieldName("userId"), is("userId"));
+        assertThat(ThreadContextFields.ALL.fieldName("userId"), is("userId"));
+    }
+
+    @Test
+    public void shouldPreferExcludesOverIncludes() {
+        // given
+        final ThreadContextFields fields = ThreadContextFields.parse("user*, requestId", "userSecret, internal.*",
+                null);
+
+        // then
+        assertThat(fields.fieldName("userId"), is("userId"));
+        assertThat(fields.fieldName("requestId"), is("requestId"));
+        assertThat(fields.fieldName("userSecret"), nullValue());
+        assertThat(fields.fieldName("sessionId"), nullValue());
+        assertThat(ThreadContextFields.parse(null, "internal.*", null).fieldName("internal.id"), nullValue());
+    }
+
+    @Test
+    public void shouldRenameKeys() {
+        // given
+        final ThreadContextFields fields = ThreadContextFields.parse(null, null, "traceId=trace_id, invalid=, =x");
+
+        // then
+        assertThat(fields.fieldName("traceId"), is("trace_id"));
+        assertThat(fields.fieldName("invalid"), is("invalid"));
+    }
+
+    @Test
+    public void shouldCacheEncodedFieldNames() {
+        // given
+        final ThreadContextFields fields = ThreadContextFields.parse(null, "secret", "traceId=trace_id");
+
+        // when
+        final byte[] encoded = fields.encodedFieldName("traceId");
+
+        // then
+        assertThat(new String(encoded, StandardCharsets.UTF_8), is(",\"_trace_id\":"));
+        assertThat(fields.encodedFieldName("traceId"), sameInstance(encoded));
+        assertThat(fields.encodedFieldName("secret"), nullValue());
+    }
+}